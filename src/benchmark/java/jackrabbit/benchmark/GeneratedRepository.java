@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.benchmark;
+
+import jackrabbit.repository.RepositoryFactoryImpl;
+import jackrabbit.repository.RepositoryGenerator;
+import jackrabbit.session.SessionFactoryImpl;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * 
+ * Source repository created in a temporary directory for a benchmark trial, with a tree generated by RepositoryGenerator under /data. 
+ * The repository configuration is read from the benchmark.conf system property, config/repository_derby.xml by default.
+ *
+ */
+@State(Scope.Benchmark)
+public class GeneratedRepository {
+	
+	public static final String DATA_PATH="/data";
+	
+	@Param({"30"})
+	public int fanOut;
+	
+	@Param({"2"})
+	public int depth;
+	
+	@Param({"0.5"})
+	public double binaryRatio;
+	
+	@Param({"65536"})
+	public long maxBinarySize;
+	
+	protected File dir;
+	protected JackrabbitRepository src;
+	protected Session srcSession;
+	protected long nodes;
+	
+	@Setup
+	public void setUpRepository() throws RepositoryException, IOException {
+		dir=createTempDir(getClass().getSimpleName());
+		src=createRepository(new File(dir, "src"));
+		srcSession=login(src);
+		RepositoryGenerator generator=new RepositoryGenerator();
+		generator.setFanOut(fanOut);
+		generator.setDepth(depth);
+		generator.setBinaryRatio(binaryRatio);
+		generator.setMaxBinarySize(maxBinarySize);
+		nodes=generator.generate(srcSession, DATA_PATH);
+	}
+	
+	@TearDown
+	public void tearDownRepository() throws IOException {
+		srcSession.logout();
+		src.shutdown();
+		FileUtils.deleteDirectory(dir);
+	}
+	
+	protected static File createTempDir(String name) throws IOException {
+		File dir=File.createTempFile(name, "");
+		if (!dir.delete() || !dir.mkdir())
+			throw new IOException("Cannot create "+dir.getPath());
+		return dir;
+	}
+	
+	protected static JackrabbitRepository createRepository(File dir) throws RepositoryException, IOException {
+		return new RepositoryFactoryImpl(System.getProperty("benchmark.conf", "config/repository_derby.xml"), dir.getPath()).getRepository();
+	}
+	
+	protected static Session login(JackrabbitRepository repository) throws RepositoryException {
+		return new SessionFactoryImpl(repository, new SimpleCredentials("username", "password".toCharArray())).getSession();
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.benchmark;
+
+import jackrabbit.node.BinPackingPartitioner;
+import jackrabbit.node.BufferedNodeTransfer;
+import jackrabbit.node.DirectNodeTransfer;
+import jackrabbit.node.NodeCopier;
+import jackrabbit.node.NodeSizePartitioner;
+import jackrabbit.node.NodeTransfer;
+import jackrabbit.node.SaveBatch;
+import jackrabbit.node.StreamingNodeTransfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 
+ * Time to copy the generated tree to a second repository with NodeCopier, as a whole, partitioned and partitioned with small siblings packed
+ * together, for every node transfer.
+ * The copy is removed from the destination after every invocation.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class NodeCopierBenchmark extends GeneratedRepository {
+	
+	private static final String DEST_PATH="/target";
+	
+	@Param({"buffer", "stream", "direct"})
+	public String mode;
+	
+	@Param({"100000"})
+	public long limit;
+	
+	private JackrabbitRepository dest;
+	private Session destSession;
+	private NodeTransfer transfer;
+	
+	@Setup
+	public void setUp() throws RepositoryException, IOException {
+		dest=createRepository(new File(dir, "dest"));
+		destSession=login(dest);
+		if (mode.equals("stream"))
+			transfer=new StreamingNodeTransfer();
+		else if (mode.equals("direct"))
+			transfer=new DirectNodeTransfer();
+		else
+			transfer=new BufferedNodeTransfer();
+	}
+	
+	@TearDown(Level.Invocation)
+	public void removeCopy() throws RepositoryException {
+		if (destSession.nodeExists(DEST_PATH)) {
+			destSession.getNode(DEST_PATH).remove();
+			destSession.save();
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		destSession.logout();
+		dest.shutdown();
+	}
+	
+	@Benchmark
+	public void copy() throws RepositoryException, IOException {
+		NodeCopier.copy(srcSession, destSession, DATA_PATH, DEST_PATH, true, transfer);
+	}
+	
+	@Benchmark
+	public void copyPartitioned() throws RepositoryException, IOException {
+		NodeCopier.copy(srcSession, destSession, DATA_PATH, DEST_PATH, limit, true, transfer);
+	}
+	
+	@Benchmark
+	public void copyPacked() throws RepositoryException, IOException {
+		NodeCopier.copy(srcSession, new SaveBatch(destSession), DATA_PATH, DEST_PATH, new BinPackingPartitioner(new NodeSizePartitioner(limit)), true, transfer, null);
+	}
+
+}
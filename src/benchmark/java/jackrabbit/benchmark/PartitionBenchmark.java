@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.benchmark;
+
+import jackrabbit.node.NodeSizePartitioner;
+import jackrabbit.node.PartitionIterator;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 
+ * Time to partition the generated tree, sizing it first, and to iterate over its partitions as they are computed
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class PartitionBenchmark extends GeneratedRepository {
+	
+	@Param({"10000", "100000"})
+	public long limit;
+	
+	@Benchmark
+	public Set<Map.Entry<String, Boolean>> partition() throws RepositoryException {
+		return new NodeSizePartitioner(limit).partition(srcSession.getNode(DATA_PATH));
+	}
+	
+	@Benchmark
+	public void iterate(Blackhole blackhole) throws RepositoryException {
+		PartitionIterator partitions=new NodeSizePartitioner(limit).iterator(srcSession.getNode(DATA_PATH));
+		while (partitions.hasNext()) {
+			blackhole.consume(partitions.next());
+		}
+	}
+
+}
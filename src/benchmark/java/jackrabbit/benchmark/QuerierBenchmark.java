@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.benchmark;
+
+import jackrabbit.query.CsvResultWriter;
+import jackrabbit.query.PreparedQueryCache;
+import jackrabbit.query.Querier;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.RowIterator;
+
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 
+ * Time to format the rows of a query on the generated tree in memory and to stream them as CSV, against the time to run the query and iterate its rows alone.
+ * Also the time of a lookup by name with a bind variable, parsed at every call and parsed once
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class QuerierBenchmark extends GeneratedRepository {
+	
+	private static final String QUERY="select node.[p0], node.[p1], node.[p4] from [nt:unstructured] as node where ISDESCENDANTNODE(node, ["+DATA_PATH+"])";
+	private static final String LOOKUP="select node.[p0] from [nt:unstructured] as node where ISDESCENDANTNODE(node, ["+DATA_PATH+"]) and name(node)=$name";
+	
+	private PreparedQueryCache queries;
+	private int lookups;
+	
+	@Setup
+	public void setUpQueries() {
+		queries=new PreparedQueryCache(srcSession);
+	}
+	
+	@Benchmark
+	public long query() throws RepositoryException {
+		RowIterator it=Querier.queryBySQLRow(srcSession, QUERY);
+		long rows=0;
+		while (it.hasNext()) {
+			it.nextRow().getValues();
+			rows++;
+		}
+		return rows;
+	}
+	
+	@Benchmark
+	public String formatQueryResults() throws RepositoryException {
+		return Querier.formatQueryResults(Querier.queryBySQLRow(srcSession, QUERY));
+	}
+	
+	@Benchmark
+	public long lookup() throws RepositoryException {
+		Query query=srcSession.getWorkspace().getQueryManager().createQuery(LOOKUP, Query.JCR_SQL2);
+		query.bindValue("name", nextName());
+		return count(query.execute().getRows());
+	}
+	
+	@Benchmark
+	public long lookupPrepared() throws RepositoryException {
+		return count(Querier.query(queries, LOOKUP, null, Collections.singletonMap("name", nextName()), 0, 0).getRows());
+	}
+	
+	private Value nextName() throws RepositoryException {
+		return srcSession.getValueFactory().createValue("n"+(lookups++%fanOut));
+	}
+	
+	private static long count(RowIterator it) {
+		long rows=0;
+		while (it.hasNext()) {
+			it.nextRow();
+			rows++;
+		}
+		return rows;
+	}
+	
+	@Benchmark
+	public long writeQueryResults() throws RepositoryException, IOException {
+		return Querier.writeQueryResults(Querier.query(srcSession, QUERY, null, 0, 0), new CsvResultWriter(new NullWriter()));
+	}
+
+}
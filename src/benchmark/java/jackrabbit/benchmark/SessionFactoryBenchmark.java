@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.benchmark;
+
+import jackrabbit.session.PooledSessionFactory;
+import jackrabbit.session.SessionFactory;
+import jackrabbit.session.SessionFactoryImpl;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 
+ * Time to get a session, read a node with it and log it out, with a login every time against a session borrowed from a pool
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class SessionFactoryBenchmark extends GeneratedRepository {
+	
+	private SessionFactory sf;
+	private PooledSessionFactory pool;
+	
+	@Setup
+	public void setUpFactories() {
+		sf=new SessionFactoryImpl(src, new SimpleCredentials("username", "password".toCharArray()));
+		pool=new PooledSessionFactory(sf);
+	}
+	
+	@TearDown
+	public void tearDownPool() {
+		pool.close();
+	}
+	
+	@Benchmark
+	public long login() throws RepositoryException {
+		return read(sf.getSession());
+	}
+	
+	@Benchmark
+	public long borrow() throws RepositoryException {
+		return read(pool.getSession());
+	}
+	
+	private static long read(Session session) throws RepositoryException {
+		try {
+			return session.getNode(DATA_PATH).getNodes().getSize();
+		} finally {
+			session.logout();
+		}
+	}
+
+}
@@ -18,24 +18,68 @@
 package jackrabbit.app;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import jackrabbit.node.NodeCopier;
+import jackrabbit.metrics.MetricsReporter;
+import jackrabbit.metrics.MigrationMetrics;
+import jackrabbit.node.BinPackingPartitioner;
+import jackrabbit.node.BinaryCopier;
+import jackrabbit.node.BinaryNodeTransfer;
+import jackrabbit.node.BufferedNodeTransfer;
+import jackrabbit.node.CheckpointJournal;
+import jackrabbit.node.CostPartitioner;
+import jackrabbit.node.DirectNodeTransfer;
+import jackrabbit.node.EventJournalChangeDetector;
+import jackrabbit.node.HighWaterMarks;
+import jackrabbit.node.LastModifiedChangeDetector;
+import jackrabbit.node.NodeCountPartitioner;
+import jackrabbit.node.NodeSizePartitioner;
+import jackrabbit.node.NodeTransfer;
+import jackrabbit.node.StreamingNodeTransfer;
+import jackrabbit.node.WeightedCostPartitioner;
+import jackrabbit.node.WorkspaceCopier;
+import jackrabbit.query.CsvResultWriter;
+import jackrabbit.query.FanOutQuerier;
+import jackrabbit.query.JsonLinesResultWriter;
+import jackrabbit.query.PreparedQueryCache;
 import jackrabbit.query.Querier;
+import jackrabbit.query.QueryHistory;
+import jackrabbit.query.QueryProfile;
+import jackrabbit.query.QueryResultCache;
+import jackrabbit.query.ResultWriter;
+import jackrabbit.query.TableResultWriter;
+import jackrabbit.repository.FileRepositorySource;
+import jackrabbit.repository.IndexRebuilder;
 import jackrabbit.repository.RepositoryFactory;
 import jackrabbit.repository.RepositoryFactoryImpl;
 import jackrabbit.repository.RepositoryManager;
+import jackrabbit.session.PooledSessionFactory;
 import jackrabbit.session.SessionFactory;
 import jackrabbit.session.SessionFactoryImpl;
+import jackrabbit.util.NodePathModifier;
+import jackrabbit.util.RegexModifier;
 
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
-import javax.jcr.query.RowIterator;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
 
+import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.jackrabbit.api.JackrabbitRepository;
@@ -54,11 +98,45 @@ public class App {
 	private static String cndPath="";
 	private static String query="";
 	private static String queryType="";
+	private static String queryFormat="";
+	private static String queryOutputPath="";
+	private static long queryLimit;
+	private static long queryOffset;
+	private static boolean queryHeaders=true;
+	private static int queryCacheEntries;
+	private static long queryCacheRows=QueryResultCache.DEFAULT_MAX_ROWS;
+	private static Map<String, String> queryBindings=new LinkedHashMap<String, String>();
+	private static boolean queryProfile;
+	private static int fanOutThreads=FanOutQuerier.DEFAULT_THREADS;
+	private static String fanOutOrder="";
 	private static String srcUser="";
 	private static String srcPasswd="";
 	private static String destUser="";
 	private static String destPasswd="";
 	private static long nodeLimit;
+	private static String copyMode="";
+	private static String partitioning="";
+	private static String costWeights="";
+	private static boolean packSiblings;
+	private static String journalPath="";
+	private static boolean resume;
+	private static int threads=1;
+	private static int workspaceThreads=1;
+	private static long batchNodes;
+	private static long batchBytes;
+	private static boolean dedupBinaries;
+	private static String incrementalPath="";
+	private static String changeDetection="";
+	private static boolean deltaSweep;
+	private static long metricsInterval=MetricsReporter.DEFAULT_INTERVAL/1000;
+	private static boolean preScan;
+	private static String progressPath="";
+	private static int repositoryThreads=RepositoryMigrator.DEFAULT_THREADS;
+	private static int copyThreads;
+	private static String reportPath="";
+	private static boolean deferIndexing;
+	private static int indexThreads=1;
+	private static int sessionPool;
 	private static final String VERSION="0.1";
 	
 	
@@ -67,22 +145,67 @@ public class App {
     		System.out.println("Usage: java -jar ackrabbit-migration-query-tool-"+VERSION+"-jar-with-dependencies.jar " + 
     				"--src src --src-conf conf [--src-repo-path path] [--src-user src_user] [--src-passwd src_pw] "+ 
     				"[--dest-user dest_user] [--dest-passwd dest_pw] [--dest dest] [--dest-conf conf] [--dest-repo-path path] " +
-    				"[--cnd cnd] [--node-limit limit] " +
-    				"[--query-type type] [--query query]");
-    		System.out.println("\t --src source repository directory");
+    				"[--cnd cnd] [--node-limit limit] [--partitioner partitioner] [--cost-weights weights] [--pack-siblings pack] [--threads threads] [--workspace-threads threads] [--copy-mode mode] " +
+    				"[--journal journal] [--resume resume] [--batch-nodes nodes] [--batch-bytes bytes] [--dedup-binaries dedup] " +
+    				"[--incremental marks] [--change-detection detection] [--delta-sweep sweep] [--metrics-interval seconds] [--pre-scan prescan] [--progress-file file] [--repository-threads threads] [--copy-threads threads] [--report-file file] [--defer-indexing defer] [--index-threads threads] [--session-pool size] [--query-type type] [--query query] " +
+    				"[--query-format format] [--query-output file] [--query-limit limit] [--query-offset offset] [--query-headers headers] [--query-cache entries] [--query-cache-rows rows] [--bind name=value] [--query-profile profile] [--fan-out-threads threads] [--fan-out-order order]");
+    		System.out.println("\t --src source repository directory. dir/* migrates every repository directory under dir to the directory with the same name under the directory of --dest dir/*, " +
+    				"or runs --query in every one of them in query mode");
     		System.out.println("\t --src-conf source repository configuration file");
     		System.out.println("\t --src-repo-path path to source node to copy from; default is \"/\"");
     		System.out.println("\t --src-user source repository login");
     		System.out.println("\t --src-passwd source repository password");
-    		System.out.println("\t --dest destination repository directory");    		
+    		System.out.println("\t --dest destination repository directory; dir/* with --src dir/*");    		
     		System.out.println("\t --dest-conf destination repository configuration file");    		
     		System.out.println("\t --dest-repo-path path to destination node to copy to; default is \"/\"");
     		System.out.println("\t --dest-user destination repository login");
     		System.out.println("\t --dest-passwd destination repository password");
-    		System.out.println("\t --node-limit size to partition nodes with before copying. If it is not supplied, no partitioning is performed");
+    		System.out.println("\t --node-limit size to partition nodes with before copying, in the unit of --partitioner (bytes by default). If it is not supplied, no partitioning is performed");
+    		System.out.println("\t --partitioner how the size of a node and its descendants is measured to partition it (size, count, weighted); default is size. size sums the lengths of the property values in bytes, count counts the nodes and weighted sums the nodes, properties, bytes and binaries multiplied by --cost-weights");
+    		System.out.println("\t --cost-weights weights of a node, a property, a byte and a binary for --partitioner weighted, separated by commas; default is "+
+    				(long)WeightedCostPartitioner.DEFAULT_NODE_WEIGHT+","+(long)WeightedCostPartitioner.DEFAULT_PROPERTY_WEIGHT+","+
+    				(long)WeightedCostPartitioner.DEFAULT_BYTE_WEIGHT+","+(long)WeightedCostPartitioner.DEFAULT_BINARY_WEIGHT);
+    		System.out.println("\t --pack-siblings true to copy adjacent children under --node-limit together, as long as their total is under --node-limit, instead of one partition per child; default is false");
+    		System.out.println("\t --threads number of workers, each with its own sessions, to copy partitions with; only used with --node-limit. Default is 1");
+    		System.out.println("\t --workspace-threads number of workspaces to copy at the same time. Default is 1");
+    		System.out.println("\t --copy-mode how node content is transferred (buffer, stream, direct); default is buffer. stream overlaps export and import through a bounded pipe instead of holding each node in memory. direct writes nodes and properties through the JCR API without XML and copies binaries");
+    		System.out.println("\t --journal file recording the partitions copied, to resume from; only used with --node-limit");
+    		System.out.println("\t --resume true to skip the partitions --journal records as copied by a previous run; default is false");
+    		System.out.println("\t --batch-nodes number of nodes from which copied partitions are saved together; only used with --node-limit. If neither --batch-nodes nor --batch-bytes is supplied, every partition is saved on its own");
+    		System.out.println("\t --batch-bytes number of bytes transferred from which copied partitions are saved together; only used with --node-limit");
+    		System.out.println("\t --dedup-binaries true to copy binaries separately, looking up their content in the destination DataStore first so that content already there, including that copied by a previous run, is not read from the source again; default is false. Without it, buffer and stream copy nodes without their binaries");
+    		System.out.println("\t --incremental file recording the time of the last copy of each workspace. A workspace without a time is copied in full, otherwise only the nodes added, modified and removed since then are copied");
+    		System.out.println("\t --change-detection how changes are detected with --incremental (journal, lastmodified); default is journal. journal reads the event journal, which needs a clustered repository, and falls back to lastmodified, which queries the jcr:lastModified property of mix:lastModified nodes and does not detect removed nodes");
+    		System.out.println("\t --delta-sweep true to compare the whole destination with the source at each incremental copy to find the nodes removed when --change-detection does not detect removals, i.e. with lastmodified or when journal falls back to it; default is false, in which case removed nodes are only removed from the destination when the event journal reports them");
+    		System.out.println("\t --metrics-interval seconds between two log lines of the migration metrics, which are also exposed by the MBean "+MigrationMetrics.OBJECT_NAME+"; default is 60");
+    		System.out.println("\t --pre-scan true to count the nodes of each workspace before copying it, so that the progress logged includes the percentage done and the estimated time remaining; default is false. Only the totals are kept, so the nodes are measured again to partition them with --node-limit");
+    		System.out.println("\t --progress-file properties file rewritten with the state, percentage done, throughput and estimated time remaining of the migration at each progress log line, for other tools to poll");
+    		System.out.println("\t --repository-threads number of repositories migrated at the same time with --src dir/*. Default is "+RepositoryMigrator.DEFAULT_THREADS);
+    		System.out.println("\t --copy-threads number of threads copying the partitions of all the repositories with --src dir/*, shared by their copies with --threads; " +
+    				"default is --threads times --repository-threads. --journal and --incremental are suffixed with the name of each repository directory and --progress-file is ignored");
+    		System.out.println("\t --report-file file the status of each repository is written to, one tab separated line per repository, once all of them are migrated with --src dir/*");
+    		System.out.println("\t --defer-indexing true not to index the nodes copied while copying them: the destination is opened without the search indexes of --dest-conf " +
+    				"and its indexes are rebuilt from its content at the end of the migration. Queries on the destination fail during the migration. Default is false");
+    		System.out.println("\t --index-threads number of workspaces indexed at the same time with --defer-indexing. Default is 1");
+    		System.out.println("\t --session-pool maximum number of sessions of each workspace of the source and the destination kept open and lent to the copies " +
+    				"instead of logging in every time; at least --threads plus 2. Default is 0, no pool");
     		System.out.println("\t --cnd common node type definition file");
     		System.out.println("\t --query query to run in src. If --query is specified, then --dest, --dest-conf, --dest-repo-path and --cnd will be ignored.");
     		System.out.println("\t --query-type query type (sql, xpath, JCR-SQL2); default is JCR-SQL2");
+    		System.out.println("\t --query-format format the rows are written in (table, csv, json); default is table. json writes one JSON object per row and line");
+    		System.out.println("\t --query-output file to write the rows to, in UTF-8; default is the standard output");
+    		System.out.println("\t --query-limit maximum number of rows of each query; default is all of them");
+    		System.out.println("\t --query-offset number of rows of each query to skip, to page through results with --query-limit; default is 0");
+    		System.out.println("\t --query-headers false not to write the column names before the rows in the table and csv formats; default is true");
+    		System.out.println("\t --query-cache number of query results to keep in memory, evicting the least recently used, so that a query run again is answered without running it. Any change to the workspace queried evicts its results. Default is 0, no cache");
+    		System.out.println("\t --query-cache-rows number of rows above which a query result is not kept by --query-cache; default is "+QueryResultCache.DEFAULT_MAX_ROWS);
+    		System.out.println("\t --bind string value of a variable of the JCR-SQL2 queries, written $name in them; can be repeated. In query mode, \\set name value binds a value and \\unset name removes it. " +
+    				"Queries are parsed once per statement and reused with the values bound");
+    		System.out.println("\t --query-profile true to print the time to parse and execute each query, to read its first row and to fetch and write all its rows " +
+    				"instead of the total time only. In query mode, \\stats prints the percentiles of these times over the session and \\history the last queries. Default is false");
+    		System.out.println("\t --fan-out-threads number of repositories queried at the same time with --src dir/*; default is "+FanOutQuerier.DEFAULT_THREADS);
+    		System.out.println("\t --fan-out-order column of the query to sort the rows of all the repositories by with --src dir/*, followed by desc for a descending order. " +
+    				"Rows are then written once all the repositories have been queried, otherwise they are written as they arrive. --query-limit and --query-offset apply to the rows of all the repositories");
     		return;
     	}
     	for (int i=0;i<args.length;i=i+2) {
@@ -108,12 +231,84 @@ public class App {
     			destPasswd=args[i+1];
     		} else if (args[i].equals("--node-limit") && i+1<args.length) {
     			nodeLimit=Long.parseLong(args[i+1]);
+    		} else if (args[i].equals("--threads") && i+1<args.length) {
+    			threads=Integer.parseInt(args[i+1]);
+    		} else if (args[i].equals("--workspace-threads") && i+1<args.length) {
+    			workspaceThreads=Integer.parseInt(args[i+1]);
+    		} else if (args[i].equals("--copy-mode") && i+1<args.length) {
+    			copyMode=args[i+1];
+    		} else if (args[i].equals("--partitioner") && i+1<args.length) {
+    			partitioning=args[i+1];
+    		} else if (args[i].equals("--cost-weights") && i+1<args.length) {
+    			costWeights=args[i+1];
+    		} else if (args[i].equals("--pack-siblings") && i+1<args.length) {
+    			packSiblings=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--journal") && i+1<args.length) {
+    			journalPath=args[i+1];
+    		} else if (args[i].equals("--resume") && i+1<args.length) {
+    			resume=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--batch-nodes") && i+1<args.length) {
+    			batchNodes=Long.parseLong(args[i+1]);
+    		} else if (args[i].equals("--batch-bytes") && i+1<args.length) {
+    			batchBytes=Long.parseLong(args[i+1]);
+    		} else if (args[i].equals("--dedup-binaries") && i+1<args.length) {
+    			dedupBinaries=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--incremental") && i+1<args.length) {
+    			incrementalPath=args[i+1];
+    		} else if (args[i].equals("--change-detection") && i+1<args.length) {
+    			changeDetection=args[i+1];
+    		} else if (args[i].equals("--delta-sweep") && i+1<args.length) {
+    			deltaSweep=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--metrics-interval") && i+1<args.length) {
+    			metricsInterval=Long.parseLong(args[i+1]);
+    		} else if (args[i].equals("--pre-scan") && i+1<args.length) {
+    			preScan=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--progress-file") && i+1<args.length) {
+    			progressPath=args[i+1];
+    		} else if (args[i].equals("--repository-threads") && i+1<args.length) {
+    			repositoryThreads=Integer.parseInt(args[i+1]);
+    		} else if (args[i].equals("--copy-threads") && i+1<args.length) {
+    			copyThreads=Integer.parseInt(args[i+1]);
+    		} else if (args[i].equals("--report-file") && i+1<args.length) {
+    			reportPath=args[i+1];
+    		} else if (args[i].equals("--defer-indexing") && i+1<args.length) {
+    			deferIndexing=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--index-threads") && i+1<args.length) {
+    			indexThreads=Integer.parseInt(args[i+1]);
+    		} else if (args[i].equals("--session-pool") && i+1<args.length) {
+    			sessionPool=Integer.parseInt(args[i+1]);
     		} else if (args[i].equals("--cnd") && i+1<args.length) {
     			cndPath=args[i+1];
     		}  else if (args[i].equals("--query") && i+1<args.length) {
     			query=args[i+1];
     		} else if (args[i].equals("--query-type") && i+1<args.length) {
     			queryType=args[i+1];
+    		} else if (args[i].equals("--query-format") && i+1<args.length) {
+    			queryFormat=args[i+1];
+    		} else if (args[i].equals("--query-output") && i+1<args.length) {
+    			queryOutputPath=args[i+1];
+    		} else if (args[i].equals("--query-limit") && i+1<args.length) {
+    			queryLimit=Long.parseLong(args[i+1]);
+    		} else if (args[i].equals("--query-offset") && i+1<args.length) {
+    			queryOffset=Long.parseLong(args[i+1]);
+    		} else if (args[i].equals("--query-headers") && i+1<args.length) {
+    			queryHeaders=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--query-cache") && i+1<args.length) {
+    			queryCacheEntries=Integer.parseInt(args[i+1]);
+    		} else if (args[i].equals("--query-cache-rows") && i+1<args.length) {
+    			queryCacheRows=Long.parseLong(args[i+1]);
+    		} else if (args[i].equals("--query-profile") && i+1<args.length) {
+    			queryProfile=Boolean.parseBoolean(args[i+1]);
+    		} else if (args[i].equals("--fan-out-threads") && i+1<args.length) {
+    			fanOutThreads=Integer.parseInt(args[i+1]);
+    		} else if (args[i].equals("--fan-out-order") && i+1<args.length) {
+    			fanOutOrder=args[i+1];
+    		} else if (args[i].equals("--bind") && i+1<args.length) {
+    			int index=args[i+1].indexOf('=');
+    			if (index<0)
+    				queryBindings.put(args[i+1], null);
+    			else
+    				queryBindings.put(args[i+1].substring(0, index), args[i+1].substring(index+1));
     		}
     	}
     	boolean missingArgs=false;
@@ -135,13 +330,69 @@ public class App {
     		log.error("Please specify the --dest-conf option.");
     	}
     	
+    	if (!copyMode.isEmpty() && !copyMode.equalsIgnoreCase("buffer") && !copyMode.equalsIgnoreCase("stream") && !copyMode.equalsIgnoreCase("direct")) {
+    		missingArgs=true;
+    		log.error("Unknown --copy-mode "+copyMode+".");
+    	}
+    	
+    	if (!partitioning.isEmpty() && !partitioning.equalsIgnoreCase("size") && !partitioning.equalsIgnoreCase("count") && !partitioning.equalsIgnoreCase("weighted")) {
+    		missingArgs=true;
+    		log.error("Unknown --partitioner "+partitioning+".");
+    	}
+    	
+    	if (!costWeights.isEmpty() && costWeights.split(",").length!=4) {
+    		missingArgs=true;
+    		log.error("Please specify four --cost-weights separated by commas.");
+    	}
+    	
+    	if (!changeDetection.isEmpty() && !changeDetection.equalsIgnoreCase("journal") && !changeDetection.equalsIgnoreCase("lastmodified")) {
+    		missingArgs=true;
+    		log.error("Unknown --change-detection "+changeDetection+".");
+    	}
+    	
+    	if (!queryFormat.isEmpty() && !queryFormat.equalsIgnoreCase("table") && !queryFormat.equalsIgnoreCase("csv") && !queryFormat.equalsIgnoreCase("json")) {
+    		missingArgs=true;
+    		log.error("Unknown --query-format "+queryFormat+".");
+    	}
+    	
+    	if (srcRepoDir.endsWith("/*") && destConf.isEmpty() && query.isEmpty()) {
+    		missingArgs=true;
+    		log.error("Please specify the --query option to query several repositories.");
+    	}
+    	
+    	if (!destConf.isEmpty() && srcRepoDir.endsWith("/*")!=destRepoDir.endsWith("/*")) {
+    		missingArgs=true;
+    		log.error("Please specify both --src and --dest as dir/* to migrate several repositories.");
+    	}
+    	
+    	for (Map.Entry<String, String> binding:queryBindings.entrySet()) {
+    		if (binding.getValue()==null) {
+	    		missingArgs=true;
+	    		log.error("Please specify --bind "+binding.getKey()+" as name=value.");
+    		}
+    	}
+    	
+    	if (sessionPool>0 && sessionPool<threads+2) {
+    		//a partitioned copy holds a session per worker besides those of the workspace and of the partitioning
+    		missingArgs=true;
+    		log.error("Please specify a --session-pool of at least "+(threads+2)+" sessions for --threads "+threads+".");
+    	}
+    	
+    	if (resume && journalPath.isEmpty()) {
+    		missingArgs=true;
+    		log.error("Please specify the --journal option to resume from.");
+    	}
+    	
     	if (missingArgs) return;
        	    	
     	SimpleCredentials credentials=new SimpleCredentials(srcUser, srcPasswd.toCharArray());
     	SimpleCredentials destCredentials=new SimpleCredentials(destUser, destPasswd.toCharArray());
     	
     	JackrabbitRepository dest=null;
-    	RepositoryFactory destRf=null;    	
+    	PooledSessionFactory srcPool=null;
+    	PooledSessionFactory destPool=null;
+    	CheckpointJournal journal=null;
+    	RepositoryFactoryImpl destRf=null;    	
 		RepositoryFactory srcRf=new RepositoryFactoryImpl(srcConf, srcRepoDir);
 		if (!destConf.isEmpty()) {
 			destRf=new RepositoryFactoryImpl(destConf, destRepoDir);
@@ -149,6 +400,14 @@ public class App {
     	
 		
     	try {
+    		if (srcRepoDir.endsWith("/*") && destConf.isEmpty()) {
+    			runFanOutQuery(credentials);
+    			return;
+    		}
+    		if (srcRepoDir.endsWith("/*")) {
+    			migrateRepositories(credentials, destCredentials);
+    			return;
+    		}
     		final JackrabbitRepository src=srcRf.getRepository();
 	    	SessionFactory srcSf=new SessionFactoryImpl(src, credentials);
 	    	final Session srcSession=srcSf.getSession();	  
@@ -160,75 +419,114 @@ public class App {
     		});
 	    	if (destConf.isEmpty()) {//query mode
 	    		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
-	    		if (query.isEmpty()) {	    			
-	    			while (true) {
-	    				System.out.print(">");
-		    			String line=in.readLine();
-		    			if (line==null || line.isEmpty() || line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit")) {
-		    				break;
-		    			}
-		    			try {
-		    				runQuery(srcSession, line, queryType);
-		    			} catch (RepositoryException e) {
+	    		Writer out=queryOutputPath.isEmpty()?new OutputStreamWriter(System.out):new OutputStreamWriter(new FileOutputStream(queryOutputPath), "UTF-8");
+	    		ResultWriter resultWriter=getResultWriter(queryFormat, new BufferedWriter(out), queryHeaders);
+	    		PreparedQueryCache queries=new PreparedQueryCache(srcSession);
+	    		QueryHistory history=queryProfile?new QueryHistory():null;
+	    		QueryResultCache cache=null;
+	    		if (queryCacheEntries>0) {
+	    			cache=new QueryResultCache(queryCacheEntries, queryCacheRows);
+	    			cache.register(srcSession);
+	    		}
+	    		try {
+		    		if (query.isEmpty()) {	    			
+		    			while (true) {
+		    				System.out.print(">");
+			    			String line=in.readLine();
+			    			if (line==null || line.isEmpty() || line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit")) {
+			    				break;
+			    			}
+			    			if (line.startsWith("\\set ")) {
+			    				String[] binding=line.substring("\\set ".length()).trim().split("\\s+", 2);
+			    				queryBindings.put(binding[0], binding.length>1?binding[1]:"");
+			    				continue;
+			    			} else if (line.startsWith("\\unset ")) {
+			    				queryBindings.remove(line.substring("\\unset ".length()).trim());
+			    				continue;
+			    			} else if (line.trim().equals("\\stats")) {
+			    				System.out.println(history!=null?history:"No query profiled, run with --query-profile true");
+			    				continue;
+			    			} else if (line.trim().equals("\\history")) {
+			    				if (history==null)
+			    					System.out.println("No query profiled, run with --query-profile true");
+			    				else for (QueryProfile profile:history.getRecent()) {
+			    					System.out.println(profile.getStatement());
+			    					System.out.println("\t"+profile);
+			    				}
+			    				continue;
+			    			}
+			    			try {
+			    				runQuery(queries, line, queryType, cache, history, resultWriter);
+			    			} catch (RepositoryException e) {
+			    				log.error(e.getMessage(), e);
+			    			}
+			    		}
+	    			} else {
+	    				try {
+	    					runQuery(queries, query, queryType, cache, history, resultWriter);		
+	    				} catch (RepositoryException e) {
 		    				log.error(e.getMessage(), e);
 		    			}
-		    		}
-    			} else {
-    				try {
-    					runQuery(srcSession, query, queryType);		
-    				} catch (RepositoryException e) {
-	    				log.error(e.getMessage(), e);
 	    			}
-    			}
+	    		} finally {
+	    			if (cache!=null) {
+	    				cache.unregister(srcSession);
+	    				log.info(cache);
+	    			}
+	    			if (queryOutputPath.isEmpty())
+	    				resultWriter.flush();
+	    			else
+	    				out.close();
+	    		}
 	    		return;
 	    	}
 	    	
+	    	destRf.setDeferIndexing(deferIndexing);
 	    	dest=destRf.getRepository();
 	    	SessionFactory destSf=new SessionFactoryImpl(dest, destCredentials); 
 	    	Session destSession=destSf.getSession();
+	    	if (sessionPool>0) {
+	    		srcSf=srcPool=new PooledSessionFactory(srcSf, sessionPool);
+	    		destSf=destPool=new PooledSessionFactory(destSf, sessionPool);
+	    	}
+	    	BinaryCopier binaryCopier=dedupBinaries?new BinaryCopier():null;
+	    	WorkspaceCopier copier=getCopier(srcSf, destSf, journalPath, incrementalPath, binaryCopier);
+	    	journal=copier.getJournal();
 	    	
 	    	try {
+	    		//node types and namespaces are shared by all workspaces of the destination repository
 	    		RepositoryManager.registerCustomNodeTypes(destSession, cndPath);
-	    		if (nodeLimit == 0)
-	    			NodeCopier.copy(srcSession, destSession, srcRepoPath, destRepoPath, true);
-	    		else
-	    			NodeCopier.copy(srcSession, destSession, srcRepoPath, destRepoPath, nodeLimit, true);
-				log.info("Copying "+srcSession.getWorkspace().getName()+" to "+destSession.getWorkspace().getName()+ " for "+srcRepoDir + " done.");
 	    	} catch (ParseException e) {
 				log.error(e.getMessage(), e);
-			} catch (IOException e) {
-				log.error(e.getMessage(), e);
-			} catch (PathNotFoundException e) {
-				log.error(e.getMessage(), e);
-			} catch (RepositoryException e) {
-				log.error(e.getMessage(), e);
-			} 
+				return;
+			}
 	
-	    	List<String> destWkspaces=RepositoryManager.getDestinationWorkspaces(srcSession, destSession);
+	    	List<String> workspaces=new ArrayList<String>();
+	    	workspaces.add(srcSession.getWorkspace().getName());
+	    	workspaces.addAll(RepositoryManager.getDestinationWorkspaces(srcSession, destSession));
 	    	
-	    	for (String workspace:destWkspaces) {
-	    		Session wsSession=srcSf.getSession(workspace);
-	    		Session wsDestSession=destSf.getSession(workspace);
-	    		try {
-	    			RepositoryManager.registerCustomNodeTypes(wsDestSession, cndPath);
-	    			if (nodeLimit == 0)
-	    				NodeCopier.copy(wsSession, wsDestSession, srcRepoPath, destRepoPath, true);
-	    			else {
-	    				NodeCopier.copy(wsSession, wsDestSession, srcRepoPath, destRepoPath, nodeLimit, true);
-	    			}	    				
-	    			log.info("Copying "+wsSession.getWorkspace().getName()+" to "+wsDestSession.getWorkspace().getName()+ " for " + srcRepoDir + " done.");
-	    		} catch (IOException e) {
-	    			log.error(e.getMessage(), e);
-	    		} catch (ParseException e) {
-	    			log.error(e.getMessage(), e);
-	    		} catch (PathNotFoundException e) {
-	    			log.error(e.getMessage(), e);
-	    		} catch (RepositoryException e) {
-	    			log.error(e.getMessage(), e);
-	    		} finally {
-	    			wsSession.logout();
-	    			wsDestSession.logout();
-	    		}
+	    	MigrationMetrics metrics=MigrationMetrics.getInstance();
+	    	metrics.reset();
+	    	metrics.register();
+	    	MetricsReporter reporter=new MetricsReporter(metrics, metricsInterval*1000);
+	    	reporter.start();
+	    	try {
+	    		WorkspaceMigrator migrator=new WorkspaceMigrator(copier, workspaceThreads);
+	    		if (metricsInterval>0)
+	    			migrator.setReportInterval(metricsInterval*1000);
+	    		migrator.setPreScan(preScan);
+	    		if (!progressPath.isEmpty())
+	    			migrator.setProgressFile(new File(progressPath));
+	    		migrator.migrate(workspaces);
+	    	} finally {
+	    		reporter.stop();
+	    		metrics.unregister();
+	    	}
+	    	if (binaryCopier!=null)
+	    		log.info(binaryCopier);
+	    	if (srcPool!=null) {
+	    		log.info("Source sessions: "+srcPool);
+	    		log.info("Destination sessions: "+destPool);
 	    	}
     	} catch (IOException e) {
     		log.error(e.getMessage(), e);
@@ -237,14 +535,208 @@ public class App {
 		} catch (RepositoryException e) {
 			log.error(e.getMessage(), e);
 		} finally {
+			if (journal!=null) journal.close();
+			if (srcPool!=null) srcPool.close();
+			if (destPool!=null) destPool.close();
 			if (dest!=null) dest.shutdown();
+			if (dest!=null && deferIndexing)
+				rebuildIndexes(destCredentials);
 		}
     }
     
-    private static void runQuery(Session srcSession, String query, String queryType) throws RepositoryException {
+    /**
+     * Migrate every repository under the directory of --src to the directory with the same name under the directory of --dest
+     * @param credentials
+     * @param destCredentials
+     */
+    private static void migrateRepositories(SimpleCredentials credentials, SimpleCredentials destCredentials) {
+    	File srcParent=new File(srcRepoDir.substring(0, Math.max(1, srcRepoDir.length()-2)));
+    	File destParent=new File(destRepoDir.substring(0, Math.max(1, destRepoDir.length()-2)));
+    	NodePathModifier destinations=new RegexModifier("^"+Pattern.quote(srcParent.getPath()+"/"), 
+    			Matcher.quoteReplacement(destParent.getPath()+"/"));
+    	RepositoryMigrator migrator=new RepositoryMigrator(new FileRepositorySource(srcParent, FileFilterUtils.directoryFileFilter()), destinations, 
+    			srcConf, destConf, credentials, destCredentials, new RepositoryMigrator.CopierFactory() {
+			public WorkspaceCopier getCopier(String source, SessionFactory srcSf, SessionFactory destSf) throws IOException {
+				//the journal and the marks record paths per workspace, which are the same in every repository
+				String name=new File(source).getName();
+				return App.getCopier(srcSf, destSf, journalPath.isEmpty()?"":journalPath+"."+name, incrementalPath.isEmpty()?"":incrementalPath+"."+name, 
+						dedupBinaries?new BinaryCopier():null);
+			}
+		});
+    	migrator.setThreads(repositoryThreads);
+    	if (threads>1)
+    		migrator.setCopyThreads(copyThreads>0?copyThreads:threads*repositoryThreads);
+    	migrator.setWorkspaceThreads(workspaceThreads);
+    	migrator.setCndPath(cndPath);
+    	migrator.setDeferIndexing(deferIndexing);
+    	migrator.setIndexThreads(indexThreads);
+    	migrator.setSessionPool(sessionPool);
+    	migrator.setPreScan(preScan);
+    	migrator.setReportInterval(metricsInterval*1000);
+    	if (!reportPath.isEmpty())
+    		migrator.setReportFile(new File(reportPath));
+    	MigrationMetrics metrics=MigrationMetrics.getInstance();
+    	metrics.reset();
+    	metrics.register();
+    	MetricsReporter reporter=new MetricsReporter(metrics, metricsInterval*1000);
+    	reporter.start();
+    	try {
+    		migrator.migrate();
+    	} finally {
+    		reporter.stop();
+    		metrics.unregister();
+    	}
+    }
+    
+    /**
+     * Rebuild the indexes of the destination, whether the migration succeeded or not, since it is not indexed until then
+     * @param destCredentials
+     */
+    private static void rebuildIndexes(SimpleCredentials destCredentials) {
+    	IndexRebuilder rebuilder=new IndexRebuilder(destConf, destRepoDir, destCredentials);
+    	rebuilder.setThreads(indexThreads);
+    	try {
+    		rebuilder.rebuild();
+    	} catch (RepositoryException e) {
+    		log.error("Cannot rebuild the indexes of "+destRepoDir+": "+e.getMessage(), e);
+    	}
+    }
+    
+    /**
+     * @param srcSf
+     * @param destSf
+     * @param journalPath - file of the journal of the copy, empty for none
+     * @param incrementalPath - file of the high water marks of the copy, empty to copy everything
+     * @param binaryCopier - copier of the binaries, null to copy them with the nodes
+     * @return copier configured with the options of the migration
+     * @throws IOException
+     */
+    private static WorkspaceCopier getCopier(SessionFactory srcSf, SessionFactory destSf, String journalPath, String incrementalPath, 
+    		BinaryCopier binaryCopier) throws IOException {
+    	WorkspaceCopier copier=new WorkspaceCopier(srcSf, destSf, srcRepoPath, destRepoPath);
+    	copier.setNodeLimit(nodeLimit);
+    	CostPartitioner partitioner=getPartitioner(partitioning, nodeLimit, costWeights);
+    	copier.setPartitioner(packSiblings?new BinPackingPartitioner(partitioner):partitioner);
+    	copier.setThreads(threads);
+    	copier.setTransfer(getNodeTransfer(copyMode, binaryCopier));
+    	copier.setBatchNodes(batchNodes);
+    	copier.setBatchBytes(batchBytes);
+    	if (!journalPath.isEmpty())
+    		copier.setJournal(new CheckpointJournal(new File(journalPath), resume));
+    	if (!incrementalPath.isEmpty()) {
+    		copier.setHighWaterMarks(new HighWaterMarks(new File(incrementalPath)));
+    		if (changeDetection.equalsIgnoreCase("lastmodified"))
+    			copier.setChangeDetector(new LastModifiedChangeDetector());
+    		else
+    			copier.setChangeDetector(new EventJournalChangeDetector(new LastModifiedChangeDetector()));
+    		copier.setDeltaSweep(deltaSweep);
+    	}
+    	return copier;
+    }
+    
+    /**
+     * @param copyMode
+     * @param binaryCopier - copier of the binaries, null to copy them with the nodes
+     * @return transfer of copyMode
+     */
+    private static NodeTransfer getNodeTransfer(String copyMode, BinaryCopier binaryCopier) {
+    	if (copyMode.equalsIgnoreCase("direct"))
+    		return binaryCopier==null?new DirectNodeTransfer():new DirectNodeTransfer(binaryCopier);
+    	NodeTransfer transfer=copyMode.equalsIgnoreCase("stream")?new StreamingNodeTransfer():new BufferedNodeTransfer();
+    	return binaryCopier==null?transfer:new BinaryNodeTransfer(transfer, binaryCopier);
+    }
+    
+    /**
+     * @param partitioning
+     * @param limit
+     * @param costWeights - weights of a node, a property, a byte and a binary separated by commas; empty for the default weights
+     * @return partitioner of partitioning
+     */
+    private static CostPartitioner getPartitioner(String partitioning, long limit, String costWeights) {
+    	if (partitioning.equalsIgnoreCase("count"))
+    		return new NodeCountPartitioner(limit);
+    	if (!partitioning.equalsIgnoreCase("weighted"))
+    		return new NodeSizePartitioner(limit);
+    	if (costWeights.isEmpty())
+    		return new WeightedCostPartitioner(limit);
+    	String[] weights=costWeights.split(",");
+    	return new WeightedCostPartitioner(limit, Double.parseDouble(weights[0].trim()), Double.parseDouble(weights[1].trim()), 
+    			Double.parseDouble(weights[2].trim()), Double.parseDouble(weights[3].trim()));
+    }
+    
+    /**
+     * @param queryFormat
+     * @param writer
+     * @param headers - whether to write the column names before the rows
+     * @return writer of the rows in queryFormat
+     */
+    private static ResultWriter getResultWriter(String queryFormat, Writer writer, boolean headers) {
+    	if (queryFormat.equalsIgnoreCase("csv"))
+    		return new CsvResultWriter(writer, headers);
+    	if (queryFormat.equalsIgnoreCase("json"))
+    		return new JsonLinesResultWriter(writer);
+    	return new TableResultWriter(writer, headers);
+    }
+    
+    /**
+     * Run --query in every repository under the directory of --src
+     * @param credentials
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    private static void runFanOutQuery(SimpleCredentials credentials) throws RepositoryException, IOException {
+    	long start=System.currentTimeMillis();
+    	File parent=new File(srcRepoDir.substring(0, Math.max(1, srcRepoDir.length()-2)));
+    	FanOutQuerier querier=new FanOutQuerier(new FileRepositorySource(parent, FileFilterUtils.directoryFileFilter()), srcConf, credentials);
+    	querier.setThreads(fanOutThreads);
+    	querier.setLimit(queryLimit);
+    	querier.setOffset(queryOffset);
+    	if (!fanOutOrder.isEmpty()) {
+    		String[] order=fanOutOrder.trim().split("\\s+");
+    		querier.setOrderBy(order[0], order.length>1 && order[1].equalsIgnoreCase("desc"));
+    	}
+    	Writer out=queryOutputPath.isEmpty()?new OutputStreamWriter(System.out):new OutputStreamWriter(new FileOutputStream(queryOutputPath), "UTF-8");
+    	long rows;
+    	try {
+    		rows=querier.query(query, queryType, getResultWriter(queryFormat, new BufferedWriter(out), queryHeaders));
+    	} finally {
+    		if (queryOutputPath.isEmpty())
+    			out.flush();
+    		else
+    			out.close();
+    	}
+    	System.out.println(rows+" rows"+(querier.getFailures().isEmpty()?"":", "+querier.getFailures().size()+" repositories failed: "+querier.getFailures().keySet()));
+		System.out.println("Time: "+String.valueOf(System.currentTimeMillis()-start) +" milliseeconds");
+    }
+    
+    /**
+     * @param queries - queries of the source session
+     * @param query
+     * @param queryType
+     * @param cache - null for none
+     * @param history - history to add the profile of the query to, null not to profile it
+     * @param resultWriter
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    private static void runQuery(PreparedQueryCache queries, String query, String queryType, QueryResultCache cache, QueryHistory history, 
+    		ResultWriter resultWriter) throws RepositoryException, IOException {
     	long start=System.currentTimeMillis();
-		RowIterator rowIt=Querier.queryBySQLRow(srcSession, query, queryType);
-		System.out.println(Querier.formatQueryResults(rowIt));
+    	ValueFactory valueFactory=queries.getSession().getValueFactory();
+    	Map<String, Value> bindings=new HashMap<String, Value>();
+    	for (Map.Entry<String, String> binding:queryBindings.entrySet()) {
+    		bindings.put(binding.getKey(), valueFactory.createValue(binding.getValue()));
+    	}
+    	if (history!=null) {
+    		QueryProfile profile=new QueryProfile();
+    		Querier.writeQueryResults(queries, query, queryType, bindings, queryLimit, queryOffset, cache, resultWriter, profile);
+    		history.add(profile);
+    		System.out.println(profile);
+    		return;
+    	}
+    	long hits=cache!=null?cache.getHits():0;
+    	long rows=Querier.writeQueryResults(queries, query, queryType, bindings, queryLimit, queryOffset, cache, resultWriter);
+    	System.out.println(rows+" rows"+(cache!=null && cache.getHits()>hits?" (cached)":""));
 		System.out.println("Time: "+String.valueOf(System.currentTimeMillis()-start) +" milliseeconds");
     }
 }
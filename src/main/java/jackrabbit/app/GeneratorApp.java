@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.app;
+
+import jackrabbit.repository.RepositoryFactoryImpl;
+import jackrabbit.repository.RepositoryGenerator;
+import jackrabbit.repository.RepositoryManager;
+import jackrabbit.session.SessionFactoryImpl;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+
+/**
+ * 
+ * Command line tool generating a repository to test migrations with
+ *
+ */
+public class GeneratorApp {
+	
+	protected static Log log=LogFactory.getLog(GeneratorApp.class);
+	
+	private static String repoDir="";
+	private static String conf="";
+	private static String repoPath="/data";
+	private static String workspace="";
+	private static String user="";
+	private static String passwd="";
+	private static String cndPath="";
+	
+	public static void main(String[] args) {
+		if (args.length == 0 || args.length == 1 && args[0].equals("-h")) {
+			System.out.println("Usage: java -cp jackrabbit-migration-query-0.1-jar-with-dependencies.jar jackrabbit.app.GeneratorApp " +
+					"--dir dir --conf conf [--repo-path path] [--workspace workspace] [--user user] [--passwd pw] [--cnd cnd] [--node-type type] " +
+					"[--seed seed] [--fan-out fanout] [--depth depth] [--same-name-siblings siblings] [--properties properties] [--string-length length] " +
+					"[--binary-ratio ratio] [--min-binary-size size] [--max-binary-size size] [--reference-ratio ratio] [--save-interval nodes]");
+			System.out.println("\t --dir repository directory, created if it does not exist");
+			System.out.println("\t --conf repository configuration file");
+			System.out.println("\t --repo-path path of the node to generate the nodes under; default is /data");
+			System.out.println("\t --workspace workspace to generate the nodes in; default is the default workspace");
+			System.out.println("\t --user repository login");
+			System.out.println("\t --passwd repository password");
+			System.out.println("\t --cnd common node type definition file to register before generating");
+			System.out.println("\t --node-type node type of the nodes generated, which must allow their properties; default is nt:unstructured");
+			System.out.println("\t --seed seed of the content generated; the same seed and options generate the same repository. Default is 0");
+			System.out.println("\t --fan-out number of child nodes of every node above the last level; default is 10");
+			System.out.println("\t --depth number of levels of nodes; default is 3");
+			System.out.println("\t --same-name-siblings number of consecutive child nodes with the same name; default is 1, i.e. no same-name siblings");
+			System.out.println("\t --properties number of properties of every node, of types string, long, double, boolean, date and multi-valued string in turn; default is 5");
+			System.out.println("\t --string-length number of characters of string values; default is 32");
+			System.out.println("\t --binary-ratio probability of a node to have a binary property, from 0 to 1; default is 0");
+			System.out.println("\t --min-binary-size minimum size of binaries in bytes; default is 1024");
+			System.out.println("\t --max-binary-size maximum size of binaries in bytes; sizes are drawn log-uniformly between the minimum and the maximum. Default is 1024");
+			System.out.println("\t --reference-ratio probability of a node to reference one of the nodes generated before it, from 0 to 1; default is 0");
+			System.out.println("\t --save-interval number of nodes generated from which the session is saved; default is 1000");
+			return;
+		}
+		RepositoryGenerator generator=new RepositoryGenerator();
+		for (int i=0;i<args.length;i=i+2) {
+			if (i+1>=args.length)
+				break;
+			String value=args[i+1];
+			if (args[i].equals("--dir")) {
+				repoDir=value;
+			} else if (args[i].equals("--conf")) {
+				conf=value;
+			} else if (args[i].equals("--repo-path")) {
+				repoPath=value;
+			} else if (args[i].equals("--workspace")) {
+				workspace=value;
+			} else if (args[i].equals("--user")) {
+				user=value;
+			} else if (args[i].equals("--passwd")) {
+				passwd=value;
+			} else if (args[i].equals("--cnd")) {
+				cndPath=value;
+			} else if (args[i].equals("--node-type")) {
+				generator.setNodeType(value);
+			} else if (args[i].equals("--seed")) {
+				generator.setSeed(Long.parseLong(value));
+			} else if (args[i].equals("--fan-out")) {
+				generator.setFanOut(Integer.parseInt(value));
+			} else if (args[i].equals("--depth")) {
+				generator.setDepth(Integer.parseInt(value));
+			} else if (args[i].equals("--same-name-siblings")) {
+				generator.setSameNameSiblings(Integer.parseInt(value));
+			} else if (args[i].equals("--properties")) {
+				generator.setProperties(Integer.parseInt(value));
+			} else if (args[i].equals("--string-length")) {
+				generator.setStringLength(Integer.parseInt(value));
+			} else if (args[i].equals("--binary-ratio")) {
+				generator.setBinaryRatio(Double.parseDouble(value));
+			} else if (args[i].equals("--min-binary-size")) {
+				generator.setMinBinarySize(Long.parseLong(value));
+			} else if (args[i].equals("--max-binary-size")) {
+				generator.setMaxBinarySize(Long.parseLong(value));
+			} else if (args[i].equals("--reference-ratio")) {
+				generator.setReferenceRatio(Double.parseDouble(value));
+			} else if (args[i].equals("--save-interval")) {
+				generator.setSaveInterval(Integer.parseInt(value));
+			}
+		}
+		boolean missingArgs=false;
+		if (repoDir.isEmpty()) {
+			missingArgs=true;
+			log.error("Please specify the --dir option.");
+		}
+		if (conf.isEmpty()) {
+			missingArgs=true;
+			log.error("Please specify the --conf option.");
+		}
+		if (generator.getSameNameSiblings()<1 || generator.getFanOut()<1 || generator.getDepth()<1) {
+			missingArgs=true;
+			log.error("--fan-out, --depth and --same-name-siblings must be at least 1.");
+		}
+		if (missingArgs) return;
+		
+		JackrabbitRepository repository=null;
+		try {
+			repository=new RepositoryFactoryImpl(conf, repoDir).getRepository();
+			SessionFactoryImpl sf=new SessionFactoryImpl(repository, new SimpleCredentials(user, passwd.toCharArray()));
+			Session session=sf.getSession();
+			try {
+				if (!cndPath.isEmpty())
+					RepositoryManager.registerCustomNodeTypes(session, cndPath);
+				if (!workspace.isEmpty() && !session.getWorkspace().getName().equals(workspace)) {
+					if (!Arrays.asList(session.getWorkspace().getAccessibleWorkspaceNames()).contains(workspace))
+						session.getWorkspace().createWorkspace(workspace);
+					session.logout();
+					session=sf.getSession(workspace);
+				}
+				generator.generate(session, repoPath);
+			} finally {
+				session.logout();
+			}
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+		} catch (ParseException e) {
+			log.error(e.getMessage(), e);
+		} catch (RepositoryException e) {
+			log.error(e.getMessage(), e);
+		} finally {
+			if (repository!=null) repository.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.app;
+
+import jackrabbit.metrics.MigrationMetrics;
+import jackrabbit.node.WorkspaceCopier;
+import jackrabbit.repository.IndexRebuilder;
+import jackrabbit.repository.RepositoryFactoryImpl;
+import jackrabbit.repository.RepositoryManager;
+import jackrabbit.repository.RepositorySource;
+import jackrabbit.session.PooledSessionFactory;
+import jackrabbit.session.SessionFactory;
+import jackrabbit.session.SessionFactoryImpl;
+import jackrabbit.util.NodePathModifier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Credentials;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+
+/**
+ *
+ * Migrates every repository of a {@link RepositorySource} to the destination directory its directory is mapped to, with a bounded number
+ * of repositories migrated at the same time, in one JVM. The workspaces of each repository are migrated by a {@link WorkspaceMigrator}, 
+ * while the partitions of all of them are copied by one executor shared by all the repositories, so that the number of copy threads does not
+ * grow with the number of repositories. A repository which cannot be opened or migrated is logged and the others are still migrated. 
+ * The status of the repositories is logged periodically and summarized at the end, in the log and optionally in a report file.
+ *
+ */
+public class RepositoryMigrator {
+	
+	protected static Log log=LogFactory.getLog(RepositoryMigrator.class);
+	
+	public static final int DEFAULT_THREADS=1;
+	
+	private static final String SEPARATOR="\t";
+	
+	/**
+	 * 
+	 * Creates the copier of the workspaces of each repository
+	 *
+	 */
+	public interface CopierFactory {
+		
+		/**
+		 * @param source - directory of the source repository
+		 * @param srcSf
+		 * @param destSf
+		 * @return copier from srcSf to destSf; its journal, if any, is closed once the repository is migrated
+		 * @throws IOException
+		 */
+		WorkspaceCopier getCopier(String source, SessionFactory srcSf, SessionFactory destSf) throws IOException;
+		
+	}
+	
+	private RepositorySource source;
+	private NodePathModifier destinations;
+	private String srcConf;
+	private String destConf;
+	private Credentials srcCredentials;
+	private Credentials destCredentials;
+	private CopierFactory factory;
+	private int threads=DEFAULT_THREADS;
+	private int copyThreads;
+	private int workspaceThreads=1;
+	private String cndPath="";
+	private boolean deferIndexing;
+	private int indexThreads=1;
+	private int sessionPool;
+	private boolean preScan;
+	private long reportInterval=WorkspaceMigrator.DEFAULT_REPORT_INTERVAL;
+	private File reportFile;
+	private MigrationMetrics metrics=MigrationMetrics.getInstance();
+	private volatile long startNodes;
+	private volatile long lastNodes;
+	private volatile long lastTime;
+	
+	/**
+	 * @param source - directories of the repositories to migrate
+	 * @param destinations - maps the directory of a source repository to the directory of its destination repository
+	 * @param srcConf - configuration file of the source repositories
+	 * @param destConf - configuration file of the destination repositories
+	 * @param srcCredentials
+	 * @param destCredentials
+	 * @param factory
+	 */
+	public RepositoryMigrator(RepositorySource source, NodePathModifier destinations, String srcConf, String destConf, Credentials srcCredentials, 
+			Credentials destCredentials, CopierFactory factory) {
+		this.source=source;
+		this.destinations=destinations;
+		this.srcConf=srcConf;
+		this.destConf=destConf;
+		this.srcCredentials=srcCredentials;
+		this.destCredentials=destCredentials;
+		this.factory=factory;
+	}
+	
+	/**
+	 * Migrate the repositories and wait for all of them to finish
+	 * @return status of each repository
+	 */
+	public List<RepositoryStatus> migrate() {
+		final List<RepositoryStatus> statuses=new ArrayList<RepositoryStatus>();
+		Map<String, Integer> destinationCount=new HashMap<String, Integer>();
+		for (String src:source.getSources()) {
+			RepositoryStatus status=new RepositoryStatus(src, destinations.modify(src));
+			statuses.add(status);
+			Integer count=destinationCount.get(status.getDestination());
+			destinationCount.put(status.getDestination(), count==null?1:count+1);
+		}
+		long start=System.currentTimeMillis();
+		startNodes=lastNodes=metrics.getNodes();
+		long startBytes=metrics.getBytes();
+		lastTime=start;
+		ExecutorService copyExecutor=copyThreads>0?Executors.newFixedThreadPool(copyThreads):null;
+		ExecutorService executor=Executors.newFixedThreadPool(Math.max(1, Math.min(threads, statuses.size())));
+		ScheduledExecutorService reporter=Executors.newSingleThreadScheduledExecutor();
+		if (reportInterval>0) {
+			reporter.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					logProgress(statuses);
+				}
+			}, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+		}
+		try {
+			for (final RepositoryStatus status:statuses) {
+				//a repository copied to its own directory or to the directory of another one would be overwritten
+				if (status.getDestination().equals(status.getSource()) || destinationCount.get(status.getDestination())>1) {
+					status.start();
+					status.fail(new IOException("Destination "+status.getDestination()+" of "+status.getSource()+" is not a distinct directory"));
+					log.error(status);
+					continue;
+				}
+				final ExecutorService partitions=copyExecutor;
+				executor.execute(new Runnable() {
+					public void run() {
+						migrate(status, partitions);
+						log.info("Migrated "+status+" ("+count(statuses, WorkspaceStatus.State.DONE)+" of "+statuses.size()+" repositories done)");
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		} finally {
+			reporter.shutdownNow();
+			if (copyExecutor!=null)
+				copyExecutor.shutdown();
+		}
+		long duration=System.currentTimeMillis()-start;
+		log.info("Migrated "+statuses.size()+" repositories in "+duration/1000+"s: "+count(statuses, WorkspaceStatus.State.DONE)+" done, "+
+				count(statuses, WorkspaceStatus.State.FAILED)+" failed; "+(metrics.getNodes()-startNodes)+" nodes, "+(metrics.getBytes()-startBytes)+" bytes copied");
+		for (RepositoryStatus status:statuses) {
+			log.info("\t"+status);
+		}
+		if (reportFile!=null)
+			writeReport(statuses);
+		return statuses;
+	}
+	
+	private void migrate(RepositoryStatus status, ExecutorService copyExecutor) {
+		status.start();
+		JackrabbitRepository src=null;
+		JackrabbitRepository dest=null;
+		WorkspaceCopier copier=null;
+		PooledSessionFactory srcPool=null;
+		PooledSessionFactory destPool=null;
+		try {
+			src=new RepositoryFactoryImpl(srcConf, status.getSource()).getRepository();
+			RepositoryFactoryImpl destRf=new RepositoryFactoryImpl(destConf, status.getDestination());
+			destRf.setDeferIndexing(deferIndexing);
+			dest=destRf.getRepository();
+			SessionFactory srcSf=new SessionFactoryImpl(src, srcCredentials);
+			SessionFactory destSf=new SessionFactoryImpl(dest, destCredentials);
+			if (sessionPool>0) {
+				srcSf=srcPool=new PooledSessionFactory(srcSf, sessionPool);
+				destSf=destPool=new PooledSessionFactory(destSf, sessionPool);
+			}
+			List<String> workspaces=new ArrayList<String>();
+			Session srcSession=srcSf.getSession();
+			Session destSession=null;
+			try {
+				destSession=destSf.getSession();
+				//node types and namespaces are shared by all workspaces of the destination repository
+				if (!cndPath.isEmpty())
+					RepositoryManager.registerCustomNodeTypes(destSession, cndPath);
+				workspaces.add(srcSession.getWorkspace().getName());
+				workspaces.addAll(RepositoryManager.getDestinationWorkspaces(srcSession, destSession));
+			} finally {
+				srcSession.logout();
+				if (destSession!=null)
+					destSession.logout();
+			}
+			copier=factory.getCopier(status.getSource(), srcSf, destSf);
+			copier.setExecutor(copyExecutor);
+			WorkspaceMigrator migrator=new WorkspaceMigrator(copier, workspaceThreads);
+			if (reportInterval>0)
+				migrator.setReportInterval(reportInterval);
+			migrator.setPreScan(preScan);
+			status.done(migrator.migrate(workspaces));
+		} catch (RepositoryException e) {
+			status.fail(e);
+			log.error(status.getSource()+": "+e.getMessage(), e);
+		} catch (IOException e) {
+			status.fail(e);
+			log.error(status.getSource()+": "+e.getMessage(), e);
+		} catch (ParseException e) {
+			status.fail(e);
+			log.error(status.getSource()+": "+e.getMessage(), e);
+		} catch (RuntimeException e) {
+			status.fail(e);
+			log.error(status.getSource()+": "+e.getMessage(), e);
+		} finally {
+			if (copier!=null && copier.getJournal()!=null)
+				copier.getJournal().close();
+			if (srcPool!=null)
+				srcPool.close();
+			if (destPool!=null)
+				destPool.close();
+			if (dest!=null)
+				dest.shutdown();
+			if (src!=null)
+				src.shutdown();
+		}
+		if (dest!=null && deferIndexing)
+			rebuildIndexes(status);
+	}
+	
+	/**
+	 * Rebuild the indexes of the destination of a repository, whether its migration succeeded or not, since it is not indexed until then
+	 * @param status
+	 */
+	private void rebuildIndexes(RepositoryStatus status) {
+		IndexRebuilder rebuilder=new IndexRebuilder(destConf, status.getDestination(), destCredentials);
+		rebuilder.setThreads(indexThreads);
+		try {
+			rebuilder.rebuild();
+		} catch (RepositoryException e) {
+			status.fail(e);
+			log.error(status.getDestination()+": "+e.getMessage(), e);
+		}
+	}
+	
+	private void logProgress(List<RepositoryStatus> statuses) {
+		String running="";
+		for (RepositoryStatus status:statuses) {
+			if (status.getState()==WorkspaceStatus.State.RUNNING)
+				running+=" "+status.getSource()+" ("+status.getDuration()/1000+"s)";
+		}
+		long now=System.currentTimeMillis();
+		long nodes=metrics.getNodes();
+		double rate=now>lastTime?(nodes-lastNodes)*1000.0/(now-lastTime):0;
+		lastNodes=nodes;
+		lastTime=now;
+		log.info(count(statuses, WorkspaceStatus.State.DONE)+" of "+statuses.size()+" repositories done, "+
+				count(statuses, WorkspaceStatus.State.FAILED)+" failed, "+count(statuses, WorkspaceStatus.State.PENDING)+" pending; "+
+				String.format("%d nodes copied, %.1f nodes/s", nodes-startNodes, rate)+"; running:"+running);
+	}
+	
+	/**
+	 * Write one tab separated line per repository to the report file, after a header line
+	 * @param statuses
+	 */
+	private void writeReport(List<RepositoryStatus> statuses) {
+		Writer writer=null;
+		try {
+			writer=new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+			writer.write("source"+SEPARATOR+"destination"+SEPARATOR+"state"+SEPARATOR+"seconds"+SEPARATOR+"workspaces"+SEPARATOR+
+					"workspaces.done"+SEPARATOR+"workspaces.failed"+SEPARATOR+"error\n");
+			for (RepositoryStatus status:statuses) {
+				String error=status.getError()==null?"":status.getError().replaceAll("\\s+", " ");
+				writer.write(status.getSource()+SEPARATOR+status.getDestination()+SEPARATOR+status.getState()+SEPARATOR+status.getDuration()/1000+
+						SEPARATOR+status.getWorkspaces().size()+SEPARATOR+status.getWorkspaces(WorkspaceStatus.State.DONE)+SEPARATOR+
+						status.getWorkspaces(WorkspaceStatus.State.FAILED)+SEPARATOR+error+"\n");
+			}
+			writer.close();
+		} catch (IOException e) {
+			log.warn("Cannot write report to "+reportFile.getPath()+": "+e.getMessage(), e);
+		} finally {
+			IOUtils.closeQuietly(writer);
+		}
+	}
+	
+	private static int count(List<RepositoryStatus> statuses, WorkspaceStatus.State state) {
+		int count=0;
+		for (RepositoryStatus status:statuses) {
+			if (status.getState()==state)
+				count++;
+		}
+		return count;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param threads - maximum number of repositories migrated at the same time
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getCopyThreads() {
+		return copyThreads;
+	}
+
+	/**
+	 * @param copyThreads - number of threads copying the partitions of all the repositories, used by the copiers partitioning with several 
+	 * threads; 0 for an executor per copy
+	 */
+	public void setCopyThreads(int copyThreads) {
+		this.copyThreads = copyThreads;
+	}
+
+	public int getWorkspaceThreads() {
+		return workspaceThreads;
+	}
+
+	/**
+	 * @param workspaceThreads - maximum number of workspaces of a repository copied at the same time
+	 */
+	public void setWorkspaceThreads(int workspaceThreads) {
+		this.workspaceThreads = workspaceThreads;
+	}
+
+	public String getCndPath() {
+		return cndPath;
+	}
+
+	/**
+	 * @param cndPath - node type definitions registered in every destination repository; empty for none
+	 */
+	public void setCndPath(String cndPath) {
+		this.cndPath = cndPath;
+	}
+
+	public boolean isDeferIndexing() {
+		return deferIndexing;
+	}
+
+	/**
+	 * @param deferIndexing - whether to open the destinations without indexing and rebuild their indexes once each of them is migrated
+	 */
+	public void setDeferIndexing(boolean deferIndexing) {
+		this.deferIndexing = deferIndexing;
+	}
+
+	public int getIndexThreads() {
+		return indexThreads;
+	}
+
+	/**
+	 * @param indexThreads - maximum number of workspaces of a destination indexed at the same time with deferred indexing
+	 */
+	public void setIndexThreads(int indexThreads) {
+		this.indexThreads = indexThreads;
+	}
+
+	public int getSessionPool() {
+		return sessionPool;
+	}
+
+	/**
+	 * @param sessionPool - maximum number of sessions of a workspace pooled by the source and the destination of a repository; 0 to log in
+	 * every session
+	 */
+	public void setSessionPool(int sessionPool) {
+		this.sessionPool = sessionPool;
+	}
+
+	public boolean isPreScan() {
+		return preScan;
+	}
+
+	/**
+	 * @param preScan - whether to count the nodes of the workspaces of a repository before copying them
+	 */
+	public void setPreScan(boolean preScan) {
+		this.preScan = preScan;
+	}
+
+	public long getReportInterval() {
+		return reportInterval;
+	}
+
+	/**
+	 * @param reportInterval - milliseconds between two progress log lines; 0 not to log the progress
+	 */
+	public void setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	public File getReportFile() {
+		return reportFile;
+	}
+
+	/**
+	 * @param reportFile - file the status of each repository is written to once all of them are migrated; null for none
+	 */
+	public void setReportFile(File reportFile) {
+		this.reportFile = reportFile;
+	}
+
+}
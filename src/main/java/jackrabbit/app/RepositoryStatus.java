@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.app;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 
+ * Migration status of a repository and its workspaces
+ *
+ */
+public class RepositoryStatus {
+	
+	private String source;
+	private String destination;
+	private volatile WorkspaceStatus.State state=WorkspaceStatus.State.PENDING;
+	private volatile long startTime;
+	private volatile long endTime;
+	private volatile String error;
+	private volatile List<WorkspaceStatus> workspaces=Collections.emptyList();
+	
+	public RepositoryStatus(String source, String destination) {
+		this.source=source;
+		this.destination=destination;
+	}
+	
+	void start() {
+		startTime=System.currentTimeMillis();
+		state=WorkspaceStatus.State.RUNNING;
+	}
+	
+	/**
+	 * @param workspaces - statuses of the workspaces migrated; the repository fails if one of them failed
+	 */
+	void done(List<WorkspaceStatus> workspaces) {
+		this.workspaces=workspaces;
+		endTime=System.currentTimeMillis();
+		int failed=getWorkspaces(WorkspaceStatus.State.FAILED);
+		if (failed>0)
+			error=failed+" workspaces failed";
+		state=failed>0?WorkspaceStatus.State.FAILED:WorkspaceStatus.State.DONE;
+	}
+	
+	void fail(Throwable t) {
+		endTime=System.currentTimeMillis();
+		error=t.getMessage();
+		state=WorkspaceStatus.State.FAILED;
+	}
+
+	/**
+	 * @return directory of the source repository
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return directory of the destination repository
+	 */
+	public String getDestination() {
+		return destination;
+	}
+
+	public WorkspaceStatus.State getState() {
+		return state;
+	}
+
+	/**
+	 * @return time spent migrating the repository so far in milliseconds
+	 */
+	public long getDuration() {
+		if (state==WorkspaceStatus.State.PENDING)
+			return 0;
+		if (state==WorkspaceStatus.State.RUNNING)
+			return System.currentTimeMillis()-startTime;
+		return endTime-startTime;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return statuses of the workspaces once the repository is migrated; empty before or if the repository could not be opened
+	 */
+	public List<WorkspaceStatus> getWorkspaces() {
+		return workspaces;
+	}
+	
+	/**
+	 * @param state
+	 * @return number of workspaces in state
+	 */
+	public int getWorkspaces(WorkspaceStatus.State state) {
+		int count=0;
+		for (WorkspaceStatus status:workspaces) {
+			if (status.getState()==state)
+				count++;
+		}
+		return count;
+	}
+	
+	public String toString() {
+		String s=source+" -> "+destination+" "+state+" "+getDuration()/1000+"s";
+		if (!workspaces.isEmpty())
+			s+=", "+getWorkspaces(WorkspaceStatus.State.DONE)+" of "+workspaces.size()+" workspaces done";
+		if (error!=null)
+			s+=": "+error;
+		return s;
+	}
+
+}
@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.app;
+
+import jackrabbit.node.TransferStats;
+import jackrabbit.node.WorkspaceCopier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ *
+ * Migrates workspaces with a bounded number of workspaces copied at the same time, logging their status periodically and a summary at the end.
+ * With a pre-scan, the nodes to copy are counted first so that the progress includes the percentage done and the estimated time remaining,
+ * based on the nodes copied by its copier rather than by the whole JVM, where other migrators may run. The progress can also be written to a 
+ * properties file polled by other tools, whose numbers are formatted independently of the default locale.
+ *
+ */
+public class WorkspaceMigrator {
+
+	protected static Log log=LogFactory.getLog(WorkspaceMigrator.class);
+
+	public static final long DEFAULT_REPORT_INTERVAL=60000;
+
+	private WorkspaceCopier copier;
+	private int parallelism;
+	private long reportInterval=DEFAULT_REPORT_INTERVAL;
+	private boolean preScan;
+	private File progressFile;
+	private volatile String state;
+	private volatile long copyStart;
+	private volatile long startNodes;
+	private volatile long startBytes;
+	private volatile long lastNodes;
+	private volatile long lastTime;
+
+	/**
+	 * @param copier
+	 * @param parallelism - maximum number of workspaces copied at the same time
+	 */
+	public WorkspaceMigrator(WorkspaceCopier copier, int parallelism) {
+		this.copier=copier;
+		this.parallelism=parallelism;
+	}
+
+	/**
+	 * Copy the workspaces and wait for all of them to finish
+	 * @param workspaces
+	 * @return status of each workspace
+	 */
+	public List<WorkspaceStatus> migrate(List<String> workspaces) {
+		final List<WorkspaceStatus> statuses=new ArrayList<WorkspaceStatus>();
+		for (String workspace:workspaces) {
+			statuses.add(new WorkspaceStatus(workspace));
+		}
+		long start=System.currentTimeMillis();
+		ExecutorService executor=Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, statuses.size())));
+		try {
+			if (preScan) {
+				state="SCANNING";
+				writeProgress(statuses);
+				scan(executor, statuses);
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			return statuses;
+		}
+		state="RUNNING";
+		copyStart=lastTime=System.currentTimeMillis();
+		TransferStats copied=copier.getCopied();
+		startNodes=lastNodes=copied.getNodes();
+		startBytes=copied.getBytes();
+		writeProgress(statuses);
+		ScheduledExecutorService reporter=Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				logProgress(statuses);
+				writeProgress(statuses);
+			}
+		}, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+		for (final WorkspaceStatus status:statuses) {
+			executor.execute(new Runnable() {
+				public void run() {
+					migrate(status);
+					log.info("Copying "+status+" ("+count(statuses, WorkspaceStatus.State.DONE)+" of "+statuses.size()+" workspaces done)");
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		} finally {
+			reporter.shutdownNow();
+		}
+		state=count(statuses, WorkspaceStatus.State.FAILED)>0?"FAILED":"DONE";
+		writeProgress(statuses);
+		logSummary(statuses, System.currentTimeMillis()-start);
+		return statuses;
+	}
+	
+	/**
+	 * Count the nodes and bytes to copy in each workspace
+	 * @param executor
+	 * @param statuses
+	 * @throws InterruptedException
+	 */
+	private void scan(ExecutorService executor, List<WorkspaceStatus> statuses) throws InterruptedException {
+		long start=System.currentTimeMillis();
+		List<Callable<Object>> scans=new ArrayList<Callable<Object>>();
+		for (final WorkspaceStatus status:statuses) {
+			scans.add(new Callable<Object>() {
+				public Object call() {
+					try {
+						TransferStats stats=copier.scan(status.getWorkspace());
+						if (stats!=null) {
+							status.setTotals(stats.getNodes(), stats.getBytes());
+							log.info("Scanned "+status.getWorkspace()+" workspace: "+stats.getNodes()+" nodes, "+stats.getBytes()+" bytes");
+						}
+					} catch (RepositoryException e) {
+						//the workspace is still copied, without being included in the progress
+						log.warn("Cannot scan "+status.getWorkspace()+" workspace: "+e.getMessage(), e);
+					}
+					return null;
+				}
+			});
+		}
+		executor.invokeAll(scans);
+		log.info("Scanned "+statuses.size()+" workspaces in "+(System.currentTimeMillis()-start)/1000+"s: "+getTotalNodes(statuses)+" nodes, "+
+				getTotalBytes(statuses)+" bytes to copy");
+	}
+
+	private void migrate(WorkspaceStatus status) {
+		status.start();
+		try {
+			copier.copy(status.getWorkspace());
+			status.done();
+		} catch (RepositoryException e) {
+			status.fail(e);
+			log.error(e.getMessage(), e);
+		} catch (IOException e) {
+			status.fail(e);
+			log.error(e.getMessage(), e);
+		} catch (RuntimeException e) {
+			status.fail(e);
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	private void logProgress(List<WorkspaceStatus> statuses) {
+		String running="";
+		for (WorkspaceStatus status:statuses) {
+			if (status.getState()==WorkspaceStatus.State.RUNNING)
+				running+=" "+status.getWorkspace()+" ("+status.getDuration()/1000+"s)";
+		}
+		long now=System.currentTimeMillis();
+		long nodes=copier.getCopied().getNodes();
+		String progress=String.format(Locale.ROOT, "%d nodes copied, %.1f nodes/s", nodes-startNodes, rate(nodes-lastNodes, now-lastTime));
+		lastNodes=nodes;
+		lastTime=now;
+		long total=getTotalNodes(statuses);
+		if (total>0)
+			progress=String.format(Locale.ROOT, "%.1f%% done, %s, ETA %s", getPercent(statuses), progress, formatDuration(getEta(statuses)));
+		log.info(count(statuses, WorkspaceStatus.State.DONE)+" of "+statuses.size()+" workspaces done, "+
+				count(statuses, WorkspaceStatus.State.FAILED)+" failed, "+count(statuses, WorkspaceStatus.State.PENDING)+" pending; "+
+				progress+"; running:"+running);
+	}
+	
+	/**
+	 * @param statuses
+	 * @return percentage of the scanned nodes copied; the nodes scanned are a lower bound of the nodes copied since nodes added in between and
+	 * nodes of workspaces not scanned are copied too
+	 */
+	private double getPercent(List<WorkspaceStatus> statuses) {
+		long total=getTotalNodes(statuses);
+		if (total<=0)
+			return 0;
+		return Math.min(100.0, 100.0*(copier.getCopied().getNodes()-startNodes)/total);
+	}
+	
+	/**
+	 * @param statuses
+	 * @return estimated milliseconds until all scanned nodes are copied at the average rate since the start of the copy; -1 if unknown
+	 */
+	private long getEta(List<WorkspaceStatus> statuses) {
+		long done=copier.getCopied().getNodes()-startNodes;
+		long elapsed=System.currentTimeMillis()-copyStart;
+		long total=getTotalNodes(statuses);
+		if (done<=0 || total<=0)
+			return -1;
+		return Math.max(0, total-done)*elapsed/done;
+	}
+	
+	private static double rate(long count, long millis) {
+		return millis>0?count*1000.0/millis:0;
+	}
+	
+	private static String formatDuration(long millis) {
+		if (millis<0)
+			return "unknown";
+		long seconds=millis/1000;
+		return String.format(Locale.ROOT, "%d:%02d:%02d", seconds/3600, seconds/60%60, seconds%60);
+	}
+	
+	/**
+	 * Write the progress to the progress file, replacing the previous one at once so that readers never see a partial file
+	 * @param statuses
+	 */
+	private synchronized void writeProgress(List<WorkspaceStatus> statuses) {
+		if (progressFile==null)
+			return;
+		Properties progress=new Properties();
+		long now=System.currentTimeMillis();
+		progress.setProperty("state", state);
+		progress.setProperty("time", String.valueOf(now));
+		progress.setProperty("workspaces.total", String.valueOf(statuses.size()));
+		progress.setProperty("workspaces.done", String.valueOf(count(statuses, WorkspaceStatus.State.DONE)));
+		progress.setProperty("workspaces.failed", String.valueOf(count(statuses, WorkspaceStatus.State.FAILED)));
+		if (copyStart>0) {
+			TransferStats copied=copier.getCopied();
+			long nodes=copied.getNodes()-startNodes;
+			progress.setProperty("elapsed.seconds", String.valueOf((now-copyStart)/1000));
+			progress.setProperty("nodes.done", String.valueOf(nodes));
+			progress.setProperty("bytes.done", String.valueOf(copied.getBytes()-startBytes));
+			progress.setProperty("nodes.per.second", String.format(Locale.ROOT, "%.1f", rate(nodes, now-copyStart)));
+		}
+		long total=getTotalNodes(statuses);
+		if (total>=0) {
+			progress.setProperty("nodes.total", String.valueOf(total));
+			progress.setProperty("bytes.total", String.valueOf(getTotalBytes(statuses)));
+			if (copyStart>0) {
+				progress.setProperty("percent", String.format(Locale.ROOT, "%.1f", getPercent(statuses)));
+				long eta=getEta(statuses);
+				if (eta>=0)
+					progress.setProperty("eta.seconds", String.valueOf(eta/1000));
+			}
+		}
+		for (WorkspaceStatus status:statuses) {
+			String prefix="workspace."+status.getWorkspace()+".";
+			progress.setProperty(prefix+"state", status.getState().toString());
+			progress.setProperty(prefix+"seconds", String.valueOf(status.getDuration()/1000));
+			if (status.getTotalNodes()>=0) {
+				progress.setProperty(prefix+"nodes.total", String.valueOf(status.getTotalNodes()));
+				progress.setProperty(prefix+"bytes.total", String.valueOf(status.getTotalBytes()));
+			}
+		}
+		try {
+			File tmp=new File(progressFile.getPath()+".tmp");
+			OutputStream out=new FileOutputStream(tmp);
+			try {
+				progress.store(out, "Migration progress");
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+			if (!tmp.renameTo(progressFile)) {
+				//renaming over an existing file fails on some platforms
+				progressFile.delete();
+				if (!tmp.renameTo(progressFile))
+					throw new IOException("Cannot rename "+tmp.getPath()+" to "+progressFile.getPath());
+			}
+		} catch (IOException e) {
+			log.warn("Cannot write progress to "+progressFile.getPath()+": "+e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * @param statuses
+	 * @return number of nodes to copy in the scanned workspaces; -1 if none was scanned
+	 */
+	private static long getTotalNodes(List<WorkspaceStatus> statuses) {
+		long total=-1;
+		for (WorkspaceStatus status:statuses) {
+			if (status.getTotalNodes()>=0)
+				total=Math.max(total, 0)+status.getTotalNodes();
+		}
+		return total;
+	}
+	
+	private static long getTotalBytes(List<WorkspaceStatus> statuses) {
+		long total=-1;
+		for (WorkspaceStatus status:statuses) {
+			if (status.getTotalBytes()>=0)
+				total=Math.max(total, 0)+status.getTotalBytes();
+		}
+		return total;
+	}
+
+	private static void logSummary(List<WorkspaceStatus> statuses, long duration) {
+		log.info("Migrated "+statuses.size()+" workspaces in "+duration/1000+"s: "+count(statuses, WorkspaceStatus.State.DONE)+" done, "+
+				count(statuses, WorkspaceStatus.State.FAILED)+" failed");
+		for (WorkspaceStatus status:statuses) {
+			log.info("\t"+status);
+		}
+	}
+
+	private static int count(List<WorkspaceStatus> statuses, WorkspaceStatus.State state) {
+		int count=0;
+		for (WorkspaceStatus status:statuses) {
+			if (status.getState()==state)
+				count++;
+		}
+		return count;
+	}
+
+	public long getReportInterval() {
+		return reportInterval;
+	}
+
+	/**
+	 * @param reportInterval - milliseconds between two progress log lines
+	 */
+	public void setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	public boolean isPreScan() {
+		return preScan;
+	}
+
+	/**
+	 * @param preScan - whether to count the nodes of the workspaces before copying them, to report the percentage done and the time remaining
+	 */
+	public void setPreScan(boolean preScan) {
+		this.preScan = preScan;
+	}
+
+	public File getProgressFile() {
+		return progressFile;
+	}
+
+	/**
+	 * @param progressFile - properties file rewritten with the progress at each report; null for none
+	 */
+	public void setProgressFile(File progressFile) {
+		this.progressFile = progressFile;
+	}
+
+}
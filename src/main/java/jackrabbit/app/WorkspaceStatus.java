@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.app;
+
+/**
+ * 
+ * Migration status of a workspace
+ *
+ */
+public class WorkspaceStatus {
+	
+	public enum State {PENDING, RUNNING, DONE, FAILED}
+	
+	private String workspace;
+	private volatile State state=State.PENDING;
+	private volatile long startTime;
+	private volatile long endTime;
+	private volatile String error;
+	private volatile long totalNodes=-1;
+	private volatile long totalBytes=-1;
+	
+	public WorkspaceStatus(String workspace) {
+		this.workspace=workspace;
+	}
+	
+	void start() {
+		startTime=System.currentTimeMillis();
+		state=State.RUNNING;
+	}
+	
+	void done() {
+		endTime=System.currentTimeMillis();
+		state=State.DONE;
+	}
+	
+	void fail(Throwable t) {
+		endTime=System.currentTimeMillis();
+		error=t.getMessage();
+		state=State.FAILED;
+	}
+
+	public String getWorkspace() {
+		return workspace;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return time spent migrating the workspace so far in milliseconds
+	 */
+	public long getDuration() {
+		if (state==State.PENDING)
+			return 0;
+		if (state==State.RUNNING)
+			return System.currentTimeMillis()-startTime;
+		return endTime-startTime;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return number of nodes to copy found by the pre-scan; -1 if unknown
+	 */
+	public long getTotalNodes() {
+		return totalNodes;
+	}
+
+	/**
+	 * @return size of the properties to copy found by the pre-scan in bytes; -1 if unknown
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+	
+	void setTotals(long totalNodes, long totalBytes) {
+		this.totalNodes=totalNodes;
+		this.totalBytes=totalBytes;
+	}
+	
+	public String toString() {
+		String s=workspace+" "+state+" "+getDuration()/1000+"s";
+		if (error!=null)
+			s+=": "+error;
+		return s;
+	}
+
+}
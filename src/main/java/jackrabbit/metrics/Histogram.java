@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * Distribution of non-negative values in buckets of powers of two, so that recording is constant time and memory does not grow with the
+ * number of values. Percentiles are estimated by the upper bound of their bucket, i.e. within a factor of two. Instances can be shared
+ * between threads.
+ *
+ */
+public class Histogram {
+	
+	private static final int BUCKETS=64;
+	
+	private AtomicLongArray buckets=new AtomicLongArray(BUCKETS);
+	private AtomicLong count=new AtomicLong();
+	private AtomicLong sum=new AtomicLong();
+	private AtomicLong max=new AtomicLong();
+	
+	/**
+	 * @param value - negative values are recorded as 0
+	 */
+	public void record(long value) {
+		value=Math.max(0, value);
+		//bucket i holds the values from 2^(i-1) to 2^i-1, bucket 0 holds 0
+		buckets.incrementAndGet(BUCKETS-Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current=max.get();
+		while (value>current && !max.compareAndSet(current, value)) {
+			current=max.get();
+		}
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getSum() {
+		return sum.get();
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	public double getMean() {
+		long n=count.get();
+		return n==0?0:(double)sum.get()/n;
+	}
+	
+	/**
+	 * @param percentile - from 0 to 100
+	 * @return upper bound of the bucket of the value below which percentile percent of the values fall, at most the maximum value; 0 if
+	 * no value was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long n=count.get();
+		if (n==0)
+			return 0;
+		long rank=(long)Math.ceil(percentile/100*n);
+		long seen=0;
+		for (int i=0;i<BUCKETS;i++) {
+			seen+=buckets.get(i);
+			if (seen>=rank)
+				return Math.min(i==0?0:(1L<<i)-1, max.get());
+		}
+		return max.get();
+	}
+	
+	public void reset() {
+		for (int i=0;i<BUCKETS;i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+	
+	/**
+	 * @param divisor - divisor of the values, e.g. 1000 to show microseconds as milliseconds
+	 * @param unit
+	 * @return count, mean, median, 99th percentile and maximum of the values divided by divisor
+	 */
+	public String toString(double divisor, String unit) {
+		return String.format("n=%d mean=%.1f%s p50=%.1f%s p99=%.1f%s max=%.1f%s", getCount(), getMean()/divisor, unit, getPercentile(50)/divisor, unit,
+				getPercentile(99)/divisor, unit, getMax()/divisor, unit);
+	}
+	
+	public String toString() {
+		return toString(1, "");
+	}
+
+}
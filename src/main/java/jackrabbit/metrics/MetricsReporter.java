@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 
+ * Logs a summary of metrics periodically, with the throughput of the last interval besides the average since the start, and the full 
+ * report once stopped
+ *
+ */
+public class MetricsReporter {
+	
+	protected static Log log=LogFactory.getLog(MetricsReporter.class);
+	
+	public static final long DEFAULT_INTERVAL=60000;
+	
+	private MigrationMetrics metrics;
+	private long interval;
+	private ScheduledExecutorService executor;
+	private long lastTime;
+	private long lastNodes;
+	private long lastBytes;
+	
+	public MetricsReporter(MigrationMetrics metrics) {
+		this(metrics, DEFAULT_INTERVAL);
+	}
+	
+	/**
+	 * @param metrics
+	 * @param interval - milliseconds between two summary log lines; 0 to only log the report once stopped
+	 */
+	public MetricsReporter(MigrationMetrics metrics, long interval) {
+		this.metrics=metrics;
+		this.interval=interval;
+	}
+	
+	public synchronized void start() {
+		if (executor!=null)
+			return;
+		lastTime=System.currentTimeMillis();
+		lastNodes=metrics.getNodes();
+		lastBytes=metrics.getBytes();
+		executor=Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread=new Thread(runnable, "metrics reporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (interval>0) {
+			executor.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					report();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Stop reporting and log the full report
+	 */
+	public synchronized void stop() {
+		if (executor==null)
+			return;
+		executor.shutdownNow();
+		executor=null;
+		log.info(metrics.getReport());
+	}
+	
+	private synchronized void report() {
+		long time=System.currentTimeMillis();
+		long nodes=metrics.getNodes();
+		long bytes=metrics.getBytes();
+		double seconds=Math.max(1, time-lastTime)/1000.0;
+		log.info(String.format("%s; last %.0fs: %.0f nodes/s, %.0f bytes/s, save %s", metrics.getSummary(), seconds, (nodes-lastNodes)/seconds, 
+				(bytes-lastBytes)/seconds, metrics.getSaveLatency()));
+		lastTime=time;
+		lastNodes=nodes;
+		lastBytes=bytes;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	public MigrationMetrics getMetrics() {
+		return metrics;
+	}
+
+}
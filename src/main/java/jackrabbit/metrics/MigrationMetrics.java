@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Session;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 
+ * Counters and latency histograms of a migration: nodes and bytes saved, partitions and their sizes, errors, sessions, and the latencies 
+ * of exports, imports, transfers and saves. Exports and imports are only timed for transfers through the system view XML; with streaming, 
+ * the import time includes waiting for the export. The instance returned by getInstance is the one the copiers record to, and can be 
+ * registered as an MBean. Instances can be shared between threads.
+ *
+ */
+public class MigrationMetrics implements MigrationMetricsMBean {
+	
+	protected static Log log=LogFactory.getLog(MigrationMetrics.class);
+	
+	public static final String OBJECT_NAME="jackrabbit.migration:type=MigrationMetrics";
+	
+	private static final MigrationMetrics INSTANCE=new MigrationMetrics();
+	private static final double MICROS_PER_MILLI=1000;
+	
+	private volatile long start=System.currentTimeMillis();
+	private AtomicLong nodes=new AtomicLong();
+	private AtomicLong bytes=new AtomicLong();
+	private AtomicLong partitions=new AtomicLong();
+	private AtomicLong errors=new AtomicLong();
+	private AtomicLong sessionsOpened=new AtomicLong();
+	private Set<Session> sessions=Collections.newSetFromMap(new WeakHashMap<Session, Boolean>());
+	//latencies in microseconds
+	private Histogram exportLatency=new Histogram();
+	private Histogram importLatency=new Histogram();
+	private Histogram transferLatency=new Histogram();
+	private Histogram saveLatency=new Histogram();
+	private Histogram partitionNodes=new Histogram();
+	private Histogram partitionBytes=new Histogram();
+	
+	/**
+	 * @return metrics the copiers record to
+	 */
+	public static MigrationMetrics getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Register the metrics with the platform MBean server under OBJECT_NAME, replacing the MBean already registered under it
+	 */
+	public void register() {
+		MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name=new ObjectName(OBJECT_NAME);
+			try {
+				server.registerMBean(this, name);
+			} catch (InstanceAlreadyExistsException e) {
+				server.unregisterMBean(name);
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			log.warn("Cannot register "+OBJECT_NAME+": "+e.getMessage());
+		}
+	}
+	
+	public void unregister() {
+		MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name=new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (JMException e) {
+			log.warn("Cannot unregister "+OBJECT_NAME+": "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * @param nanos - time to export a node
+	 */
+	public void exported(long nanos) {
+		exportLatency.record(nanos/1000);
+	}
+	
+	/**
+	 * @param nanos - time to import a node
+	 */
+	public void imported(long nanos) {
+		importLatency.record(nanos/1000);
+	}
+	
+	/**
+	 * @param nanos - time to transfer a node, i.e. to create its ancestors and export and import it, without saving
+	 */
+	public void transferred(long nanos) {
+		transferLatency.record(nanos/1000);
+	}
+	
+	/**
+	 * @param nanos - time of a save, successful or not
+	 */
+	public void saved(long nanos) {
+		saveLatency.record(nanos/1000);
+	}
+	
+	/**
+	 * Record a partition, or a node copied without partitioning, once saved
+	 * @param nodes
+	 * @param bytes
+	 */
+	public void copied(long nodes, long bytes) {
+		this.nodes.addAndGet(nodes);
+		this.bytes.addAndGet(bytes);
+		partitions.incrementAndGet();
+		partitionNodes.record(nodes);
+		partitionBytes.record(bytes);
+	}
+	
+	public void error() {
+		errors.incrementAndGet();
+	}
+	
+	public void sessionOpened(Session session) {
+		sessionsOpened.incrementAndGet();
+		synchronized (sessions) {
+			sessions.add(session);
+		}
+	}
+	
+	public long getNodes() {
+		return nodes.get();
+	}
+	
+	public long getBytes() {
+		return bytes.get();
+	}
+	
+	public double getNodesPerSecond() {
+		return perSecond(nodes.get());
+	}
+	
+	public double getBytesPerSecond() {
+		return perSecond(bytes.get());
+	}
+	
+	private double perSecond(long count) {
+		long elapsed=System.currentTimeMillis()-start;
+		return elapsed<=0?0:count*1000.0/elapsed;
+	}
+	
+	public long getPartitions() {
+		return partitions.get();
+	}
+	
+	public long getErrors() {
+		return errors.get();
+	}
+	
+	public long getSessionsOpened() {
+		return sessionsOpened.get();
+	}
+	
+	/**
+	 * @return number of sessions opened which have not been logged out
+	 */
+	public int getActiveSessions() {
+		int active=0;
+		synchronized (sessions) {
+			for (Session session:sessions) {
+				if (session.isLive())
+					active++;
+			}
+		}
+		return active;
+	}
+	
+	public double getMeanExportMillis() {
+		return exportLatency.getMean()/MICROS_PER_MILLI;
+	}
+	
+	public double getMeanImportMillis() {
+		return importLatency.getMean()/MICROS_PER_MILLI;
+	}
+	
+	public double getMeanTransferMillis() {
+		return transferLatency.getMean()/MICROS_PER_MILLI;
+	}
+	
+	public double getMeanSaveMillis() {
+		return saveLatency.getMean()/MICROS_PER_MILLI;
+	}
+	
+	public double getP99SaveMillis() {
+		return saveLatency.getPercentile(99)/MICROS_PER_MILLI;
+	}
+	
+	public String getExportLatency() {
+		return exportLatency.toString(MICROS_PER_MILLI, "ms");
+	}
+	
+	public String getImportLatency() {
+		return importLatency.toString(MICROS_PER_MILLI, "ms");
+	}
+	
+	public String getTransferLatency() {
+		return transferLatency.toString(MICROS_PER_MILLI, "ms");
+	}
+	
+	public String getSaveLatency() {
+		return saveLatency.toString(MICROS_PER_MILLI, "ms");
+	}
+	
+	public String getPartitionNodes() {
+		return partitionNodes.toString(1, "");
+	}
+	
+	public String getPartitionBytes() {
+		return partitionBytes.toString(1, "B");
+	}
+	
+	public Histogram getExportHistogram() {
+		return exportLatency;
+	}
+	
+	public Histogram getImportHistogram() {
+		return importLatency;
+	}
+	
+	public Histogram getTransferHistogram() {
+		return transferLatency;
+	}
+	
+	public Histogram getSaveHistogram() {
+		return saveLatency;
+	}
+	
+	public Histogram getPartitionNodesHistogram() {
+		return partitionNodes;
+	}
+	
+	public Histogram getPartitionBytesHistogram() {
+		return partitionBytes;
+	}
+	
+	public String getSummary() {
+		return String.format("%d nodes (%.0f/s), %d bytes (%.0f/s), %d partitions, %d errors, %d sessions opened, %d active", getNodes(), getNodesPerSecond(),
+				getBytes(), getBytesPerSecond(), getPartitions(), getErrors(), getSessionsOpened(), getActiveSessions());
+	}
+	
+	/**
+	 * @return summary followed by the latencies and partition sizes, one per line
+	 */
+	public String getReport() {
+		return getSummary()+"\n\texport: "+getExportLatency()+"\n\timport: "+getImportLatency()+"\n\ttransfer: "+getTransferLatency()+
+				"\n\tsave: "+getSaveLatency()+"\n\tpartition nodes: "+getPartitionNodes()+"\n\tpartition bytes: "+getPartitionBytes();
+	}
+	
+	/**
+	 * Reset the counters and histograms, and the start of the rates to now. Open sessions are still counted as active.
+	 */
+	public void reset() {
+		start=System.currentTimeMillis();
+		nodes.set(0);
+		bytes.set(0);
+		partitions.set(0);
+		errors.set(0);
+		sessionsOpened.set(0);
+		exportLatency.reset();
+		importLatency.reset();
+		transferLatency.reset();
+		saveLatency.reset();
+		partitionNodes.reset();
+		partitionBytes.reset();
+	}
+	
+	public String toString() {
+		return getSummary();
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.metrics;
+
+/**
+ * 
+ * JMX view of the metrics of a migration. Latencies are in milliseconds, rates are averages since the start or the last reset.
+ *
+ */
+public interface MigrationMetricsMBean {
+	
+	public long getNodes();
+	
+	public long getBytes();
+	
+	public double getNodesPerSecond();
+	
+	public double getBytesPerSecond();
+	
+	public long getPartitions();
+	
+	public long getErrors();
+	
+	public long getSessionsOpened();
+	
+	public int getActiveSessions();
+	
+	public double getMeanExportMillis();
+	
+	public double getMeanImportMillis();
+	
+	public double getMeanTransferMillis();
+	
+	public double getMeanSaveMillis();
+	
+	public double getP99SaveMillis();
+	
+	public String getExportLatency();
+	
+	public String getImportLatency();
+	
+	public String getTransferLatency();
+	
+	public String getSaveLatency();
+	
+	public String getPartitionNodes();
+	
+	public String getPartitionBytes();
+	
+	public String getSummary();
+	
+	public void reset();
+
+}
@@ -0,0 +1,29 @@
+package jackrabbit.node;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * 
+ * Transfer that can also transfer several siblings at once, saving the overhead of transferring them one by one. Implementations do not 
+ * save the destination session.
+ *
+ */
+public interface BatchNodeTransfer extends NodeTransfer {
+	
+	/**
+	 * Transfer the nodes with srcAbsPaths and their descendants to under the node with destAbsPath, in the order of srcAbsPaths
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcAbsPaths - paths of the siblings to export
+	 * @param destAbsPath - path of the parent node to import into
+	 * @return number of nodes and bytes transferred
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public TransferStats transfer(Session srcSession, Session destSession, List<String> srcAbsPaths, String destAbsPath) throws RepositoryException, IOException;
+
+}
@@ -0,0 +1,40 @@
+package jackrabbit.node;
+
+import jackrabbit.util.NodeSizeCache;
+
+/**
+ * 
+ * Partitions a node like the cost partitioner it wraps, except that adjacent children under the limit are packed into a {@link SiblingPartition}
+ * as long as their total cost is under the limit, so that a node with many small children is not copied in as many partitions.
+ * A child over the limit ends the current partition to keep siblings in document order.
+ *
+ */
+public class BinPackingPartitioner extends CostPartitioner {
+	
+	private CostPartitioner costModel;
+	
+	/**
+	 * @param costModel - partitioner computing the cost of the nodes, whose limit is used
+	 */
+	public BinPackingPartitioner(CostPartitioner costModel) {
+		super(costModel.getLimit(), costModel.getEstimator(), costModel.getSizes());
+		this.costModel=costModel;
+	}
+
+	protected long getCost(long nodes, long properties, long bytes, long binaries) {
+		return costModel.getCost(nodes, properties, bytes, binaries);
+	}
+
+	public CostPartitioner withSizes(NodeSizeCache sizes) {
+		return new BinPackingPartitioner(costModel.withSizes(sizes));
+	}
+	
+	protected boolean isPacking() {
+		return true;
+	}
+
+	public CostPartitioner getCostModel() {
+		return costModel;
+	}
+
+}
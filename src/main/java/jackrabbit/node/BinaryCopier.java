@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataRecord;
+import org.apache.jackrabbit.core.data.DataStore;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.core.value.ValueFactoryImpl;
+
+/**
+ * 
+ * Copies binary properties by looking up their content in the DataStore of the destination repository first. A source binary kept in
+ * the source DataStore is identified by the hash of its content, which is also its identifier in the destination DataStore when both
+ * compute it with the same digest, as the Jackrabbit DataStores do. When the destination DataStore has a record with that identifier,
+ * the binary references it without being read from the source, including the content copied by a previous run. Otherwise the binary
+ * is streamed into the destination, whose DataStore, if any, keeps a single record per content. Instances can be shared between
+ * threads and sessions.
+ *
+ */
+public class BinaryCopier {
+	
+	protected static Log log=LogFactory.getLog(BinaryCopier.class);
+	
+	//prefix of the serialized identifiers of the binaries kept in a DataStore
+	private static final String DATASTORE_PREFIX="dataStore:";
+	
+	private static final AtomicBoolean fallbackLogged=new AtomicBoolean();
+	//the DataStore of a repository is only exposed to the classes of Jackrabbit, so it is read from the value factory of a session
+	private static final Field STORE=getStoreField();
+	
+	//DataStore of the value factory of each destination session, null included, released with the session
+	private Map<ValueFactory, DataStore> stores=new WeakHashMap<ValueFactory, DataStore>();
+	private AtomicLong copied=new AtomicLong();
+	private AtomicLong copiedBytes=new AtomicLong();
+	private AtomicLong reused=new AtomicLong();
+	private AtomicLong reusedBytes=new AtomicLong();
+	
+	/**
+	 * Set binary property on destNode with the values of property
+	 * @param property - binary property of the source repository
+	 * @param destNode
+	 * @return number of bytes copied, excluding those of the values referencing a record of the destination DataStore
+	 * @throws RepositoryException
+	 */
+	public long copy(Property property, Node destNode) throws RepositoryException {
+		ValueFactory factory=destNode.getSession().getValueFactory();
+		DataStore store=getDataStore(factory);
+		Value[] values=property.isMultiple()?property.getValues():new Value[]{property.getValue()};
+		Value[] copies=new Value[values.length];
+		long bytes=0;
+		for (int i=0;i<values.length;i++) {
+			long size=getSize(values[i]);
+			copies[i]=store==null?null:reuse(values[i], size, store, (ValueFactoryImpl)factory);
+			if (copies[i]!=null) {
+				reused.incrementAndGet();
+				reusedBytes.addAndGet(size);
+			} else {
+				copies[i]=copy(values[i], factory);
+				copied.incrementAndGet();
+				copiedBytes.addAndGet(size);
+				bytes+=size;
+			}
+		}
+		if (property.isMultiple())
+			destNode.setProperty(property.getName(), copies, PropertyType.BINARY);
+		else
+			destNode.setProperty(property.getName(), copies[0]);
+		return bytes;
+	}
+	
+	/**
+	 * @param value - source value
+	 * @param size - size of value
+	 * @param store - destination DataStore
+	 * @param factory - value factory of the destination session, using store
+	 * @return value referencing the record of store with the content of value; null if value is not kept in the source DataStore or 
+	 * store has no such record
+	 * @throws RepositoryException
+	 */
+	private static Value reuse(Value value, long size, DataStore store, ValueFactoryImpl factory) throws RepositoryException {
+		if (!(value instanceof JackrabbitValue))
+			return null;
+		String identity=((JackrabbitValue)value).getContentIdentity();
+		if (identity==null)
+			return null;
+		DataRecord record=store.getRecordIfStored(new DataIdentifier(identity));
+		//a record with another length was identified with another digest
+		if (record==null || record.getLength()!=size)
+			return null;
+		return factory.createValue(InternalValue.create(store, DATASTORE_PREFIX+identity));
+	}
+	
+	/**
+	 * Stream value into the destination. A source binary is not handed to the destination value factory, which would reference the
+	 * record of the source DataStore. The binary of value is that of the source property, so it is not disposed.
+	 * @param value
+	 * @param factory
+	 * @return value of the destination repository
+	 * @throws RepositoryException
+	 */
+	private static Value copy(Value value, ValueFactory factory) throws RepositoryException {
+		InputStream in=null;
+		try {
+			in=value.getBinary().getStream();
+			return factory.createValue(factory.createBinary(in));
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * @param factory - value factory of a destination session
+	 * @return DataStore the values created by factory are kept in, looked up once per factory; null if the destination repository is not 
+	 * a Jackrabbit repository or has no DataStore
+	 */
+	private DataStore getDataStore(ValueFactory factory) {
+		if (STORE==null || !(factory instanceof ValueFactoryImpl))
+			return null;
+		synchronized (stores) {
+			if (stores.containsKey(factory))
+				return stores.get(factory);
+			DataStore store=null;
+			try {
+				store=(DataStore)STORE.get(factory);
+			} catch (IllegalAccessException e) {
+				fallback(e);
+			}
+			stores.put(factory, store);
+			return store;
+		}
+	}
+	
+	private static Field getStoreField() {
+		try {
+			Field field=ValueFactoryImpl.class.getDeclaredField("store");
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException e) {
+			fallback(e);
+		} catch (SecurityException e) {
+			fallback(e);
+		}
+		return null;
+	}
+	
+	/**
+	 * Log that the DataStore of the destination cannot be looked up, once for all the copiers
+	 * @param e
+	 */
+	private static void fallback(Exception e) {
+		if (fallbackLogged.compareAndSet(false, true))
+			log.warn("Binaries are not looked up in the destination DataStore: "+e);
+	}
+	
+	private static long getSize(Value value) throws RepositoryException {
+		return value.getBinary().getSize();
+	}
+	
+	/**
+	 * @return number of binary values copied from the source
+	 */
+	public long getCopied() {
+		return copied.get();
+	}
+	
+	public long getCopiedBytes() {
+		return copiedBytes.get();
+	}
+	
+	/**
+	 * @return number of binary values referencing a record already in the destination DataStore
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+	
+	public long getReusedBytes() {
+		return reusedBytes.get();
+	}
+	
+	public String toString() {
+		return copied+" binaries copied ("+copiedBytes+" bytes), "+reused+" reused ("+reusedBytes+" bytes)";
+	}
+
+}
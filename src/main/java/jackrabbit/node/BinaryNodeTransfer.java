@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * 
+ * Transfers a node with a transfer skipping binaries, such as those going through the system view, and then sets the binary properties 
+ * of the transferred nodes separately with a BinaryCopier, so that content already in the destination DataStore is not copied again.
+ *
+ */
+public class BinaryNodeTransfer implements BatchNodeTransfer {
+	
+	private NodeTransfer transfer;
+	private BinaryCopier copier;
+	
+	/**
+	 * @param transfer - transfer of the nodes without their binaries
+	 * @param copier
+	 */
+	public BinaryNodeTransfer(NodeTransfer transfer, BinaryCopier copier) {
+		this.transfer=transfer;
+		this.copier=copier;
+	}
+
+	public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException {
+		TransferStats stats=transfer.transfer(srcSession, destSession, srcAbsPath, destAbsPath, noRecurse);
+		stats.add(new TransferStats(0, copyBinaries(srcSession, destSession, Collections.singletonList(srcAbsPath), destAbsPath, noRecurse)));
+		return stats;
+	}
+
+	public TransferStats transfer(Session srcSession, Session destSession, List<String> srcAbsPaths, String destAbsPath) throws RepositoryException, IOException {
+		TransferStats stats=NodeCopier.transfer(srcSession, destSession, srcAbsPaths, destAbsPath, transfer);
+		stats.add(new TransferStats(0, copyBinaries(srcSession, destSession, srcAbsPaths, destAbsPath, false)));
+		return stats;
+	}
+	
+	/**
+	 * Set the binary properties of the nodes just transferred to destAbsPath. The transferred nodes are the last children of destAbsPath 
+	 * with their names, in the order of srcAbsPaths, whatever their indexes in the source.
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcAbsPaths
+	 * @param destAbsPath
+	 * @param noRecurse
+	 * @return number of bytes copied
+	 * @throws RepositoryException
+	 */
+	private long copyBinaries(Session srcSession, Session destSession, List<String> srcAbsPaths, String destAbsPath, boolean noRecurse) throws RepositoryException {
+		Node destParent=destSession.getNode(destAbsPath);
+		List<Node> srcNodes=new ArrayList<Node>();
+		Map<String, Integer> transferred=new HashMap<String, Integer>();
+		for (String srcAbsPath:srcAbsPaths) {
+			Node srcNode=srcSession.getNode(srcAbsPath);
+			srcNodes.add(srcNode);
+			Integer count=transferred.get(srcNode.getName());
+			transferred.put(srcNode.getName(), count==null?1:count+1);
+		}
+		Map<String, List<Node>> destNodes=new HashMap<String, List<Node>>();
+		for (String name:transferred.keySet()) {
+			List<Node> siblings=new ArrayList<Node>();
+			NodeIterator nodes=destParent.getNodes(name);
+			while (nodes.hasNext()) {
+				siblings.add(nodes.nextNode());
+			}
+			if (siblings.size()<transferred.get(name))
+				throw new PathNotFoundException(name+" was not transferred to "+destAbsPath);
+			destNodes.put(name, siblings.subList(siblings.size()-transferred.get(name), siblings.size()));
+		}
+		long bytes=0;
+		for (Node srcNode:srcNodes) {
+			bytes+=copyBinaries(srcNode, destNodes.get(srcNode.getName()).remove(0), noRecurse);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Set the binary properties of srcNode and, unless noRecurse, of its descendants on the corresponding destination nodes, which are 
+	 * the children of destNode in the same order as those of srcNode
+	 * @param srcNode
+	 * @param destNode
+	 * @param noRecurse
+	 * @return number of bytes copied
+	 * @throws RepositoryException
+	 */
+	private long copyBinaries(Node srcNode, Node destNode, boolean noRecurse) throws RepositoryException {
+		long bytes=0;
+		PropertyIterator properties=srcNode.getProperties();
+		while (properties.hasNext()) {
+			Property property=properties.nextProperty();
+			if (property.getType()==PropertyType.BINARY && !property.getDefinition().isProtected())
+				bytes+=copier.copy(property, destNode);
+		}
+		if (noRecurse)
+			return bytes;
+		NodeIterator children=srcNode.getNodes();
+		NodeIterator destChildren=destNode.getNodes();
+		while (children.hasNext()) {
+			Node child=children.nextNode();
+			bytes+=copyBinaries(child, next(destChildren, child.getName(), destNode), false);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * @param nodes
+	 * @param name
+	 * @param parent - parent of nodes
+	 * @return next node of nodes with name, skipping the nodes the transfer created without a source node, such as access control nodes
+	 * @throws PathNotFoundException if there is none
+	 */
+	private static Node next(NodeIterator nodes, String name, Node parent) throws RepositoryException {
+		while (nodes.hasNext()) {
+			Node node=nodes.nextNode();
+			if (node.getName().equals(name))
+				return node;
+		}
+		throw new PathNotFoundException(name+" was not transferred to "+parent.getPath());
+	}
+
+	public NodeTransfer getTransfer() {
+		return transfer;
+	}
+
+	public BinaryCopier getCopier() {
+		return copier;
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.metrics.MigrationMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.jcr.ImportUUIDBehavior;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * 
+ * Exports the system view of a node into memory before importing it. The whole system view of the node is held in heap.
+ *
+ */
+public class BufferedNodeTransfer extends XmlNodeTransfer {
+
+	public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		ByteArrayInputStream in=null;
+		try {
+			TransferStats stats=exportSystemView(srcSession, srcAbsPath, out, noRecurse);
+			in=new ByteArrayInputStream(out.toByteArray());
+			long start=System.nanoTime();
+			try {
+				destSession.importXML(destAbsPath, in, ImportUUIDBehavior.IMPORT_UUID_COLLISION_REMOVE_EXISTING);
+			} finally {
+				MigrationMetrics.getInstance().imported(System.nanoTime()-start);
+			}
+			return stats;
+		} finally {
+			if (in!=null) {
+				IOUtils.closeQuietly(in);
+			}
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
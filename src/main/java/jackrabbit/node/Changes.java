@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 
+ * Paths of the nodes of a source workspace added, modified and removed since a point in time
+ *
+ */
+public class Changes {
+	
+	private Set<String> added=new TreeSet<String>();
+	private Set<String> modified=new TreeSet<String>();
+	private Set<String> removed=new TreeSet<String>();
+	private boolean removalsDetected;
+	
+	/**
+	 * @param removalsDetected - whether removed nodes are detected; if not, the destination has to be compared with the source to find them
+	 */
+	public Changes(boolean removalsDetected) {
+		this.removalsDetected=removalsDetected;
+	}
+	
+	/**
+	 * @param path - path of a node added, which replaces the node with the same path in the destination if there is one
+	 */
+	public void added(String path) {
+		added.add(path);
+	}
+	
+	/**
+	 * @param path - path of a node whose properties, mixins or order of child nodes changed
+	 */
+	public void modified(String path) {
+		modified.add(path);
+	}
+	
+	public void removed(String path) {
+		removed.add(path);
+	}
+	
+	public Set<String> getAdded() {
+		return added;
+	}
+	
+	public Set<String> getModified() {
+		return modified;
+	}
+	
+	public Set<String> getRemoved() {
+		return removed;
+	}
+	
+	public boolean isRemovalsDetected() {
+		return removalsDetected;
+	}
+	
+	public boolean isEmpty() {
+		return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+	}
+	
+	public String toString() {
+		return added.size()+" added, "+modified.size()+" modified, "+(removalsDetected?removed.size():"undetected")+" removed";
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ *
+ * Append-only file recording the partitions started and completed per workspace, so that a migration can be resumed after a crash.
+ * Completed records are synced to disk before the journal method returns, while started records are synced by {@link #sync()}, which
+ * must be called before the partitions are saved. Instances can be shared between threads.
+ *
+ */
+public class CheckpointJournal {
+
+	protected static Log log=LogFactory.getLog(CheckpointJournal.class);
+
+	private static final String STARTED="STARTED";
+	private static final String DONE="DONE";
+	private static final String SEPARATOR="\t";
+
+	private File file;
+	private FileOutputStream out;
+	private Writer writer;
+	private Set<String> completed=new HashSet<String>();
+	private Set<String> inFlight=new HashSet<String>();
+	private boolean unsynced;
+
+	/**
+	 * Open a journal
+	 * @param file
+	 * @param resume - whether to load the records of an existing journal; if false, an existing journal is discarded
+	 * @throws IOException
+	 */
+	public CheckpointJournal(File file, boolean resume) throws IOException {
+		this.file=file;
+		boolean truncated=resume && endsWithPartialRecord();
+		if (resume && file.exists()) {
+			load(truncated);
+			log.info("Resuming from "+file.getPath()+": "+completed.size()+" partitions completed, "+inFlight.size()+" in flight");
+		}
+		out=new FileOutputStream(file, resume);
+		writer=new OutputStreamWriter(out, "UTF-8");
+		if (truncated) {
+			//terminate the record cut short by a crash so that it is not merged with the next one
+			writer.write("\n");
+			writer.flush();
+		}
+	}
+	
+	private boolean endsWithPartialRecord() throws IOException {
+		if (!file.exists() || file.length()==0)
+			return false;
+		RandomAccessFile raf=new RandomAccessFile(file, "r");
+		try {
+			raf.seek(file.length()-1);
+			return raf.read()!='\n';
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param truncated - whether the last record was cut short by a crash, in which case it is ignored
+	 * @throws IOException
+	 */
+	private void load(boolean truncated) throws IOException {
+		BufferedReader reader=new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line=reader.readLine();
+			while (line!=null) {
+				String next=reader.readLine();
+				if (next!=null || !truncated)
+					load(line);
+				line=next;
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+	
+	private void load(String line) {
+		int index=line.indexOf(SEPARATOR);
+		if (index<0)
+			return;
+		String key=line.substring(index+1);
+		if (line.startsWith(STARTED+SEPARATOR)) {
+			inFlight.add(key);
+		} else if (line.startsWith(DONE+SEPARATOR)) {
+			inFlight.remove(key);
+			completed.add(key);
+		}
+	}
+
+	/**
+	 * @param workspace
+	 * @param path - source path of the partition
+	 * @return whether the partition has been completed
+	 */
+	public synchronized boolean isCompleted(String workspace, String path) {
+		return completed.contains(getKey(workspace, path));
+	}
+
+	/**
+	 * @param workspace
+	 * @param path - source path of the partition
+	 * @return whether the partition was started but not completed, i.e. it may or may not have been saved in the destination
+	 */
+	public synchronized boolean isInFlight(String workspace, String path) {
+		return inFlight.contains(getKey(workspace, path));
+	}
+
+	public synchronized void started(String workspace, String path) throws IOException {
+		started(workspace, Collections.singletonList(path));
+	}
+	
+	/**
+	 * Record the partitions with paths as started, without syncing so that the partitions saved together are synced once
+	 * @param workspace
+	 * @param paths - source paths of the partitions, such as those of siblings copied together
+	 * @throws IOException
+	 */
+	public synchronized void started(String workspace, List<String> paths) throws IOException {
+		for (String path:paths) {
+			String key=getKey(workspace, path);
+			write(STARTED, key);
+			inFlight.add(key);
+		}
+	}
+
+	public synchronized void completed(String workspace, String path) throws IOException {
+		completed(workspace, Collections.singletonList(path));
+	}
+	
+	/**
+	 * Record the partitions with paths as completed, with a single sync
+	 * @param workspace
+	 * @param paths - source paths of the partitions, such as those of siblings copied together
+	 * @throws IOException
+	 */
+	public synchronized void completed(String workspace, List<String> paths) throws IOException {
+		for (String path:paths) {
+			String key=getKey(workspace, path);
+			write(DONE, key);
+			inFlight.remove(key);
+			completed.add(key);
+		}
+		sync();
+	}
+
+	private void write(String type, String key) throws IOException {
+		writer.write(type+SEPARATOR+key+"\n");
+		unsynced=true;
+	}
+	
+	/**
+	 * Sync the records written since the last sync, if any, so that the partitions recorded as started are found in flight after a crash
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		if (!unsynced)
+			return;
+		writer.flush();
+		out.getFD().sync();
+		unsynced=false;
+	}
+
+	private static String getKey(String workspace, String path) {
+		return workspace+SEPARATOR+path;
+	}
+
+	public synchronized void close() {
+		IOUtils.closeQuietly(writer);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+}
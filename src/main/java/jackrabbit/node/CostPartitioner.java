@@ -0,0 +1,279 @@
+package jackrabbit.node;
+
+import jackrabbit.util.LengthSizeEstimator;
+import jackrabbit.util.NodeSizeCache;
+import jackrabbit.util.SizeEstimator;
+
+import java.util.Map.Entry;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+/**
+ * 
+ * Partitions a node into subtrees whose cost is less than a limit, the cost of a subtree being computed by subclasses from the sizes and
+ * counts of its nodes. Subtrees exceeding the limit are copied without descendants and their children are partitioned in turn.
+ * Partitions can be iterated as the node is traversed, in which case the cost of a subtree is only computed until it reaches the limit and
+ * the memory used only depends on the depth of the node.
+ *
+ */
+public abstract class CostPartitioner implements StreamingNodePartitioner {
+	
+	private long limit;
+	private NodeSizeCache sizes;
+	private SizeEstimator estimator=new LengthSizeEstimator();
+	
+	public CostPartitioner(long limit) {
+		this.limit=limit;
+	}
+	
+	/**
+	 * @param limit
+	 * @param estimator - estimator of property sizes
+	 */
+	public CostPartitioner(long limit, SizeEstimator estimator) {
+		this.limit=limit;
+		this.estimator=estimator;
+	}
+	
+	/**
+	 * @param limit
+	 * @param sizes - cache of sizes already computed for the nodes to partition, e.g. by a previous scan
+	 */
+	public CostPartitioner(long limit, NodeSizeCache sizes) {
+		this(limit, sizes.getEstimator(), sizes);
+	}
+	
+	/**
+	 * @param limit
+	 * @param estimator - estimator of property sizes
+	 * @param sizes - cache of sizes already computed for the nodes to partition; null to compute them when partitioning
+	 */
+	protected CostPartitioner(long limit, SizeEstimator estimator, NodeSizeCache sizes) {
+		this.limit=limit;
+		this.estimator=estimator;
+		this.sizes=sizes;
+	}
+	
+	/**
+	 * @param nodes - number of nodes of a subtree
+	 * @param properties - number of properties of the subtree
+	 * @param bytes - size of the properties of the subtree
+	 * @param binaries - number of binary values of the subtree
+	 * @return cost of copying the subtree, in the unit of the limit; it must not decrease when any of the arguments increases
+	 */
+	protected abstract long getCost(long nodes, long properties, long bytes, long binaries);
+	
+	/**
+	 * @param sizes - cache of sizes already computed for the nodes to partition
+	 * @return a partitioner with the same cost model and limit using sizes
+	 */
+	public abstract CostPartitioner withSizes(NodeSizeCache sizes);
+	
+	/**
+	 * @return whether adjacent children under the limit are packed into a {@link SiblingPartition} as long as their total cost is under the limit
+	 */
+	protected boolean isPacking() {
+		return false;
+	}
+	
+	/**
+	 * @param node
+	 * @param sizes - sizes and counts of node and its descendants
+	 * @return cost of copying node and its descendants
+	 * @throws RepositoryException
+	 */
+	protected long getCost(Node node, NodeSizeCache sizes) throws RepositoryException {
+		return getCost(sizes.getDescendantsCount(node), sizes.getDescendantsPropertyCount(node), sizes.getDescendantsSize(node), 
+				sizes.getDescendantsBinaryCount(node));
+	}
+	
+	/**
+	 * Compute the cost of node and its descendants, traversing them only until the cost reaches the limit
+	 * @param node
+	 * @param sizes - cache used for the sizes of a single node, which are not cached
+	 * @return cost of node and its descendants if less than the limit; otherwise a cost reaching the limit
+	 * @throws RepositoryException
+	 */
+	private long getBoundedCost(Node node, NodeSizeCache sizes) throws RepositoryException {
+		long[] totals=sizes.getNodeSizes(node);
+		Deque<NodeIterator> stack=new ArrayDeque<NodeIterator>();
+		stack.push(node.getNodes());
+		long cost=getCost(totals[1], totals[2], totals[0], totals[3]);
+		while (cost < limit && !stack.isEmpty()) {
+			NodeIterator children=stack.peek();
+			if (!children.hasNext()) {
+				stack.pop();
+				continue;
+			}
+			Node child=children.nextNode();
+			long[] childSizes=sizes.getNodeSizes(child);
+			for (int i=0;i<totals.length;i++) {
+				totals[i]+=childSizes[i];
+			}
+			stack.push(child.getNodes());
+			cost=getCost(totals[1], totals[2], totals[0], totals[3]);
+		}
+		return cost;
+	}
+
+	/**
+	 * Partition a node based on the cost of a node (and its descendants). The sizes of every node are computed once, in a single traversal
+	 * of the subtree before partitioning.
+	 * @param node
+	 * @return a sorted set of Map.Entry with key being the path of a node in the partition and value a Boolean indicating whether the node cost
+	 * exceeds the limit or not
+	 * @throws RepositoryException
+	 */
+	public Set<Entry<String, Boolean>> partition(Node node) throws RepositoryException {
+		Set<Map.Entry<String, Boolean>> descendants = new TreeSet<Map.Entry<String, Boolean>>(new Comparator<Map.Entry<String, Boolean>>() {
+            public int compare(Map.Entry<String, Boolean> a, Map.Entry<String, Boolean> b) {
+	         	if (a.getValue()==b.getValue()) 
+	         		return (a.getKey().toString().toLowerCase()).compareTo(b.getKey().toString().toLowerCase());
+	         	else
+	         		return -(a.getValue().toString().toLowerCase()).compareTo(b.getValue().toString().toLowerCase());
+            }
+		});
+		NodeSizeCache cache=sizes!=null?sizes:new NodeSizeCache(estimator);
+		cache.getDescendantsSize(node);
+		PartitionIterator partitions=new CostPartitionIterator(node, cache, true);
+		while (partitions.hasNext()) {
+			descendants.add(partitions.next());
+		}
+		return descendants;
+	}
+	
+	/**
+	 * Iterate over the partitions of node in document order, a partition copied without descendants coming before the partitions of its 
+	 * descendants. Unless the partitioner has a cache of sizes, they are computed as the node is traversed and not kept.
+	 * @param node
+	 * @return partitions of node
+	 * @throws RepositoryException
+	 */
+	public PartitionIterator iterator(Node node) throws RepositoryException {
+		return new CostPartitionIterator(node, sizes!=null?sizes:new NodeSizeCache(estimator), sizes!=null);
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public SizeEstimator getEstimator() {
+		return estimator;
+	}
+
+	/**
+	 * @return cache of sizes the partitioner was created with; null if it computes them when partitioning
+	 */
+	public NodeSizeCache getSizes() {
+		return sizes;
+	}
+	
+	/**
+	 * 
+	 * Depth first traversal of a node, where each node over the limit is visited with its children iterated and the pending siblings
+	 * of its current bin
+	 *
+	 */
+	private class CostPartitionIterator implements PartitionIterator {
+		
+		private NodeSizeCache cache;
+		private boolean cached;
+		private Deque<Visit> stack=new ArrayDeque<Visit>();
+		private Deque<Map.Entry<String, Boolean>> pending=new ArrayDeque<Map.Entry<String, Boolean>>();
+		
+		/**
+		 * @param node
+		 * @param cache
+		 * @param cached - whether cache has the sizes of node and its descendants, otherwise they are computed only up to the limit
+		 * @throws RepositoryException
+		 */
+		CostPartitionIterator(Node node, NodeSizeCache cache, boolean cached) throws RepositoryException {
+			this.cache=cache;
+			this.cached=cached;
+			visit(node);
+		}
+		
+		private long getCost(Node node) throws RepositoryException {
+			return cached?CostPartitioner.this.getCost(node, cache):getBoundedCost(node, cache);
+		}
+		
+		private void visit(Node node) throws RepositoryException {
+			if (getCost(node) < limit) {
+				pending.add(new AbstractMap.SimpleEntry<String, Boolean>(node.getPath(), false));
+			} else {
+				pending.add(new AbstractMap.SimpleEntry<String, Boolean>(node.getPath(), true));
+				stack.push(new Visit(node.getNodes()));
+			}
+		}
+
+		public boolean hasNext() throws RepositoryException {
+			while (pending.isEmpty() && !stack.isEmpty()) {
+				Visit visit=stack.peek();
+				if (!visit.children.hasNext()) {
+					visit.flush();
+					stack.pop();
+					continue;
+				}
+				Node child=visit.children.nextNode();
+				long cost=getCost(child);
+				if (cost >= limit) {
+					//ends the bin to keep siblings in document order
+					visit.flush();
+					visit(child);
+				} else if (isPacking()) {
+					if (visit.binCost+cost >= limit)
+						visit.flush();
+					visit.bin.add(child.getPath());
+					visit.binCost+=cost;
+				} else {
+					pending.add(new AbstractMap.SimpleEntry<String, Boolean>(child.getPath(), false));
+				}
+			}
+			return !pending.isEmpty();
+		}
+
+		public Map.Entry<String, Boolean> next() throws RepositoryException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return pending.poll();
+		}
+		
+		private class Visit {
+			
+			private NodeIterator children;
+			private List<String> bin=new ArrayList<String>();
+			private long binCost;
+			
+			Visit(NodeIterator children) {
+				this.children=children;
+			}
+			
+			/**
+			 * Add the siblings of the bin as a partition and empty the bin
+			 */
+			void flush() {
+				if (bin.size()==1)
+					pending.add(new AbstractMap.SimpleEntry<String, Boolean>(bin.get(0), false));
+				else if (bin.size()>1)
+					pending.add(new SiblingPartition(bin));
+				bin.clear();
+				binCost=0;
+			}
+			
+		}
+		
+	}
+
+}
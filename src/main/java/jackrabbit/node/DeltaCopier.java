@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 
+ * Copies the changes of a node since a point in time to a destination previously copied from it. Removed nodes are removed from the 
+ * destination, added nodes are copied with their descendants, replacing the destination node with the same path if there is one, and
+ * modified nodes are updated in place. Removals are copied when the change detector detects them, as the event journal does. Otherwise
+ * they are only found with a sweep, which compares the whole destination with the source and so walks every destination node on each
+ * run.
+ *
+ */
+public class DeltaCopier {
+	
+	protected static Log log=LogFactory.getLog(DeltaCopier.class);
+	
+	private ChangeDetector detector;
+	private NodeTransfer transfer;
+	private DirectNodeTransfer updater;
+	private boolean sweep;
+	
+	/**
+	 * @param detector
+	 * @param transfer - transfer of the nodes added
+	 */
+	public DeltaCopier(ChangeDetector detector, NodeTransfer transfer) {
+		this.detector=detector;
+		this.transfer=transfer;
+		updater=DirectNodeTransfer.getUpdater(transfer);
+	}
+	
+	/**
+	 * Copy the changes of the node with srcPath since a point in time to the node copied to destPath
+	 * @param srcSession
+	 * @param batch - batch of the destination session the changes are saved with
+	 * @param srcPath
+	 * @param destPath
+	 * @param since - time in milliseconds from which changes are copied
+	 * @return changes copied
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public Changes copy(Session srcSession, SaveBatch batch, String srcPath, String destPath, long since) throws RepositoryException, IOException {
+		String workspace=srcSession.getWorkspace().getName();
+		Changes changes=detector.getChanges(srcSession, srcPath, since);
+		log.info(workspace+" workspace: "+changes+" in "+srcPath+" since "+new Date(since));
+		Session destSession=batch.getSession();
+		for (String path:changes.getRemoved()) {
+			if (isDescendant(srcPath, path) && !hasAncestor(changes.getRemoved(), path))
+				batch.add(new Removal(srcSession, path, getDestPath(srcPath, destPath, path)));
+		}
+		String destRoot=getDestPath(srcPath, destPath, srcPath);
+		if (!changes.isRemovalsDetected()) {
+			if (!sweep)
+				log.info(workspace+" workspace: removals since "+new Date(since)+" are not detected, nodes removed from "+srcPath+" are kept");
+			else if (destSession.nodeExists(destRoot))
+				sweep(srcSession, batch, srcPath, destPath, destSession.getNode(destRoot));
+		}
+		Set<String> copies=getCopies(destSession, srcPath, destPath, changes);
+		for (String path:copies) {
+			batch.add(new Copy(srcSession, batch, srcPath, destPath, path));
+		}
+		for (String path:changes.getModified()) {
+			if (isDescendant(srcPath, path) && !hasAncestor(copies, path))
+				batch.add(new Update(srcSession, path, getDestPath(srcPath, destPath, path)));
+		}
+		batch.flush();
+		return changes;
+	}
+	
+	/**
+	 * @param destSession
+	 * @param srcPath
+	 * @param destPath
+	 * @param changes
+	 * @return paths of the nodes added, and of the highest ancestors missing in the destination of the nodes modified, without their descendants
+	 * @throws RepositoryException
+	 */
+	private static Set<String> getCopies(Session destSession, String srcPath, String destPath, Changes changes) throws RepositoryException {
+		Set<String> paths=new TreeSet<String>();
+		for (String path:changes.getAdded()) {
+			if (isDescendant(srcPath, path))
+				paths.add(path);
+		}
+		for (String path:changes.getModified()) {
+			if (!isDescendant(srcPath, path) || destSession.nodeExists(getDestPath(srcPath, destPath, path)))
+				continue;
+			String missing=path;
+			String parent=getParent(path);
+			while (!missing.equals(srcPath) && !destSession.nodeExists(getDestPath(srcPath, destPath, parent))) {
+				missing=parent;
+				parent=getParent(parent);
+			}
+			paths.add(missing);
+		}
+		Set<String> copies=new TreeSet<String>();
+		for (String path:paths) {
+			if (!hasAncestor(paths, path))
+				copies.add(path);
+		}
+		return copies;
+	}
+	
+	/**
+	 * Remove the descendants of destNode whose source node does not exist
+	 * @param srcSession
+	 * @param batch
+	 * @param srcPath
+	 * @param destPath
+	 * @param destNode
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private void sweep(Session srcSession, SaveBatch batch, String srcPath, String destPath, Node destNode) throws RepositoryException, IOException {
+		String destRoot=getDestPath(srcPath, destPath, srcPath);
+		NodeIterator children=destNode.getNodes();
+		while (children.hasNext()) {
+			Node child=children.nextNode();
+			String path=srcPath+child.getPath().substring(destRoot.length());
+			if (srcSession.nodeExists(path))
+				sweep(srcSession, batch, srcPath, destPath, child);
+			else
+				batch.add(new Removal(srcSession, path, child.getPath()));
+		}
+	}
+	
+	public boolean isSweep() {
+		return sweep;
+	}
+
+	/**
+	 * @param sweep - whether to compare the whole destination with the source to find the nodes removed when the change detector does
+	 * not detect removals; false by default, in which case those nodes are kept in the destination
+	 */
+	public void setSweep(boolean sweep) {
+		this.sweep = sweep;
+	}
+	
+	/**
+	 * @param srcPath
+	 * @param destPath
+	 * @param path - path of srcPath or of one of its descendants
+	 * @return path the node with path is copied to
+	 */
+	private static String getDestPath(String srcPath, String destPath, String path) {
+		return NodeCopier.getDestPath(srcPath, destPath, path.substring(srcPath.length()));
+	}
+	
+	private static boolean isDescendant(String ancestor, String path) {
+		return path.equals(ancestor) || path.startsWith(ancestor.endsWith("/")?ancestor:ancestor+"/");
+	}
+	
+	/**
+	 * @param paths
+	 * @param path
+	 * @return whether paths has a proper ancestor of path
+	 */
+	private static boolean hasAncestor(Set<String> paths, String path) {
+		for (String parent=getParent(path);parent!=null;parent=getParent(parent)) {
+			if (paths.contains(parent))
+				return true;
+		}
+		return false;
+	}
+	
+	private static String getParent(String path) {
+		int index=path.lastIndexOf("/");
+		if (index<0 || path.equals("/"))
+			return null;
+		return index==0?"/":path.substring(0, index);
+	}
+	
+	public ChangeDetector getDetector() {
+		return detector;
+	}
+	
+	public NodeTransfer getTransfer() {
+		return transfer;
+	}
+	
+	/**
+	 * 
+	 * Removal of a destination node whose source node does not exist
+	 *
+	 */
+	private static class Removal implements SaveBatch.Operation {
+		
+		private Session srcSession;
+		private String srcPath;
+		private String destPath;
+		
+		Removal(Session srcSession, String srcPath, String destPath) {
+			this.srcSession=srcSession;
+			this.srcPath=srcPath;
+			this.destPath=destPath;
+		}
+
+		public TransferStats apply(Session destSession) throws RepositoryException, IOException {
+			//a node removed and added again is copied as added
+			if (srcSession.nodeExists(srcPath) || !destSession.nodeExists(destPath))
+				return new TransferStats();
+			destSession.getNode(destPath).remove();
+			return new TransferStats(1, 0);
+		}
+
+		public void saved() throws IOException {
+			log.info(srcSession.getWorkspace().getName()+" workspace: node removed from "+destPath);
+		}
+		
+	}
+	
+	/**
+	 * 
+	 * Copy of a source node and its descendants, replacing the destination node with the same path
+	 *
+	 */
+	private class Copy implements SaveBatch.Operation {
+		
+		private Session srcSession;
+		private SaveBatch batch;
+		private String srcPath;
+		private String destPath;
+		private String path;
+		private TransferStats stats=new TransferStats();
+		
+		Copy(Session srcSession, SaveBatch batch, String srcPath, String destPath, String path) {
+			this.srcSession=srcSession;
+			this.batch=batch;
+			this.srcPath=srcPath;
+			this.destPath=destPath;
+			this.path=path;
+		}
+
+		public TransferStats apply(Session destSession) throws RepositoryException, IOException {
+			stats=new TransferStats();
+			if (!srcSession.nodeExists(path))
+				return stats;
+			String copiedPath=DeltaCopier.getDestPath(srcPath, destPath, path);
+			if (destSession.nodeExists(copiedPath))
+				destSession.getNode(copiedPath).remove();
+			stats=NodeCopier.transfer(srcSession, destSession, srcPath, destPath, path.substring(srcPath.length()), false, true, transfer);
+			return stats;
+		}
+
+		public void saved() throws IOException {
+			batch.copied(stats);
+			log.info(srcSession.getWorkspace().getName()+" workspace: node copied from "+path+" to "+DeltaCopier.getDestPath(srcPath, destPath, path));
+		}
+		
+	}
+	
+	/**
+	 * 
+	 * Update in place of a destination node to its source node
+	 *
+	 */
+	private class Update implements SaveBatch.Operation {
+		
+		private Session srcSession;
+		private String srcPath;
+		private String destPath;
+		
+		Update(Session srcSession, String srcPath, String destPath) {
+			this.srcSession=srcSession;
+			this.srcPath=srcPath;
+			this.destPath=destPath;
+		}
+
+		public TransferStats apply(Session destSession) throws RepositoryException, IOException {
+			if (!srcSession.nodeExists(srcPath) || !destSession.nodeExists(destPath))
+				return new TransferStats();
+			return updater.update(srcSession.getNode(srcPath), destSession.getNode(destPath));
+		}
+
+		public void saved() throws IOException {
+			log.debug(srcSession.getWorkspace().getName()+" workspace: node updated from "+srcPath+" to "+destPath);
+		}
+		
+	}
+
+}
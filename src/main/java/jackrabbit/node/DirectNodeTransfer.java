@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.util.LengthSizeEstimator;
+import jackrabbit.util.SizeEstimator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Binary;
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NodeType;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.NodeImpl;
+
+/**
+ * 
+ * Copies a node by walking the source node and writing the destination nodes and properties through the JCR API, without serializing 
+ * them to XML. Identifiers of referenceable nodes, mixins, multi-valued properties and the order of child nodes are preserved, and binaries
+ * are streamed from the source to the destination. As with an import removing existing nodes on identifier collision, a destination node 
+ * with the identifier of a copied node is removed first. Protected properties are left to the destination repository. Identifiers can
+ * only be set in a Jackrabbit core destination repository, so copying a referenceable node to another one fails.
+ *
+ */
+public class DirectNodeTransfer implements NodeTransfer {
+	
+	private static final String MIX_REFERENCEABLE="mix:referenceable";
+	
+	private boolean skipBinary;
+	private BinaryCopier binaryCopier;
+	private SizeEstimator estimator=new LengthSizeEstimator();
+	
+	public DirectNodeTransfer() {
+		this(false);
+	}
+	
+	/**
+	 * @param skipBinary - whether to copy binary values as empty binaries, like the system view export does
+	 */
+	public DirectNodeTransfer(boolean skipBinary) {
+		this.skipBinary=skipBinary;
+	}
+	
+	/**
+	 * @param binaryCopier - copier of the binary properties, which reference the content already in the destination DataStore instead of copying it again
+	 */
+	public DirectNodeTransfer(BinaryCopier binaryCopier) {
+		this(false);
+		this.binaryCopier=binaryCopier;
+	}
+
+	public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException {
+		TransferStats stats=new TransferStats();
+		copy(srcSession.getNode(srcAbsPath), destSession.getNode(destAbsPath), destSession.getValueFactory(), noRecurse, stats);
+		return stats;
+	}
+	
+	private void copy(Node srcNode, Node destParent, ValueFactory factory, boolean noRecurse, TransferStats stats) throws RepositoryException, IOException {
+		Node destNode=addNode(srcNode, destParent);
+		for (NodeType mixin:srcNode.getMixinNodeTypes()) {
+			destNode.addMixin(mixin.getName());
+		}
+		stats.add(new TransferStats(1, copyProperties(srcNode, destNode, factory)));
+		if (noRecurse)
+			return;
+		//children are added in the order of the source, which is the order of an orderable destination node
+		NodeIterator children=srcNode.getNodes();
+		while (children.hasNext()) {
+			copy(children.nextNode(), destNode, factory, false, stats);
+		}
+	}
+	
+	/**
+	 * @param transfer - transfer the nodes to update were copied with
+	 * @return transfer updating nodes in place with the binaries transfer copies: transfer itself if it is direct, one with the binary 
+	 * copier of a binary transfer, and one skipping binaries like the system view export otherwise
+	 */
+	static DirectNodeTransfer getUpdater(NodeTransfer transfer) {
+		if (transfer instanceof DirectNodeTransfer)
+			return (DirectNodeTransfer)transfer;
+		if (transfer instanceof BinaryNodeTransfer)
+			return new DirectNodeTransfer(((BinaryNodeTransfer)transfer).getCopier());
+		return new DirectNodeTransfer(true);
+	}
+	
+	/**
+	 * Update destNode in place to the mixins, properties and order of child nodes of srcNode, leaving the child nodes themselves as they are.
+	 * The destination is not saved.
+	 * @param srcNode
+	 * @param destNode - node of the destination session with the path of srcNode
+	 * @return stats of the node updated
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	TransferStats update(Node srcNode, Node destNode) throws RepositoryException, IOException {
+		Set<String> mixins=new HashSet<String>();
+		for (NodeType mixin:srcNode.getMixinNodeTypes()) {
+			mixins.add(mixin.getName());
+			if (!destNode.isNodeType(mixin.getName()))
+				destNode.addMixin(mixin.getName());
+		}
+		for (NodeType mixin:destNode.getMixinNodeTypes()) {
+			if (!mixins.contains(mixin.getName()))
+				destNode.removeMixin(mixin.getName());
+		}
+		long bytes=copyProperties(srcNode, destNode, destNode.getSession().getValueFactory());
+		PropertyIterator properties=destNode.getProperties();
+		while (properties.hasNext()) {
+			Property property=properties.nextProperty();
+			if (!property.getDefinition().isProtected() && !srcNode.hasProperty(property.getName()))
+				property.remove();
+		}
+		if (destNode.getPrimaryNodeType().hasOrderableChildNodes())
+			orderNodes(srcNode, destNode);
+		return new TransferStats(1, bytes);
+	}
+	
+	/**
+	 * Set the properties of srcNode which are not protected on destNode
+	 * @param srcNode
+	 * @param destNode
+	 * @param factory - value factory of the destination session
+	 * @return estimated size of the properties copied
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private long copyProperties(Node srcNode, Node destNode, ValueFactory factory) throws RepositoryException, IOException {
+		long bytes=0;
+		PropertyIterator properties=srcNode.getProperties();
+		while (properties.hasNext()) {
+			Property property=properties.nextProperty();
+			if (property.getDefinition().isProtected())
+				continue;
+			if (binaryCopier!=null && property.getType()==PropertyType.BINARY) {
+				bytes+=binaryCopier.copy(property, destNode);
+				continue;
+			}
+			if (!skipBinary || property.getType()!=PropertyType.BINARY)
+				bytes+=estimator.getPropertySize(property);
+			if (destNode.hasProperty(property.getName()) && destNode.getProperty(property.getName()).isMultiple()!=property.isMultiple())
+				destNode.getProperty(property.getName()).remove();
+			if (property.isMultiple())
+				destNode.setProperty(property.getName(), copyValues(property.getValues(), srcNode.getSession(), destNode.getSession(), factory), property.getType());
+			else
+				destNode.setProperty(property.getName(), copyValue(property.getValue(), srcNode.getSession(), destNode.getSession(), factory));
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Order the child nodes of destNode which are also child nodes of srcNode as in srcNode; other child nodes come first. Same-name siblings
+	 * are left in their order, since moving one renumbers the others.
+	 * @param srcNode
+	 * @param destNode
+	 * @throws RepositoryException
+	 */
+	private void orderNodes(Node srcNode, Node destNode) throws RepositoryException {
+		List<String> srcNames=getChildNames(srcNode);
+		List<String> destNames=getChildNames(destNode);
+		destNames.retainAll(new HashSet<String>(srcNames));
+		srcNames.retainAll(new HashSet<String>(destNames));
+		if (srcNames.equals(destNames) || hasSameNameSiblings(destNode))
+			return;
+		for (String name:srcNames) {
+			destNode.orderBefore(name, null);
+		}
+	}
+	
+	private static boolean hasSameNameSiblings(Node node) throws RepositoryException {
+		NodeIterator children=node.getNodes();
+		while (children.hasNext()) {
+			if (children.nextNode().getIndex()>1)
+				return true;
+		}
+		return false;
+	}
+	
+	private static List<String> getChildNames(Node node) throws RepositoryException {
+		List<String> names=new ArrayList<String>();
+		NodeIterator children=node.getNodes();
+		while (children.hasNext()) {
+			Node child=children.nextNode();
+			names.add(child.getName()+"["+child.getIndex()+"]");
+		}
+		return names;
+	}
+	
+	/**
+	 * Add a node with the name and primary type of srcNode to destParent, with the identifier of srcNode if it is referenceable
+	 * @param srcNode
+	 * @param destParent
+	 * @return node added
+	 * @throws UnsupportedRepositoryOperationException if srcNode is referenceable and the destination is not a Jackrabbit core repository,
+	 * which cannot add a node with a given identifier through the JCR API
+	 * @throws RepositoryException
+	 */
+	private Node addNode(Node srcNode, Node destParent) throws RepositoryException {
+		String type=srcNode.getPrimaryNodeType().getName();
+		if (!srcNode.isNodeType(MIX_REFERENCEABLE))
+			return destParent.addNode(srcNode.getName(), type);
+		if (!(destParent instanceof NodeImpl))
+			throw new UnsupportedRepositoryOperationException("Cannot copy "+srcNode.getPath()+" with its identifier to "+destParent.getPath()
+					+", which is not a node of a Jackrabbit core repository; copy it with an XML transfer instead");
+		String identifier=srcNode.getIdentifier();
+		try {
+			destParent.getSession().getNodeByIdentifier(identifier).remove();
+		} catch (ItemNotFoundException e) {
+			//no collision
+		}
+		return ((NodeImpl)destParent).addNodeWithUuid(srcNode.getName(), type, identifier);
+	}
+	
+	private Value[] copyValues(Value[] values, Session srcSession, Session destSession, ValueFactory factory) throws RepositoryException, IOException {
+		Value[] copies=new Value[values.length];
+		for (int i=0;i<values.length;i++) {
+			copies[i]=copyValue(values[i], srcSession, destSession, factory);
+		}
+		return copies;
+	}
+	
+	/**
+	 * @param value - value of the source repository
+	 * @param srcSession - session of value, whose prefixes names and paths are written with
+	 * @param destSession
+	 * @param factory - value factory of destSession
+	 * @return value of the destination repository equal to value
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private Value copyValue(Value value, Session srcSession, Session destSession, ValueFactory factory) throws RepositoryException, IOException {
+		switch (value.getType()) {
+		case PropertyType.NAME:
+			return factory.createValue(getDestName(value.getString(), srcSession, destSession), PropertyType.NAME);
+		case PropertyType.PATH:
+			return factory.createValue(getDestPath(value.getString(), srcSession, destSession), PropertyType.PATH);
+		case PropertyType.BINARY:
+			return factory.createValue(copyBinary(value, factory));
+		case PropertyType.BOOLEAN:
+			return factory.createValue(value.getBoolean());
+		case PropertyType.LONG:
+			return factory.createValue(value.getLong());
+		case PropertyType.DOUBLE:
+			return factory.createValue(value.getDouble());
+		case PropertyType.DECIMAL:
+			return factory.createValue(value.getDecimal());
+		case PropertyType.DATE:
+			return factory.createValue(value.getDate());
+		default:
+			return factory.createValue(value.getString(), value.getType());
+		}
+	}
+	
+	/**
+	 * @param name - name written with the prefixes of srcSession
+	 * @param srcSession
+	 * @param destSession
+	 * @return name written with the prefix of its namespace in destSession, since the same prefix may be mapped to another namespace there
+	 * @throws RepositoryException
+	 */
+	static String getDestName(String name, Session srcSession, Session destSession) throws RepositoryException {
+		int index=name.indexOf(':');
+		if (index<0 || name.startsWith("{"))
+			return name;
+		String prefix=destSession.getNamespacePrefix(srcSession.getNamespaceURI(name.substring(0, index)));
+		return prefix+":"+name.substring(index+1);
+	}
+	
+	/**
+	 * @param path - absolute or relative path written with the prefixes of srcSession
+	 * @param srcSession
+	 * @param destSession
+	 * @return path with the names of its segments written with the prefixes of destSession
+	 * @throws RepositoryException
+	 */
+	static String getDestPath(String path, Session srcSession, Session destSession) throws RepositoryException {
+		//an identifier path has no names
+		if (path.startsWith("["))
+			return path;
+		String[] segments=path.split("/", -1);
+		StringBuilder destPath=new StringBuilder();
+		for (int i=0;i<segments.length;i++) {
+			if (i>0)
+				destPath.append('/');
+			int index=segments[i].indexOf('[');
+			destPath.append(getDestName(index<0?segments[i]:segments[i].substring(0, index), srcSession, destSession));
+			if (index>=0)
+				destPath.append(segments[i].substring(index));
+		}
+		return destPath.toString();
+	}
+	
+	private Binary copyBinary(Value value, ValueFactory factory) throws RepositoryException, IOException {
+		if (skipBinary)
+			return factory.createBinary(new ByteArrayInputStream(new byte[0]));
+		//the binary of value is that of the source property, so it is not disposed
+		InputStream in=null;
+		try {
+			in=value.getBinary().getStream();
+			return factory.createBinary(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	public boolean isSkipBinary() {
+		return skipBinary;
+	}
+
+	public BinaryCopier getBinaryCopier() {
+		return binaryCopier;
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventJournal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 
+ * Finds the nodes changed since a point in time from the event journal of the repository, which Jackrabbit only keeps when it is 
+ * configured with a cluster journal, and only to administrator sessions. Otherwise the changes are found with a fallback detector.
+ *
+ */
+public class EventJournalChangeDetector implements ChangeDetector {
+	
+	protected static Log log=LogFactory.getLog(EventJournalChangeDetector.class);
+	
+	private static final int EVENT_TYPES=Event.NODE_ADDED|Event.NODE_REMOVED|Event.NODE_MOVED|Event.PROPERTY_ADDED|Event.PROPERTY_CHANGED|Event.PROPERTY_REMOVED;
+	
+	private ChangeDetector fallback;
+	
+	/**
+	 * @param fallback - detector used if the repository has no event journal; null for none
+	 */
+	public EventJournalChangeDetector(ChangeDetector fallback) {
+		this.fallback=fallback;
+	}
+
+	public Changes getChanges(Session session, String absPath, long since) throws RepositoryException {
+		EventJournal journal;
+		try {
+			journal=session.getWorkspace().getObservationManager().getEventJournal(EVENT_TYPES, absPath, true, null, null);
+		} catch (RepositoryException e) {
+			//thrown without a cluster journal, or for a session which is not an administrator
+			if (fallback==null)
+				throw e;
+			log.warn(session.getWorkspace().getName()+" workspace: no event journal ("+e.getMessage()+"), finding changes with "+fallback.getClass().getSimpleName());
+			return fallback.getChanges(session, absPath, since);
+		}
+		journal.skipTo(since);
+		Changes changes=new Changes(true);
+		while (journal.hasNext()) {
+			Event event=journal.nextEvent();
+			String path=event.getPath();
+			switch (event.getType()) {
+			case Event.NODE_ADDED:
+				//the node copied is appended to the child nodes of its parent, which are ordered again
+				changes.added(path);
+				changes.modified(getParentPath(path));
+				break;
+			case Event.NODE_REMOVED:
+				changes.removed(path);
+				break;
+			case Event.NODE_MOVED:
+				Object srcAbsPath=event.getInfo().get("srcAbsPath");
+				if (srcAbsPath!=null) {
+					//a move is a removal followed by an addition; a reorder changes the order of the child nodes of the parent
+					changes.removed(srcAbsPath.toString());
+					changes.added(path);
+				}
+				changes.modified(getParentPath(path));
+				break;
+			default:
+				changes.modified(getParentPath(path));
+			}
+		}
+		return changes;
+	}
+	
+	private static String getParentPath(String path) {
+		int index=path.lastIndexOf("/");
+		return index>0?path.substring(0, index):"/";
+	}
+
+	public ChangeDetector getFallback() {
+		return fallback;
+	}
+
+}
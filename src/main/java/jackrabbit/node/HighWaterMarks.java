@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * 
+ * Properties file recording, per workspace, the time up to which the changes of the source have been copied. Every update is written 
+ * to a temporary file which then replaces the file, so that a crash leaves either the old or the new marks. Instances can be shared 
+ * between threads.
+ *
+ */
+public class HighWaterMarks {
+	
+	private File file;
+	private Properties marks=new Properties();
+	
+	/**
+	 * Load the marks of file if it exists
+	 * @param file
+	 * @throws IOException
+	 */
+	public HighWaterMarks(File file) throws IOException {
+		this.file=file;
+		if (file.exists()) {
+			InputStream in=new FileInputStream(file);
+			try {
+				marks.load(in);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+	}
+	
+	/**
+	 * @param workspace
+	 * @return time in milliseconds up to which the changes of workspace have been copied; 0 if it has never been copied
+	 */
+	public synchronized long get(String workspace) {
+		String mark=marks.getProperty(workspace);
+		return mark==null?0:Long.parseLong(mark);
+	}
+	
+	/**
+	 * Record mark for workspace and write the marks
+	 * @param workspace
+	 * @param mark - time in milliseconds up to which the changes of workspace have been copied
+	 * @throws IOException
+	 */
+	public synchronized void set(String workspace, long mark) throws IOException {
+		marks.setProperty(workspace, String.valueOf(mark));
+		File tmp=new File(file.getPath()+".tmp");
+		FileOutputStream out=new FileOutputStream(tmp);
+		try {
+			marks.store(out, "High-water marks of the copied workspaces");
+			out.getFD().sync();
+		} finally {
+			IOUtils.closeQuietly((OutputStream)out);
+		}
+		if (!tmp.renameTo(file)) {
+			//renaming over an existing file fails on some platforms
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Cannot rename "+tmp.getPath()+" to "+file.getPath());
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.query.Querier;
+
+import java.util.Calendar;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.util.ISO8601;
+
+/**
+ * 
+ * Finds the nodes with a jcr:lastModified property of mix:lastModified later than a point in time with a query. Nodes which are not 
+ * mix:lastModified or whose jcr:lastModified is not maintained by the applications are not found, and neither are removed nodes.
+ *
+ */
+public class LastModifiedChangeDetector implements ChangeDetector {
+
+	public Changes getChanges(Session session, String absPath, long since) throws RepositoryException {
+		Calendar date=Calendar.getInstance();
+		date.setTimeInMillis(since);
+		NodeIterator it=Querier.queryBySQLNode(session, "select * from [mix:lastModified] as node where (ISSAMENODE(node, ["+absPath+"]) or ISDESCENDANTNODE(node, ["+absPath+"])) "+
+				"and node.[jcr:lastModified] >= CAST('"+ISO8601.format(date)+"' AS DATE)");
+		Changes changes=new Changes(false);
+		while (it.hasNext()) {
+			changes.modified(it.nextNode().getPath());
+		}
+		return changes;
+	}
+
+}
@@ -17,20 +17,22 @@
 
 package jackrabbit.node;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import jackrabbit.metrics.MigrationMetrics;
+
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.jcr.ImportUUIDBehavior;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.nodetype.ConstraintViolationException;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -38,6 +40,8 @@ public class NodeCopier {
 	
 	protected static Log log=LogFactory.getLog(NodeCopier.class);
 	
+	private static final NodeTransfer DEFAULT_TRANSFER=new BufferedNodeTransfer();
+	
 	/**
 	 * Copy node with srcPath from one repository to another using the export and import functions
 	 * @param srcSession
@@ -50,8 +54,23 @@ public class NodeCopier {
 	 * @throws IOException
 	 */
 	public static void copy(Session srcSession, Session destSession, String srcPath, String destPath, boolean addNodeType) throws RepositoryException, IOException {
+		copy(srcSession, destSession, srcPath, destPath, addNodeType, DEFAULT_TRANSFER);
+	}
+	
+	/**
+	 * Copy node with srcPath from one repository to another using the given transfer
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcPath
+	 * @param destPath
+	 * @param addNodeType
+	 * @param transfer
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static void copy(Session srcSession, Session destSession, String srcPath, String destPath, boolean addNodeType, NodeTransfer transfer) throws RepositoryException, IOException {
 		createNodes(srcSession, destSession, destPath, addNodeType);
-		copy(srcSession, destSession, srcPath, destPath, "", false, addNodeType);
+		copy(srcSession, destSession, srcPath, destPath, "", false, addNodeType, transfer);
 	}
 	
 	/**
@@ -67,37 +86,136 @@ public class NodeCopier {
 	 * @throws IOException
 	 */
 	public static void copy(Session srcSession, Session destSession, String srcPath, String destPath, String relPath, boolean noRecurse, boolean addNodeType) throws RepositoryException, IOException {
+		copy(srcSession, destSession, srcPath, destPath, relPath, noRecurse, addNodeType, DEFAULT_TRANSFER);
+	}
+	
+	/**
+	 * Copy node with srcPath from one repository to another using the given transfer
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcPath
+	 * @param destPath
+	 * @param relPath 
+	 * @param noRecurse - Boolean to indicate whether to copy the node recursively
+	 * @param addNodeType
+	 * @param transfer
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static void copy(Session srcSession, Session destSession, String srcPath, String destPath, String relPath, boolean noRecurse, boolean addNodeType, NodeTransfer transfer) throws RepositoryException, IOException {
 		if (!srcSession.nodeExists(srcPath)) {
 			log.error(srcPath+ " does not exist");
 			return;
 		}
-		ByteArrayOutputStream out=new ByteArrayOutputStream();
-		ByteArrayInputStream in=null;
-		String nodeName=srcPath.replaceAll(".*/(\\w+)$", "$1");
+		MigrationMetrics metrics=MigrationMetrics.getInstance();
 		try {
-			srcSession.exportSystemView(srcPath+relPath, out, true, noRecurse);
-			in=new ByteArrayInputStream(out.toByteArray());
+			TransferStats stats=transfer(srcSession, destSession, srcPath, destPath, relPath, noRecurse, addNodeType, transfer);
+			long start=System.nanoTime();
 			try {
-				if (!relPath.isEmpty()) {
-					relPath="/"+nodeName+relPath.substring(0, relPath.lastIndexOf("/"));
-					createNodes(srcSession, destSession, srcPath, destPath, relPath, addNodeType);
-				}
-				destSession.importXML(destPath+relPath, in, ImportUUIDBehavior.IMPORT_UUID_COLLISION_REMOVE_EXISTING);
 				destSession.save();
-				log.info(srcSession.getWorkspace().getName()+" workspace: node copied from "+srcPath+" to "+destPath+relPath+ " with relative path " + relPath);
-			 } catch (ItemNotFoundException e) {
-		         //do nothing as some references may not exist yet
-			 } catch (ConstraintViolationException e) {
-		         //do nothing as some references may not exist yet
-			 }
-		} finally {
-			if (in!=null) {
-				IOUtils.closeQuietly(in);
+			} finally {
+				metrics.saved(System.nanoTime()-start);
 			}
-			IOUtils.closeQuietly(out);
+			metrics.copied(stats.getNodes(), stats.getBytes());
+			String parentRelPath=getParentRelPath(srcPath, relPath);
+			log.info(srcSession.getWorkspace().getName()+" workspace: node copied from "+srcPath+" to "+destPath+parentRelPath+ " with relative path " + parentRelPath+" ("+stats+")");
+		} catch (ItemNotFoundException e) {
+			//do nothing as some references may not exist yet
+			metrics.error();
+		} catch (ConstraintViolationException e) {
+			//do nothing as some references may not exist yet
+			metrics.error();
 		}
 	}
 	
+	/**
+	 * Create the missing ancestors of the node with srcPath+relPath in the destination workspace and transfer the node, without saving
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcPath
+	 * @param destPath
+	 * @param relPath
+	 * @param noRecurse
+	 * @param addNodeType
+	 * @param transfer
+	 * @return number of nodes created and transferred, and bytes transferred
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	static TransferStats transfer(Session srcSession, Session destSession, String srcPath, String destPath, String relPath, boolean noRecurse, boolean addNodeType, NodeTransfer transfer) throws RepositoryException, IOException {
+		String exportPath=srcPath+relPath;
+		String parentRelPath=getParentRelPath(srcPath, relPath);
+		TransferStats stats=new TransferStats();
+		long start=System.nanoTime();
+		try {
+			if (!relPath.isEmpty())
+				stats.add(new TransferStats(createNodes(srcSession, destSession, srcPath, destPath, parentRelPath, addNodeType), 0));
+			stats.add(transfer.transfer(srcSession, destSession, exportPath, destPath+parentRelPath, noRecurse));
+		} finally {
+			MigrationMetrics.getInstance().transferred(System.nanoTime()-start);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Create the missing ancestors of the siblings of partition in the destination workspace and transfer the siblings, without saving
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcPath
+	 * @param destPath
+	 * @param partition - siblings under srcPath
+	 * @param addNodeType
+	 * @param transfer
+	 * @return number of nodes created and transferred, and bytes transferred
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	static TransferStats transfer(Session srcSession, Session destSession, String srcPath, String destPath, SiblingPartition partition, boolean addNodeType, NodeTransfer transfer) throws RepositoryException, IOException {
+		String parentRelPath=getParentRelPath(srcPath, partition.getKey().substring(srcPath.length()));
+		TransferStats stats=new TransferStats();
+		long start=System.nanoTime();
+		try {
+			stats.add(new TransferStats(createNodes(srcSession, destSession, srcPath, destPath, parentRelPath, addNodeType), 0));
+			stats.add(transfer(srcSession, destSession, partition.getPaths(), destPath+parentRelPath, transfer));
+		} finally {
+			MigrationMetrics.getInstance().transferred(System.nanoTime()-start);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Transfer the siblings with srcAbsPaths and their descendants at once if transfer supports it, one by one otherwise
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcAbsPaths
+	 * @param destAbsPath - path of the parent node to import into
+	 * @param transfer
+	 * @return number of nodes and bytes transferred
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	static TransferStats transfer(Session srcSession, Session destSession, List<String> srcAbsPaths, String destAbsPath, NodeTransfer transfer) throws RepositoryException, IOException {
+		if (transfer instanceof BatchNodeTransfer)
+			return ((BatchNodeTransfer)transfer).transfer(srcSession, destSession, srcAbsPaths, destAbsPath);
+		TransferStats stats=new TransferStats();
+		for (String srcAbsPath:srcAbsPaths) {
+			stats.add(transfer.transfer(srcSession, destSession, srcAbsPath, destAbsPath, false));
+		}
+		return stats;
+	}
+	
+	/**
+	 * @param srcPath
+	 * @param relPath - path of a descendant of srcPath relative to srcPath
+	 * @return path relative to the destination path of the parent the node at srcPath+relPath is imported under
+	 */
+	private static String getParentRelPath(String srcPath, String relPath) {
+		if (relPath.isEmpty())
+			return relPath;
+		String nodeName=srcPath.replaceAll(".*/(\\w+)$", "$1");
+		return "/"+nodeName+relPath.substring(0, relPath.lastIndexOf("/"));
+	}
+	
 	/**
 	 * Copy node with srcPath from one repository to another using the export and import functions by first partitioning node to subnodes of size less than 
 	 * limit before exporting
@@ -111,19 +229,178 @@ public class NodeCopier {
 	 * @throws IOException
 	 */
 	public static void copy(Session srcSession, Session destSession, String srcPath, String destPath, long limit, boolean addNodeType) throws RepositoryException, IOException {
+		copy(srcSession, destSession, srcPath, destPath, limit, addNodeType, DEFAULT_TRANSFER);
+	}
+	
+	/**
+	 * Copy node with srcPath from one repository to another using the given transfer by first partitioning node to subnodes of size less than 
+	 * limit before exporting
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcPath 
+	 * @param destPath 
+	 * @param limit - size of a node in the partition
+	 * @param addNodeType
+	 * @param transfer
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static void copy(Session srcSession, Session destSession, String srcPath, String destPath, long limit, boolean addNodeType, NodeTransfer transfer) throws RepositoryException, IOException {
+		copy(srcSession, destSession, srcPath, destPath, limit, addNodeType, transfer, null);
+	}
+	
+	/**
+	 * Copy node with srcPath from one repository to another using the given transfer by first partitioning node to subnodes of size less than 
+	 * limit before exporting. Partitions are recorded in journal and those it records as completed are skipped.
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcPath 
+	 * @param destPath 
+	 * @param limit - size of a node in the partition
+	 * @param addNodeType
+	 * @param transfer
+	 * @param journal - journal of completed partitions; null for none
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static void copy(Session srcSession, Session destSession, String srcPath, String destPath, long limit, boolean addNodeType, NodeTransfer transfer, CheckpointJournal journal) throws RepositoryException, IOException {
+		copy(srcSession, new SaveBatch(destSession), srcPath, destPath, limit, addNodeType, transfer, journal);
+	}
+	
+	/**
+	 * Copy node with srcPath and its descendants from one repository to another at once using the given transfer, saved through batch
+	 * @param srcSession
+	 * @param batch - batch of the destination session
+	 * @param srcPath
+	 * @param destPath
+	 * @param addNodeType
+	 * @param transfer
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static void copy(Session srcSession, SaveBatch batch, String srcPath, String destPath, boolean addNodeType, NodeTransfer transfer) throws RepositoryException, IOException {
 		if (!srcSession.nodeExists(srcPath)) {
 			log.error(srcPath+ " does not exist");
 			return;
 		}
-		createNodes(srcSession, destSession, destPath, addNodeType);
+		createNodes(srcSession, batch.getSession(), destPath, addNodeType);
+		copyPartition(srcSession, batch, srcPath, destPath, new AbstractMap.SimpleEntry<String, Boolean>(srcPath, false), addNodeType, transfer, null);
+		batch.flush();
+	}
+	
+	/**
+	 * Copy node with srcPath from one repository to another using the given transfer by first partitioning node to subnodes of size less than 
+	 * limit before exporting. Partitions are saved in batches and recorded in journal once saved; those it records as completed are skipped.
+	 * @param srcSession
+	 * @param batch - batch of the destination session
+	 * @param srcPath 
+	 * @param destPath 
+	 * @param limit - size of a node in the partition
+	 * @param addNodeType
+	 * @param transfer
+	 * @param journal - journal of completed partitions; null for none
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static void copy(Session srcSession, SaveBatch batch, String srcPath, String destPath, long limit, boolean addNodeType, NodeTransfer transfer, CheckpointJournal journal) throws RepositoryException, IOException {
+		copy(srcSession, batch, srcPath, destPath, new NodeSizePartitioner(limit), addNodeType, transfer, journal);
+	}
+	
+	/**
+	 * Copy node with srcPath from one repository to another using the given transfer by partitioning node with partitioner. Partitions 
+	 * are saved in batches and recorded in journal once saved; those it records as completed are skipped. The partitions of a streaming 
+	 * partitioner are copied as they are computed.
+	 * @param srcSession
+	 * @param batch - batch of the destination session
+	 * @param srcPath 
+	 * @param destPath 
+	 * @param partitioner
+	 * @param addNodeType
+	 * @param transfer
+	 * @param journal - journal of completed partitions; null for none
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static void copy(Session srcSession, SaveBatch batch, String srcPath, String destPath, NodePartitioner partitioner, boolean addNodeType, NodeTransfer transfer, CheckpointJournal journal) throws RepositoryException, IOException {
+		if (!srcSession.nodeExists(srcPath)) {
+			log.error(srcPath+ " does not exist");
+			return;
+		}
+		createNodes(srcSession, batch.getSession(), destPath, addNodeType);
 		Node node=srcSession.getNode(srcPath);
-		int srcPathLength=srcPath.length();
-		NodePartitioner partitioner=new NodeSizePartitioner(limit);
-		Set<Map.Entry<String, Boolean>> descendants=partitioner.partition(node);
-		for (Map.Entry<String, Boolean> entry: descendants) {
-			String relPath=entry.getKey().substring(srcPathLength);
-			copy(srcSession, destSession, srcPath, destPath, relPath, entry.getValue(), addNodeType);
-		}		
+		if (partitioner instanceof StreamingNodePartitioner) {
+			PartitionIterator partitions=((StreamingNodePartitioner)partitioner).iterator(node);
+			while (partitions.hasNext()) {
+				copyPartition(srcSession, batch, srcPath, destPath, partitions.next(), addNodeType, transfer, journal);
+			}
+		} else {
+			Set<Map.Entry<String, Boolean>> descendants=partitioner.partition(node);
+			for (Map.Entry<String, Boolean> entry: descendants) {
+				copyPartition(srcSession, batch, srcPath, destPath, entry, addNodeType, transfer, journal);
+			}
+		}
+		batch.flush();
+	}
+	
+	/**
+	 * Add the copy of a partition of node with srcPath to batch, skipping it if journal records it as completed. A partition journal records 
+	 * as started but not completed may have been saved before a crash, so it is removed from the destination before being copied again,
+	 * except for a node copied without its descendants, which is updated in place so that the partitions of its children completed since
+	 * are kept. The partition is recorded as completed once batch has saved it. The siblings of a {@link SiblingPartition} are journaled one by one,
+	 * so that those completed are skipped even if the siblings are packed differently on resume.
+	 * @param srcSession
+	 * @param batch - batch of the destination session
+	 * @param srcPath
+	 * @param destPath
+	 * @param partition - path of the partition and whether to copy it without its descendants
+	 * @param addNodeType
+	 * @param transfer
+	 * @param journal - journal of completed partitions; null for none
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	static void copyPartition(Session srcSession, SaveBatch batch, String srcPath, String destPath, Map.Entry<String, Boolean> partition, boolean addNodeType, NodeTransfer transfer, CheckpointJournal journal) throws RepositoryException, IOException {
+		String workspace=srcSession.getWorkspace().getName();
+		boolean interrupted=false;
+		if (journal!=null) {
+			List<String> paths=new ArrayList<String>();
+			for (String path:getPaths(partition)) {
+				if (journal.isCompleted(workspace, path)) {
+					log.debug(workspace+" workspace: skipping completed partition "+path);
+				} else {
+					paths.add(path);
+					interrupted|=journal.isInFlight(workspace, path);
+				}
+			}
+			if (paths.isEmpty())
+				return;
+			if (paths.size()<getPaths(partition).size())
+				partition=paths.size()==1?new AbstractMap.SimpleEntry<String, Boolean>(paths.get(0), false):new SiblingPartition(paths);
+			journal.started(workspace, paths);
+			batch.started(journal);
+		}
+		batch.add(new PartitionCopy(srcSession, batch, srcPath, destPath, partition, addNodeType, transfer, journal, interrupted));
+	}
+	
+	/**
+	 * @param partition
+	 * @return source paths of the nodes of partition copied with their descendants, or of the node copied without them
+	 */
+	private static List<String> getPaths(Map.Entry<String, Boolean> partition) {
+		if (partition instanceof SiblingPartition)
+			return ((SiblingPartition)partition).getPaths();
+		return Collections.singletonList(partition.getKey());
+	}
+	
+	/**
+	 * @param srcPath
+	 * @param destPath
+	 * @param relPath - path of a descendant of srcPath relative to srcPath
+	 * @return path in the destination workspace the node at srcPath+relPath is copied to
+	 */
+	static String getDestPath(String srcPath, String destPath, String relPath) {
+		String nodeName=srcPath.replaceAll(".*/(\\w+)$", "$1");
+		return (destPath.endsWith("/")?destPath:destPath+"/")+nodeName+relPath;
 	}
 	
 	/**
@@ -134,7 +411,7 @@ public class NodeCopier {
 	 * @param addNodeType whether to create 
 	 * @throws RepositoryException
 	 */
-	private static void createNodes(Session srcSession, Session destSession, String path, boolean addNodeType) throws RepositoryException {
+	static void createNodes(Session srcSession, Session destSession, String path, boolean addNodeType) throws RepositoryException {
 		if (destSession.nodeExists(path)) 
 			return;
 		Node parent=destSession.getRootNode();
@@ -166,14 +443,16 @@ public class NodeCopier {
 	 * @param destPath
 	 * @param relPath 
 	 * @param addNodeType
+	 * @return number of nodes created, which are not saved
 	 * @throws RepositoryException
 	 */
-	private static void createNodes(Session srcSession, Session destSession, String srcPath, String destPath, String relPath, boolean addNodeType) throws RepositoryException {
+	private static int createNodes(Session srcSession, Session destSession, String srcPath, String destPath, String relPath, boolean addNodeType) throws RepositoryException {
 		//srcPath without last node name
 		String cumuPath=srcPath.replaceAll("(.*)/\\w+$", "$1"); 
 		//log.info("dest path: "+destPath+relPath);
 		if (destSession.nodeExists(destPath+relPath)) 
-			return;
+			return 0;
+		int created=0;
 		String[] nodeNames=relPath.split("/");
 		Node parent=destSession.getNode(destPath);
 		for (int i=0;i<nodeNames.length;i++) {
@@ -187,10 +466,120 @@ public class NodeCopier {
 					parent.addNode(nodeName, srcSession.getNode(cumuPath).getPrimaryNodeType().getName());
 				else
 					parent.addNode(nodeName);
+				created++;
 			}
 			parent=parent.getNode(nodeName);
 		}		
-		destSession.save();		
+		return created;
+	}
+	
+	/**
+	 * 
+	 * Copy of a partition which removes the partition left by an interrupted copy first, and records it in the journal once saved
+	 *
+	 */
+	private static class PartitionCopy implements SaveBatch.Operation {
+		
+		private Session srcSession;
+		private SaveBatch batch;
+		private String srcPath;
+		private String destPath;
+		private Map.Entry<String, Boolean> partition;
+		private boolean addNodeType;
+		private NodeTransfer transfer;
+		private CheckpointJournal journal;
+		private boolean interrupted;
+		private TransferStats stats=new TransferStats();
+		private boolean skipped;
+		
+		PartitionCopy(Session srcSession, SaveBatch batch, String srcPath, String destPath, Map.Entry<String, Boolean> partition, boolean addNodeType, 
+				NodeTransfer transfer, CheckpointJournal journal, boolean interrupted) {
+			this.srcSession=srcSession;
+			this.batch=batch;
+			this.srcPath=srcPath;
+			this.destPath=destPath;
+			this.partition=partition;
+			this.addNodeType=addNodeType;
+			this.transfer=transfer;
+			this.journal=journal;
+			this.interrupted=interrupted;
+		}
+
+		public TransferStats apply(Session destSession) throws RepositoryException, IOException {
+			String relPath=partition.getKey().substring(srcPath.length());
+			stats=new TransferStats();
+			skipped=false;
+			String nodePath=getDestPath(srcPath, destPath, relPath);
+			if (interrupted && partition.getValue() && destSession.nodeExists(nodePath)) {
+				//its children may have been copied and journaled since, so only the node itself is copied again
+				try {
+					stats=update(srcSession.getNode(partition.getKey()), destSession.getNode(nodePath));
+				} catch (ItemNotFoundException e) {
+					MigrationMetrics.getInstance().error();
+					skipped=true;
+				} catch (ConstraintViolationException e) {
+					MigrationMetrics.getInstance().error();
+					skipped=true;
+				}
+				return stats;
+			}
+			if (interrupted) {
+				for (String path:getPaths(partition)) {
+					String copiedPath=getDestPath(srcPath, destPath, path.substring(srcPath.length()));
+					if (destSession.nodeExists(copiedPath)) {
+						log.info(srcSession.getWorkspace().getName()+" workspace: removing "+copiedPath+" left by an interrupted copy");
+						destSession.getNode(copiedPath).remove();
+					}
+				}
+			}
+			try {
+				if (partition instanceof SiblingPartition)
+					stats=transfer(srcSession, destSession, srcPath, destPath, (SiblingPartition)partition, addNodeType, transfer);
+				else
+					stats=transfer(srcSession, destSession, srcPath, destPath, relPath, partition.getValue(), addNodeType, transfer);
+			} catch (ItemNotFoundException e) {
+				//do nothing as some references may not exist yet
+				MigrationMetrics.getInstance().error();
+				skipped=true;
+			} catch (ConstraintViolationException e) {
+				//do nothing as some references may not exist yet
+				MigrationMetrics.getInstance().error();
+				skipped=true;
+			}
+			return stats;
+		}
+
+		/**
+		 * Update destNode, left by an interrupted copy of the node without its descendants or created as the parent of another partition,
+		 * in place to srcNode, keeping its child nodes
+		 * @param srcNode
+		 * @param destNode
+		 * @return stats of the node updated
+		 * @throws RepositoryException
+		 * @throws IOException
+		 */
+		private TransferStats update(Node srcNode, Node destNode) throws RepositoryException, IOException {
+			log.info(srcSession.getWorkspace().getName()+" workspace: updating "+destNode.getPath()+" left by an interrupted copy");
+			String type=srcNode.getPrimaryNodeType().getName();
+			if (!destNode.getPrimaryNodeType().getName().equals(type))
+				destNode.setPrimaryType(type);
+			return DirectNodeTransfer.getUpdater(transfer).update(srcNode, destNode);
+		}
+
+		public void saved() throws IOException {
+			if (skipped) {
+				//left in flight in the journal, so that it is copied again on resume
+				log.warn(srcSession.getWorkspace().getName()+" workspace: partition "+partition.getKey()+" skipped since it could not be transferred");
+				return;
+			}
+			batch.copied(stats);
+			String workspace=srcSession.getWorkspace().getName();
+			String copied=partition instanceof SiblingPartition?((SiblingPartition)partition).getPaths().size()+" siblings":"node";
+			log.info(workspace+" workspace: "+copied+" copied from "+partition.getKey()+" to "+getDestPath(srcPath, destPath, partition.getKey().substring(srcPath.length())));
+			if (journal!=null)
+				batch.completed(journal, workspace, getPaths(partition));
+		}
+		
 	}
 
 }
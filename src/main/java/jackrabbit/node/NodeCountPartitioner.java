@@ -0,0 +1,36 @@
+package jackrabbit.node;
+
+import jackrabbit.util.NodeSizeCache;
+
+/**
+ * 
+ * Partitions a node into subtrees of less nodes than a limit, whatever the size of their properties. Import time and memory are dominated by
+ * the number of nodes, so that partitions of many small nodes are as expensive to copy as partitions of a few large ones.
+ *
+ */
+public class NodeCountPartitioner extends CostPartitioner {
+	
+	/**
+	 * @param limit - number of nodes
+	 */
+	public NodeCountPartitioner(long limit) {
+		super(limit);
+	}
+	
+	/**
+	 * @param limit - number of nodes
+	 * @param sizes - cache of sizes already computed for the nodes to partition, e.g. by a previous scan
+	 */
+	public NodeCountPartitioner(long limit, NodeSizeCache sizes) {
+		super(limit, sizes);
+	}
+
+	protected long getCost(long nodes, long properties, long bytes, long binaries) {
+		return nodes;
+	}
+
+	public CostPartitioner withSizes(NodeSizeCache sizes) {
+		return new NodeCountPartitioner(getLimit(), sizes);
+	}
+
+}
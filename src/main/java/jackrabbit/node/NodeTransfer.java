@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * 
+ * Transfers a node from a source workspace into a destination workspace. Implementations do not save the destination session.
+ *
+ */
+public interface NodeTransfer {
+	
+	/**
+	 * Transfer node with srcAbsPath to under the node with destAbsPath
+	 * @param srcSession
+	 * @param destSession
+	 * @param srcAbsPath - path of the node to export
+	 * @param destAbsPath - path of the parent node to import into
+	 * @param noRecurse - Boolean to indicate whether to transfer the node without its descendants
+	 * @return number of nodes and bytes transferred
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException;
+
+}
@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.session.SessionFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ *
+ * Copies the partitions of a node with a pool of workers, each using its own source and destination sessions. A partition is only
+ * copied after the partition of its nearest ancestor copied without descendants, so parents are always imported before their children.
+ * If that partition fails or is skipped, the partitions depending on it are not copied and the copy fails once the others are done.
+ * Each worker saves its partitions in batches; a partition copied without descendants is saved at once since other workers depend on it.
+ * Partitions of a streaming partitioner are copied as they are computed, with a bounded number of partitions submitted or waiting for
+ * their ancestor at a time.
+ *
+ */
+public class ParallelNodeCopier {
+
+	protected static Log log=LogFactory.getLog(ParallelNodeCopier.class);
+	
+	//partitions submitted or waiting for their ancestor per worker
+	private static final int PARTITIONS_PER_WORKER=4;
+
+	private SessionFactory srcSf;
+	private SessionFactory destSf;
+	private int threads;
+	private NodeTransfer transfer;
+	private CheckpointJournal journal;
+	private long batchNodes;
+	private long batchBytes;
+	private ExecutorService executor;
+	private TransferStats copied;
+
+	public ParallelNodeCopier(SessionFactory srcSf, SessionFactory destSf, int threads, NodeTransfer transfer) {
+		this.srcSf=srcSf;
+		this.destSf=destSf;
+		this.threads=threads;
+		this.transfer=transfer;
+	}
+
+	/**
+	 * Copy node with srcPath in workspace by first partitioning it to subnodes of size less than limit and then copying the partitions in parallel
+	 * @param workspace - name of the workspace in both repositories; null for the default workspace
+	 * @param srcPath
+	 * @param destPath
+	 * @param limit - size of a node in the partition
+	 * @param addNodeType
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public void copy(String workspace, String srcPath, String destPath, long limit, boolean addNodeType) throws RepositoryException, IOException {
+		copy(workspace, srcPath, destPath, new NodeSizePartitioner(limit), addNodeType);
+	}
+
+	/**
+	 * Copy node with srcPath in workspace by partitioning it with partitioner and copying the partitions in parallel
+	 * @param workspace - name of the workspace in both repositories; null for the default workspace
+	 * @param srcPath
+	 * @param destPath
+	 * @param partitioner
+	 * @param addNodeType
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public void copy(String workspace, String srcPath, String destPath, NodePartitioner partitioner, boolean addNodeType) throws RepositoryException, IOException {
+		BlockingQueue<Worker> workers=new ArrayBlockingQueue<Worker>(threads);
+		ExecutorService executor=this.executor!=null?this.executor:Executors.newFixedThreadPool(threads);
+		Map<Future<Map.Entry<String, Boolean>>, Map.Entry<String, Boolean>> submitted=new HashMap<Future<Map.Entry<String, Boolean>>, Map.Entry<String, Boolean>>();
+		CompletionService<Map.Entry<String, Boolean>> completion=new ExecutorCompletionService<Map.Entry<String, Boolean>>(executor);
+		//set when the copy ends with partitions still submitted, which then return without copying
+		AtomicBoolean stopped=new AtomicBoolean();
+		Session planningSession=null;
+		try {
+			for (int i=0;i<threads;i++) {
+				Session srcSession=getSession(srcSf, workspace);
+				Session destSession=null;
+				try {
+					destSession=getSession(destSf, workspace);
+				} finally {
+					if (destSession==null)
+						srcSession.logout();
+				}
+				SaveBatch batch=new SaveBatch(destSession, batchNodes, batchBytes);
+				batch.setCopied(copied);
+				workers.add(new Worker(srcSession, batch));
+			}
+			Worker planning=workers.peek();
+			if (!planning.srcSession.nodeExists(srcPath)) {
+				log.error(srcPath+ " does not exist");
+				return;
+			}
+			NodeCopier.createNodes(planning.srcSession, planning.batch.getSession(), destPath, addNodeType);
+			String workspaceName=planning.srcSession.getWorkspace().getName();
+			PartitionIterator partitions;
+			if (partitioner instanceof StreamingNodePartitioner) {
+				//the partitions are computed while the workers use their sessions
+				planningSession=getSession(srcSf, workspace);
+				partitions=((StreamingNodePartitioner)partitioner).iterator(planningSession.getNode(srcPath));
+				log.info(workspaceName+" workspace: copying partitions of "+srcPath+" with "+threads+" workers");
+			} else {
+				Set<Map.Entry<String, Boolean>> set=partitioner.partition(planning.srcSession.getNode(srcPath));
+				partitions=new SetPartitionIterator(set);
+				log.info(workspaceName+" workspace: copying "+set.size()+" partitions of "+srcPath+" with "+threads+" workers");
+			}
+
+			//paths of the partitions copied without descendants seen so far, and those which were copied or failed
+			Set<String> parents=new HashSet<String>();
+			Set<String> copied=new HashSet<String>();
+			Set<String> failed=new HashSet<String>();
+			Map<String, List<Map.Entry<String, Boolean>>> waiting=new HashMap<String, List<Map.Entry<String, Boolean>>>();
+			int waitingCount=0;
+			long count=0;
+			Exception failure=null;
+			while (true) {
+				while (submitted.size()+waitingCount < threads*PARTITIONS_PER_WORKER && partitions.hasNext()) {
+					Map.Entry<String, Boolean> entry=partitions.next();
+					count++;
+					String parent=getParent(entry.getKey(), parents);
+					if (entry.getValue())
+						parents.add(entry.getKey());
+					if (parent==null || copied.contains(parent)) {
+						submit(completion, submitted, entry, workers, stopped, srcPath, destPath, addNodeType);
+					} else if (failed.contains(parent)) {
+						//descendants of a failed partition are not copied since they would be imported under a missing parent
+						log.warn("Skipping partition "+entry.getKey()+" of failed partition "+parent);
+						if (entry.getValue())
+							failed.add(entry.getKey());
+					} else {
+						List<Map.Entry<String, Boolean>> list=waiting.get(parent);
+						if (list==null) {
+							list=new ArrayList<Map.Entry<String, Boolean>>();
+							waiting.put(parent, list);
+						}
+						list.add(entry);
+						waitingCount++;
+					}
+				}
+				if (submitted.isEmpty())
+					break;
+				Future<Map.Entry<String, Boolean>> future=completion.take();
+				Map.Entry<String, Boolean> entry=submitted.remove(future);
+				List<Map.Entry<String, Boolean>> dependents=entry.getValue()?waiting.remove(entry.getKey()):null;
+				waitingCount-=dependents==null?0:dependents.size();
+				try {
+					future.get();
+					if (entry.getValue()) {
+						copied.add(entry.getKey());
+						if (dependents!=null) {
+							for (Map.Entry<String, Boolean> dependent:dependents) {
+								submit(completion, submitted, dependent, workers, stopped, srcPath, destPath, addNodeType);
+							}
+						}
+					}
+				} catch (ExecutionException e) {
+					log.error(e.getCause().getMessage(), e.getCause());
+					if (failure==null && e.getCause() instanceof Exception)
+						failure=(Exception)e.getCause();
+					if (entry.getValue())
+						fail(entry.getKey(), dependents, waiting, failed);
+				}
+			}
+			log.info(workspaceName+" workspace: "+count+" partitions of "+srcPath+" processed");
+			for (Worker worker:workers) {
+				worker.flush();
+				if (failure==null)
+					failure=worker.failure;
+			}
+			if (failure instanceof RepositoryException)
+				throw (RepositoryException)failure;
+			if (failure instanceof IOException)
+				throw (IOException)failure;
+			if (failure!=null)
+				throw new RepositoryException(failure);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while copying "+srcPath);
+		} finally {
+			//the sessions of the workers are only logged out once no partition uses them; a cancelled future would not wait for its
+			//running partition, and an interrupt could close the repositories of other copies sharing the executor
+			stopped.set(true);
+			await(completion, submitted);
+			if (this.executor==null)
+				executor.shutdown();
+			if (planningSession!=null)
+				planningSession.logout();
+			for (Worker worker:workers) {
+				worker.srcSession.logout();
+				worker.batch.getSession().logout();
+			}
+		}
+	}
+
+	private void submit(CompletionService<Map.Entry<String, Boolean>> completion, Map<Future<Map.Entry<String, Boolean>>, Map.Entry<String, Boolean>> submitted,
+			Map.Entry<String, Boolean> entry, BlockingQueue<Worker> workers, AtomicBoolean stopped, String srcPath, String destPath, boolean addNodeType) {
+		submitted.put(completion.submit(new PartitionCopy(entry, workers, stopped, srcPath, destPath, addNodeType)), entry);
+	}
+
+	/**
+	 * Wait for the submitted partitions to complete, even if interrupted, keeping the interrupt for the caller
+	 * @param completion
+	 * @param submitted - submitted partitions which did not complete yet
+	 */
+	private static void await(CompletionService<Map.Entry<String, Boolean>> completion, Map<Future<Map.Entry<String, Boolean>>, Map.Entry<String, Boolean>> submitted) {
+		boolean interrupted=false;
+		while (!submitted.isEmpty()) {
+			try {
+				Future<Map.Entry<String, Boolean>> future=completion.take();
+				Map.Entry<String, Boolean> entry=submitted.remove(future);
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					log.error("Partition "+entry.getKey()+" failed: "+e.getCause().getMessage(), e.getCause());
+				}
+			} catch (InterruptedException e) {
+				interrupted=true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Mark a partition copied without descendants as failed along with the partitions waiting for it, since they would be imported under 
+	 * a missing parent
+	 * @param path
+	 * @param dependents - partitions waiting for the partition with path
+	 * @param waiting - partitions waiting by the path of their ancestor
+	 * @param failed
+	 */
+	private static void fail(String path, List<Map.Entry<String, Boolean>> dependents, Map<String, List<Map.Entry<String, Boolean>>> waiting, Set<String> failed) {
+		failed.add(path);
+		if (dependents==null)
+			return;
+		for (Map.Entry<String, Boolean> dependent:dependents) {
+			log.warn("Skipping partition "+dependent.getKey()+" of failed partition "+path);
+			if (dependent.getValue())
+				fail(dependent.getKey(), waiting.remove(dependent.getKey()), waiting, failed);
+		}
+	}
+	
+	/**
+	 * @param path
+	 * @param parents - paths of partitions copied without descendants
+	 * @return path of the nearest ancestor of path in parents; null if there is none
+	 */
+	private static String getParent(String path, Set<String> parents) {
+		String parent=path;
+		do {
+			int index=parent.lastIndexOf("/");
+			parent=index>0?parent.substring(0, index):null;
+		} while (parent!=null && !parents.contains(parent));
+		return parent;
+	}
+
+	public long getBatchNodes() {
+		return batchNodes;
+	}
+
+	/**
+	 * @param batchNodes - number of nodes from which a worker saves its pending partitions; 0 for no limit
+	 */
+	public void setBatchNodes(long batchNodes) {
+		this.batchNodes = batchNodes;
+	}
+
+	public long getBatchBytes() {
+		return batchBytes;
+	}
+
+	/**
+	 * @param batchBytes - number of bytes transferred from which a worker saves its pending partitions; 0 for no limit
+	 */
+	public void setBatchBytes(long batchBytes) {
+		this.batchBytes = batchBytes;
+	}
+
+	public CheckpointJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * @param journal - journal recording completed partitions, whose completed partitions are skipped; null for none
+	 */
+	public void setJournal(CheckpointJournal journal) {
+		this.journal = journal;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @param executor - executor running the partitions, shared with other copies and not shut down by this one; null for an executor 
+	 * of threads threads per copy. Its threads are not bound by threads, which only bounds the sessions of the copy
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public TransferStats getCopied() {
+		return copied;
+	}
+
+	/**
+	 * @param copied - total the nodes and bytes of the partitions saved are added to, see {@link SaveBatch#setCopied(TransferStats)}; 
+	 * null for none
+	 */
+	public void setCopied(TransferStats copied) {
+		this.copied = copied;
+	}
+
+	private static Session getSession(SessionFactory sf, String workspace) throws RepositoryException {
+		if (workspace==null)
+			return sf.getSession();
+		return sf.getSession(workspace);
+	}
+
+	/**
+	 * 
+	 * Partitions computed beforehand
+	 *
+	 */
+	private static class SetPartitionIterator implements PartitionIterator {
+		
+		private Iterator<Map.Entry<String, Boolean>> iterator;
+		
+		SetPartitionIterator(Set<Map.Entry<String, Boolean>> partitions) {
+			iterator=partitions.iterator();
+		}
+
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		public Map.Entry<String, Boolean> next() {
+			return iterator.next();
+		}
+		
+	}
+
+	private static class Worker {
+
+		private Session srcSession;
+		private SaveBatch batch;
+		private RepositoryException failure;
+
+		Worker(Session srcSession, SaveBatch batch) {
+			this.srcSession=srcSession;
+			this.batch=batch;
+		}
+
+		/**
+		 * Save the pending partitions, keeping the first failure to report it at the end of the copy
+		 * @throws IOException
+		 */
+		void flush() throws IOException {
+			try {
+				batch.flush();
+			} catch (RepositoryException e) {
+				log.error(e.getMessage(), e);
+				if (failure==null)
+					failure=e;
+			}
+		}
+
+	}
+
+	private class PartitionCopy implements Callable<Map.Entry<String, Boolean>> {
+
+		private Map.Entry<String, Boolean> entry;
+		private BlockingQueue<Worker> workers;
+		private AtomicBoolean stopped;
+		private String srcPath;
+		private String destPath;
+		private boolean addNodeType;
+
+		PartitionCopy(Map.Entry<String, Boolean> entry, BlockingQueue<Worker> workers, AtomicBoolean stopped, String srcPath, String destPath, boolean addNodeType) {
+			this.entry=entry;
+			this.workers=workers;
+			this.stopped=stopped;
+			this.srcPath=srcPath;
+			this.destPath=destPath;
+			this.addNodeType=addNodeType;
+		}
+
+		public Map.Entry<String, Boolean> call() throws Exception {
+			Worker worker=workers.take();
+			try {
+				//the copy failed meanwhile, so the partition is left to a later run
+				if (stopped.get())
+					return entry;
+				//a failure of the pending partitions is not the failure of a partition other partitions depend on
+				if (entry.getValue())
+					worker.flush();
+				NodeCopier.copyPartition(worker.srcSession, worker.batch, srcPath, destPath, entry, addNodeType, transfer, journal);
+				//the descendants of the partition are copied by other workers, which only see it once saved
+				if (entry.getValue()) {
+					worker.batch.flush();
+					//a partition skipped by the copy would leave its descendants under a missing parent, so it fails them
+					String copiedPath=NodeCopier.getDestPath(srcPath, destPath, entry.getKey().substring(srcPath.length()));
+					if (!worker.batch.getSession().nodeExists(copiedPath))
+						throw new RepositoryException("Partition "+entry.getKey()+" was not copied to "+copiedPath);
+				}
+				return entry;
+			} finally {
+				workers.put(worker);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,23 @@
+package jackrabbit.node;
+
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * 
+ * Iterator over the partitions of a node computed as the node is traversed, reading the repository as it goes
+ *
+ */
+public interface PartitionIterator {
+	
+	public boolean hasNext() throws RepositoryException;
+	
+	/**
+	 * @return path of a node in the partition and whether to copy it without its descendants
+	 * @throws RepositoryException
+	 * @throws java.util.NoSuchElementException if there are no more partitions
+	 */
+	public Map.Entry<String, Boolean> next() throws RepositoryException;
+
+}
@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.metrics.MigrationMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.ConstraintViolationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 
+ * Groups the operations applied to a destination session into one save, until they reach a budget of nodes or bytes. If a save fails,
+ * the changes are discarded and the operations are applied and saved again in two halves, recursively, so that a failing operation
+ * only fails itself, whether it fails to be saved or to be applied again. Instances are bound to their session and are not thread safe.
+ *
+ */
+public class SaveBatch {
+	
+	protected static Log log=LogFactory.getLog(SaveBatch.class);
+	
+	/**
+	 * 
+	 * Change to a session which can be applied again after the session has been refreshed
+	 *
+	 */
+	public interface Operation {
+		
+		/**
+		 * Apply the changes to session without saving it
+		 * @param session
+		 * @return number of nodes and bytes applied
+		 * @throws RepositoryException
+		 * @throws IOException
+		 */
+		public TransferStats apply(Session session) throws RepositoryException, IOException;
+		
+		/**
+		 * Called once the changes have been saved
+		 * @throws IOException
+		 */
+		public void saved() throws IOException;
+		
+	}
+	
+	private Session session;
+	private long maxNodes;
+	private long maxBytes;
+	private List<Operation> pending=new ArrayList<Operation>();
+	private TransferStats pendingStats=new TransferStats();
+	private TransferStats copied;
+	private Set<CheckpointJournal> journals=new HashSet<CheckpointJournal>();
+	private Map<CheckpointJournal, Map<String, List<String>>> completed=new HashMap<CheckpointJournal, Map<String, List<String>>>();
+	
+	/**
+	 * Batch saving every operation on its own
+	 * @param session
+	 */
+	public SaveBatch(Session session) {
+		this(session, 0, 0);
+	}
+	
+	/**
+	 * @param session
+	 * @param maxNodes - number of nodes from which pending operations are saved; 0 for no limit
+	 * @param maxBytes - number of bytes from which pending operations are saved; 0 for no limit. If both limits are 0, every operation is saved on its own
+	 */
+	public SaveBatch(Session session, long maxNodes, long maxBytes) {
+		this.session=session;
+		this.maxNodes=maxNodes;
+		this.maxBytes=maxBytes;
+	}
+	
+	/**
+	 * Apply operation and save the pending operations if they reach the budget. If operation fails, the other pending operations are
+	 * applied again and saved before its exception is thrown.
+	 * @param operation
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public void add(Operation operation) throws RepositoryException, IOException {
+		try {
+			pendingStats.add(operation.apply(session));
+		} catch (RepositoryException e) {
+			MigrationMetrics.getInstance().error();
+			discard();
+			throw e;
+		} catch (IOException e) {
+			MigrationMetrics.getInstance().error();
+			discard();
+			throw e;
+		} catch (RuntimeException e) {
+			MigrationMetrics.getInstance().error();
+			discard();
+			throw e;
+		}
+		pending.add(operation);
+		if (isFull())
+			flush();
+	}
+	
+	/**
+	 * Save the pending operations
+	 * @throws RepositoryException - first exception of the operations which could not be saved or applied again, once all the others 
+	 * have been saved. Every failure is logged.
+	 * @throws IOException
+	 */
+	public void flush() throws RepositoryException, IOException {
+		if (pending.isEmpty())
+			return;
+		List<Operation> operations=pending;
+		log.debug("Saving "+operations.size()+" operations with "+pendingStats);
+		pending=new ArrayList<Operation>();
+		pendingStats=new TransferStats();
+		List<Exception> failures=new ArrayList<Exception>();
+		save(operations, failures);
+		if (failures.isEmpty())
+			return;
+		Exception failure=failures.get(0);
+		if (failure instanceof RepositoryException)
+			throw (RepositoryException)failure;
+		if (failure instanceof IOException)
+			throw (IOException)failure;
+		throw (RuntimeException)failure;
+	}
+	
+	private boolean isFull() {
+		if (maxNodes<=0 && maxBytes<=0)
+			return true;
+		return maxNodes>0 && pendingStats.getNodes()>=maxNodes || maxBytes>0 && pendingStats.getBytes()>=maxBytes;
+	}
+	
+	/**
+	 * Discard the changes of a failed operation, keeping those of the pending operations
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private void discard() throws RepositoryException, IOException {
+		session.refresh(false);
+		List<Operation> operations=pending;
+		pending=new ArrayList<Operation>();
+		pendingStats=new TransferStats();
+		if (operations.isEmpty())
+			return;
+		List<Exception> failures=new ArrayList<Exception>();
+		save(apply(operations, failures), failures);
+	}
+	
+	/**
+	 * Save the changes of operations, already applied to the session, splitting them on failure. Operations which cannot be saved or 
+	 * applied again are left out, and their exceptions added to failures.
+	 * @param operations
+	 * @param failures
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private void save(List<Operation> operations, List<Exception> failures) throws RepositoryException, IOException {
+		if (operations.isEmpty())
+			return;
+		for (CheckpointJournal journal:journals) {
+			journal.sync();
+		}
+		long start=System.nanoTime();
+		try {
+			session.save();
+		} catch (RepositoryException e) {
+			MigrationMetrics.getInstance().saved(System.nanoTime()-start);
+			session.refresh(false);
+			if (operations.size()==1) {
+				if (e instanceof ItemNotFoundException || e instanceof ConstraintViolationException) {
+					//as for unbatched copies, skipped as some references may not exist yet
+					MigrationMetrics.getInstance().error();
+					log.warn("Skipping operation which could not be saved: "+e.getMessage());
+				} else {
+					failed(e, failures);
+				}
+				return;
+			}
+			log.warn("Saving "+operations.size()+" operations failed, saving them in two halves: "+e.getMessage());
+			int half=operations.size()/2;
+			save(apply(operations.subList(0, half), failures), failures);
+			save(apply(operations.subList(half, operations.size()), failures), failures);
+			return;
+		}
+		MigrationMetrics.getInstance().saved(System.nanoTime()-start);
+		for (Operation operation:operations) {
+			operation.saved();
+		}
+		for (Map.Entry<CheckpointJournal, Map<String, List<String>>> entry:completed.entrySet()) {
+			for (Map.Entry<String, List<String>> workspace:entry.getValue().entrySet()) {
+				entry.getKey().completed(workspace.getKey(), workspace.getValue());
+			}
+		}
+		completed.clear();
+	}
+	
+	/**
+	 * Apply operations to the session again, leaving out those which fail, whose exceptions are added to failures
+	 * @param operations
+	 * @param failures
+	 * @return operations applied
+	 * @throws RepositoryException
+	 */
+	private List<Operation> apply(List<Operation> operations, List<Exception> failures) throws RepositoryException {
+		List<Operation> applied=new ArrayList<Operation>(operations);
+		int i=0;
+		while (i<applied.size()) {
+			try {
+				applied.get(i).apply(session);
+				i++;
+				continue;
+			} catch (RepositoryException e) {
+				failed(e, failures);
+			} catch (IOException e) {
+				failed(e, failures);
+			} catch (RuntimeException e) {
+				failed(e, failures);
+			}
+			//the changes of the operations applied before are discarded with those of the failed one, so they are applied again
+			session.refresh(false);
+			applied.remove(i);
+			i=0;
+		}
+		return applied;
+	}
+	
+	private static void failed(Exception e, List<Exception> failures) {
+		MigrationMetrics.getInstance().error();
+		log.error(e.getMessage(), e);
+		failures.add(e);
+	}
+	
+	/**
+	 * Record the nodes and bytes copied by an operation once saved, in the metrics of the JVM and in the total of the batch if any
+	 * @param stats
+	 */
+	void copied(TransferStats stats) {
+		MigrationMetrics.getInstance().copied(stats.getNodes(), stats.getBytes());
+		if (copied==null)
+			return;
+		synchronized (copied) {
+			copied.add(stats);
+		}
+	}
+	
+	/**
+	 * Sync journal before each save, so that the partitions an operation recorded in it as started are found in flight if the save is
+	 * interrupted by a crash
+	 * @param journal
+	 */
+	void started(CheckpointJournal journal) {
+		journals.add(journal);
+	}
+	
+	/**
+	 * Record partitions saved by an operation as completed in journal, along with those of the operations saved together, once they are 
+	 * all saved
+	 * @param journal
+	 * @param workspace
+	 * @param paths - source paths of the partitions
+	 */
+	void completed(CheckpointJournal journal, String workspace, List<String> paths) {
+		Map<String, List<String>> workspaces=completed.get(journal);
+		if (workspaces==null) {
+			workspaces=new HashMap<String, List<String>>();
+			completed.put(journal, workspaces);
+		}
+		List<String> list=workspaces.get(workspace);
+		if (list==null) {
+			list=new ArrayList<String>();
+			workspaces.put(workspace, list);
+		}
+		list.addAll(paths);
+	}
+	
+	/**
+	 * @return number of operations applied but not saved yet
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	public Session getSession() {
+		return session;
+	}
+
+	public long getMaxNodes() {
+		return maxNodes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public TransferStats getCopied() {
+		return copied;
+	}
+
+	/**
+	 * @param copied - total the nodes and bytes copied by the saved operations are added to, synchronized on it so that it can be shared
+	 * between the batches of a migration; null for none
+	 */
+	public void setCopied(TransferStats copied) {
+		this.copied = copied;
+	}
+
+}
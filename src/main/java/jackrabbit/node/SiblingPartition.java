@@ -0,0 +1,39 @@
+package jackrabbit.node;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 
+ * Partition of adjacent siblings copied together with their descendants. It is keyed by the path of its first sibling, which is also the 
+ * path the journal records it with.
+ *
+ */
+public class SiblingPartition extends AbstractMap.SimpleEntry<String, Boolean> {
+
+	private static final long serialVersionUID = 1L;
+	
+	private List<String> paths;
+
+	/**
+	 * @param paths - paths of the siblings in document order
+	 */
+	public SiblingPartition(List<String> paths) {
+		super(paths.get(0), false);
+		this.paths=Collections.unmodifiableList(new ArrayList<String>(paths));
+	}
+
+	/**
+	 * @return paths of the siblings in document order
+	 */
+	public List<String> getPaths() {
+		return paths;
+	}
+	
+	public String toString() {
+		return paths.size()+" siblings from "+getKey();
+	}
+
+}
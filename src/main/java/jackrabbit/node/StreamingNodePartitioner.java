@@ -0,0 +1,22 @@
+package jackrabbit.node;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * 
+ * Partitioner which can also return the partitions of a node one at a time, so that copying can start before the whole node is partitioned
+ * and the partitions are not held in memory
+ *
+ */
+public interface StreamingNodePartitioner extends NodePartitioner {
+	
+	/**
+	 * @param node
+	 * @return partitions of node in an order they can be copied in, i.e. a partition copied without its descendants comes before the 
+	 * partitions of its descendants
+	 * @throws RepositoryException
+	 */
+	public PartitionIterator iterator(Node node) throws RepositoryException;
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.metrics.MigrationMetrics;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import javax.jcr.ImportUUIDBehavior;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ *
+ * Exports the system view of a node on a producer thread and imports it on the calling thread through a bounded pipe,
+ * so that export and import overlap and memory used does not depend on the size of the node.
+ *
+ */
+public class StreamingNodeTransfer extends XmlNodeTransfer {
+
+	public static final int DEFAULT_BUFFER_SIZE=64*1024;
+
+	private int bufferSize;
+
+	public StreamingNodeTransfer() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public StreamingNodeTransfer(int bufferSize) {
+		this.bufferSize=bufferSize;
+	}
+
+	public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException {
+		PipedInputStream in=new PipedInputStream(bufferSize);
+		Exporter exporter=new Exporter(srcSession, srcAbsPath, noRecurse, new PipedOutputStream(in));
+		Thread producer=new Thread(exporter, "export "+srcAbsPath);
+		producer.setDaemon(true);
+		producer.start();
+		RepositoryException importException=null;
+		long start=System.nanoTime();
+		try {
+			destSession.importXML(destAbsPath, in, ImportUUIDBehavior.IMPORT_UUID_COLLISION_REMOVE_EXISTING);
+		} catch (RepositoryException e) {
+			importException=e;
+		} finally {
+			//includes the time waiting for the export, which runs at the same time
+			MigrationMetrics.getInstance().imported(System.nanoTime()-start);
+			//unblocks the producer if the import stopped reading early
+			IOUtils.closeQuietly(in);
+			try {
+				producer.join();
+			} catch (InterruptedException e) {
+				producer.interrupt();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while exporting "+srcAbsPath);
+			}
+		}
+		//a failed export truncates the stream, so report its cause rather than the resulting parse error
+		Throwable failure=exporter.failure;
+		if (failure instanceof IOException && importException!=null)
+			//the import stopped reading first and closed the pipe
+			throw importException;
+		if (failure instanceof RepositoryException)
+			throw (RepositoryException)failure;
+		if (failure instanceof IOException)
+			throw (IOException)failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException)failure;
+		if (failure instanceof Error)
+			throw (Error)failure;
+		if (importException!=null)
+			throw importException;
+		return exporter.stats;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	private class Exporter implements Runnable {
+
+		private Session session;
+		private String absPath;
+		private boolean noRecurse;
+		private OutputStream out;
+		private volatile Throwable failure;
+		private volatile TransferStats stats;
+
+		Exporter(Session session, String absPath, boolean noRecurse, OutputStream out) {
+			this.session=session;
+			this.absPath=absPath;
+			this.noRecurse=noRecurse;
+			this.out=out;
+		}
+
+		public void run() {
+			OutputStream bout=new BufferedOutputStream(out);
+			try {
+				stats=exportSystemView(session, absPath, bout, noRecurse);
+				bout.flush();
+			} catch (Throwable e) {
+				//rethrown by the importing thread
+				failure=e;
+			} finally {
+				IOUtils.closeQuietly(bout);
+			}
+		}
+
+	}
+
+}
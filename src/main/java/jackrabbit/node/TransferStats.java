@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+/**
+ * 
+ * Number of nodes and bytes transferred into a destination session. Bytes are those of the system view for transfers through XML
+ * and the estimated size of the properties for direct ones; siblings transferred at once through XML count the characters of their values.
+ *
+ */
+public class TransferStats {
+
+	private long nodes;
+	private long bytes;
+
+	public TransferStats() {
+	}
+
+	public TransferStats(long nodes, long bytes) {
+		this.nodes=nodes;
+		this.bytes=bytes;
+	}
+
+	/**
+	 * Add the nodes and bytes of other to this
+	 * @param other
+	 */
+	public void add(TransferStats other) {
+		nodes+=other.nodes;
+		bytes+=other.bytes;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public String toString() {
+		return nodes+" nodes, "+bytes+" bytes";
+	}
+
+}
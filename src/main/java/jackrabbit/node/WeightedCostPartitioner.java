@@ -0,0 +1,101 @@
+package jackrabbit.node;
+
+import jackrabbit.util.NodeSizeCache;
+import jackrabbit.util.SizeEstimator;
+
+/**
+ * 
+ * Partitions a node into subtrees whose cost is less than a limit, the cost being a weighted sum of the number of nodes, properties, bytes
+ * and binary values of the subtree. The default weights express the cost in bytes, counting the overhead of creating and indexing a node, 
+ * a property and a binary in the destination.
+ *
+ */
+public class WeightedCostPartitioner extends CostPartitioner {
+	
+	public static final double DEFAULT_NODE_WEIGHT=1024;
+	public static final double DEFAULT_PROPERTY_WEIGHT=64;
+	public static final double DEFAULT_BYTE_WEIGHT=1;
+	public static final double DEFAULT_BINARY_WEIGHT=4096;
+	
+	private double nodeWeight=DEFAULT_NODE_WEIGHT;
+	private double propertyWeight=DEFAULT_PROPERTY_WEIGHT;
+	private double byteWeight=DEFAULT_BYTE_WEIGHT;
+	private double binaryWeight=DEFAULT_BINARY_WEIGHT;
+	
+	/**
+	 * @param limit - cost in the unit of the weights
+	 */
+	public WeightedCostPartitioner(long limit) {
+		super(limit);
+	}
+	
+	/**
+	 * @param limit - cost in the unit of the weights
+	 * @param nodeWeight - cost of a node
+	 * @param propertyWeight - cost of a property
+	 * @param byteWeight - cost of a byte of property values
+	 * @param binaryWeight - cost of a binary value, on top of its bytes
+	 */
+	public WeightedCostPartitioner(long limit, double nodeWeight, double propertyWeight, double byteWeight, double binaryWeight) {
+		super(limit);
+		setWeights(nodeWeight, propertyWeight, byteWeight, binaryWeight);
+	}
+	
+	/**
+	 * @param limit - cost in the unit of the weights
+	 * @param estimator - estimator of property sizes
+	 * @param nodeWeight - cost of a node
+	 * @param propertyWeight - cost of a property
+	 * @param byteWeight - cost of a byte of property values
+	 * @param binaryWeight - cost of a binary value, on top of its bytes
+	 */
+	public WeightedCostPartitioner(long limit, SizeEstimator estimator, double nodeWeight, double propertyWeight, double byteWeight, double binaryWeight) {
+		super(limit, estimator);
+		setWeights(nodeWeight, propertyWeight, byteWeight, binaryWeight);
+	}
+	
+	/**
+	 * @param limit - cost in the unit of the weights
+	 * @param sizes - cache of sizes already computed for the nodes to partition, e.g. by a previous scan
+	 * @param nodeWeight - cost of a node
+	 * @param propertyWeight - cost of a property
+	 * @param byteWeight - cost of a byte of property values
+	 * @param binaryWeight - cost of a binary value, on top of its bytes
+	 */
+	public WeightedCostPartitioner(long limit, NodeSizeCache sizes, double nodeWeight, double propertyWeight, double byteWeight, double binaryWeight) {
+		super(limit, sizes);
+		setWeights(nodeWeight, propertyWeight, byteWeight, binaryWeight);
+	}
+	
+	private void setWeights(double nodeWeight, double propertyWeight, double byteWeight, double binaryWeight) {
+		this.nodeWeight=nodeWeight;
+		this.propertyWeight=propertyWeight;
+		this.byteWeight=byteWeight;
+		this.binaryWeight=binaryWeight;
+	}
+
+	protected long getCost(long nodes, long properties, long bytes, long binaries) {
+		return (long)(nodeWeight*nodes+propertyWeight*properties+byteWeight*bytes+binaryWeight*binaries);
+	}
+
+	public CostPartitioner withSizes(NodeSizeCache sizes) {
+		return new WeightedCostPartitioner(getLimit(), sizes, nodeWeight, propertyWeight, byteWeight, binaryWeight);
+	}
+
+	public double getNodeWeight() {
+		return nodeWeight;
+	}
+
+	public double getPropertyWeight() {
+		return propertyWeight;
+	}
+
+	public double getByteWeight() {
+		return byteWeight;
+	}
+
+	public double getBinaryWeight() {
+		return binaryWeight;
+	}
+
+}
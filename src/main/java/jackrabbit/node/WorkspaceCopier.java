@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.session.SessionFactory;
+import jackrabbit.util.LengthSizeEstimator;
+import jackrabbit.util.NodeSizeCache;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+
+/**
+ * 
+ * Copies a node of a workspace to the workspace with the same name in another repository, with fresh sessions for every workspace.
+ * Instances can be shared between threads.
+ *
+ */
+public class WorkspaceCopier {
+	
+	private SessionFactory srcSf;
+	private SessionFactory destSf;
+	private String srcPath;
+	private String destPath;
+	private long nodeLimit;
+	private CostPartitioner partitioner;
+	private int threads=1;
+	private NodeTransfer transfer=new BufferedNodeTransfer();
+	private CheckpointJournal journal;
+	private long batchNodes;
+	private long batchBytes;
+	private HighWaterMarks marks;
+	private ExecutorService executor;
+	private ChangeDetector detector=new EventJournalChangeDetector(new LastModifiedChangeDetector());
+	private boolean deltaSweep;
+	//nodes and bytes saved by the copies of this copier
+	private TransferStats copied=new TransferStats();
+	
+	public WorkspaceCopier(SessionFactory srcSf, SessionFactory destSf, String srcPath, String destPath) {
+		this.srcSf=srcSf;
+		this.destSf=destSf;
+		this.srcPath=srcPath;
+		this.destPath=destPath;
+	}
+	
+	/**
+	 * Compute the number of nodes and the size of srcPath in workspace. Only the totals are kept, so the sizes of the nodes are computed
+	 * again when the workspace is partitioned to be copied.
+	 * @param workspace
+	 * @return number of nodes and bytes of the properties of srcPath and its descendants; null if srcPath does not exist or the workspace
+	 * is copied incrementally, in which case only its changes are copied
+	 * @throws RepositoryException
+	 */
+	public TransferStats scan(String workspace) throws RepositoryException {
+		if (marks!=null && marks.get(workspace)>0)
+			return null;
+		Session srcSession=srcSf.getSession(workspace);
+		try {
+			if (!srcSession.nodeExists(srcPath))
+				return null;
+			Node node=srcSession.getNode(srcPath);
+			//only used for the sizes of a single node, which are not cached, and traversed without recursion since trees can be deep
+			NodeSizeCache sizes=new NodeSizeCache(partitioner!=null?partitioner.getEstimator():new LengthSizeEstimator());
+			long[] totals=sizes.getNodeSizes(node);
+			Deque<NodeIterator> stack=new ArrayDeque<NodeIterator>();
+			stack.push(node.getNodes());
+			while (!stack.isEmpty()) {
+				NodeIterator children=stack.peek();
+				if (!children.hasNext()) {
+					stack.pop();
+					continue;
+				}
+				Node child=children.nextNode();
+				long[] childSizes=sizes.getNodeSizes(child);
+				for (int i=0;i<totals.length;i++) {
+					totals[i]+=childSizes[i];
+				}
+				stack.push(child.getNodes());
+			}
+			return new TransferStats(totals[1], totals[0]);
+		} finally {
+			srcSession.logout();
+		}
+	}
+	
+	/**
+	 * Copy srcPath of workspace to destPath of the destination workspace with the same name. With high water marks, only the changes since
+	 * the mark of the workspace are copied if it has one, and the mark is moved to the start of the copy once it succeeds.
+	 * @param workspace
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public void copy(String workspace) throws RepositoryException, IOException {
+		Session srcSession=srcSf.getSession(workspace);
+		Session destSession=null;
+		try {
+			destSession=destSf.getSession(workspace);
+			long since=marks==null?0:marks.get(workspace);
+			long start=System.currentTimeMillis();
+			SaveBatch batch=new SaveBatch(destSession, batchNodes, batchBytes);
+			batch.setCopied(copied);
+			if (since > 0) {
+				DeltaCopier copier=new DeltaCopier(detector, transfer);
+				copier.setSweep(deltaSweep);
+				copier.copy(srcSession, batch, srcPath, destPath, since);
+			} else if (nodeLimit == 0)
+				NodeCopier.copy(srcSession, batch, srcPath, destPath, true, transfer);
+			else if (threads > 1) {
+				ParallelNodeCopier copier=new ParallelNodeCopier(srcSf, destSf, threads, transfer);
+				copier.setJournal(journal);
+				copier.setBatchNodes(batchNodes);
+				copier.setBatchBytes(batchBytes);
+				copier.setExecutor(executor);
+				copier.setCopied(copied);
+				copier.copy(workspace, srcPath, destPath, getNodePartitioner(), true);
+			} else
+				NodeCopier.copy(srcSession, batch, srcPath, destPath, getNodePartitioner(), true, transfer, journal);
+			if (marks!=null)
+				marks.set(workspace, start);
+		} finally {
+			srcSession.logout();
+			if (destSession!=null)
+				destSession.logout();
+		}
+	}
+	
+	private NodePartitioner getNodePartitioner() {
+		return partitioner!=null?partitioner:new NodeSizePartitioner(nodeLimit);
+	}
+	
+	/**
+	 * @return nodes and bytes saved by the copies of this copier so far, unlike the metrics of the JVM which include those of other copiers
+	 */
+	public TransferStats getCopied() {
+		synchronized (copied) {
+			return new TransferStats(copied.getNodes(), copied.getBytes());
+		}
+	}
+
+	public long getNodeLimit() {
+		return nodeLimit;
+	}
+
+	/**
+	 * @param nodeLimit - size to partition nodes with before copying; 0 for no partitioning
+	 */
+	public void setNodeLimit(long nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	public CostPartitioner getPartitioner() {
+		return partitioner;
+	}
+
+	/**
+	 * @param partitioner - partitioner of the nodes to copy when nodeLimit is not 0, with its own limit; null to partition by size with nodeLimit
+	 */
+	public void setPartitioner(CostPartitioner partitioner) {
+		this.partitioner = partitioner;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param threads - number of workers to copy partitions with
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public NodeTransfer getTransfer() {
+		return transfer;
+	}
+
+	public void setTransfer(NodeTransfer transfer) {
+		this.transfer = transfer;
+	}
+
+	public CheckpointJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * @param journal - journal of completed partitions, used when partitioning; null for none
+	 */
+	public void setJournal(CheckpointJournal journal) {
+		this.journal = journal;
+	}
+
+	public long getBatchNodes() {
+		return batchNodes;
+	}
+
+	/**
+	 * @param batchNodes - number of nodes from which copied partitions are saved together, used when partitioning; 0 for no limit
+	 */
+	public void setBatchNodes(long batchNodes) {
+		this.batchNodes = batchNodes;
+	}
+
+	public long getBatchBytes() {
+		return batchBytes;
+	}
+
+	/**
+	 * @param batchBytes - number of bytes transferred from which copied partitions are saved together, used when partitioning; 0 for no limit
+	 */
+	public void setBatchBytes(long batchBytes) {
+		this.batchBytes = batchBytes;
+	}
+
+	public HighWaterMarks getHighWaterMarks() {
+		return marks;
+	}
+
+	/**
+	 * @param marks - times of the last copy of each workspace, from which changes are copied incrementally; null to always copy everything
+	 */
+	public void setHighWaterMarks(HighWaterMarks marks) {
+		this.marks = marks;
+	}
+
+	public ChangeDetector getChangeDetector() {
+		return detector;
+	}
+
+	/**
+	 * @param detector - detector of the changes copied incrementally
+	 */
+	public void setChangeDetector(ChangeDetector detector) {
+		this.detector = detector;
+	}
+
+	public boolean isDeltaSweep() {
+		return deltaSweep;
+	}
+
+	/**
+	 * @param deltaSweep - whether an incremental copy compares the whole destination with the source to find the nodes removed when the 
+	 * change detector does not detect removals, see {@link DeltaCopier#setSweep(boolean)}
+	 */
+	public void setDeltaSweep(boolean deltaSweep) {
+		this.deltaSweep = deltaSweep;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @param executor - executor copying the partitions when partitioning with several threads, shared with other copiers; null for an
+	 * executor per copy
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+}
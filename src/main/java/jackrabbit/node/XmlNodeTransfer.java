@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import jackrabbit.metrics.MigrationMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.jcr.ImportUUIDBehavior;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.jackrabbit.commons.xml.ProxyContentHandler;
+import org.apache.jackrabbit.commons.xml.SerializingContentHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * 
+ * Base class of transfers going through the system view XML of a node, which counts the nodes and bytes exported and records the export time.
+ * Siblings transferred at once are exported straight into import content handlers of the destination, without serializing their system 
+ * view.
+ *
+ */
+public abstract class XmlNodeTransfer implements BatchNodeTransfer {
+
+	private static final String SV_URI="http://www.jcp.org/jcr/sv/1.0";
+
+	/**
+	 * Export the system view of the node with absPath to out, skipping binaries
+	 * @param session
+	 * @param absPath
+	 * @param out
+	 * @param noRecurse
+	 * @return number of nodes and bytes exported
+	 * @throws ExportException if the node cannot be exported
+	 * @throws IOException
+	 */
+	protected TransferStats exportSystemView(Session session, String absPath, OutputStream out, boolean noRecurse) throws RepositoryException, IOException {
+		CountingOutputStream counter=new CountingOutputStream(out);
+		long start=System.nanoTime();
+		try {
+			NodeCountingHandler handler=new NodeCountingHandler(SerializingContentHandler.getSerializer(counter));
+			session.exportSystemView(absPath, handler, true, noRecurse);
+			return new TransferStats(handler.nodes, counter.getByteCount());
+		} catch (SAXException e) {
+			throw new ExportException("Error exporting "+absPath, getCause(e, "Error serializing system view of "+absPath));
+		} catch (RepositoryException e) {
+			throw new ExportException("Error exporting "+absPath, e);
+		} finally {
+			MigrationMetrics.getInstance().exported(System.nanoTime()-start);
+		}
+	}
+
+	/**
+	 * Import the system views of the siblings with srcAbsPaths as they are exported, skipping binaries. Each sibling is exported into an 
+	 * import handler of its own, which takes a single document with the namespace declarations of the export. Bytes transferred are the
+	 * characters of the values exported, since the system view is not serialized.
+	 */
+	public TransferStats transfer(Session srcSession, Session destSession, List<String> srcAbsPaths, String destAbsPath) throws RepositoryException, IOException {
+		long start=System.nanoTime();
+		TransferStats stats=new TransferStats();
+		try {
+			for (String srcAbsPath:srcAbsPaths) {
+				NodeCountingHandler handler=new NodeCountingHandler(destSession.getImportContentHandler(destAbsPath, 
+						ImportUUIDBehavior.IMPORT_UUID_COLLISION_REMOVE_EXISTING));
+				try {
+					srcSession.exportSystemView(srcAbsPath, handler, true, false);
+				} catch (RepositoryException e) {
+					//failures of the import handler are SAXExceptions
+					throw new ExportException("Error exporting "+srcAbsPath, e);
+				}
+				stats.add(new TransferStats(handler.nodes, handler.characters));
+			}
+			return stats;
+		} catch (SAXException e) {
+			throw getCause(e, "Error importing system view of "+srcAbsPaths.size()+" siblings into "+destAbsPath);
+		} finally {
+			//includes the time of the export, which feeds the import
+			MigrationMetrics.getInstance().imported(System.nanoTime()-start);
+		}
+	}
+	
+	/**
+	 * @param e
+	 * @param message
+	 * @return RepositoryException wrapped by e, or a RepositoryException with message; IOException wrapped by e is thrown
+	 * @throws IOException
+	 */
+	private static RepositoryException getCause(SAXException e, String message) throws IOException {
+		Exception cause=e.getException();
+		if (cause instanceof RepositoryException)
+			return (RepositoryException)cause;
+		if (cause instanceof IOException)
+			throw (IOException)cause;
+		return new RepositoryException(message, e);
+	}
+
+	private static class NodeCountingHandler extends ProxyContentHandler {
+
+		private long nodes;
+		private long characters;
+
+		NodeCountingHandler(ContentHandler handler) {
+			super(handler);
+		}
+
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			if ("node".equals(localName) && SV_URI.equals(uri))
+				nodes++;
+			super.startElement(uri, localName, qName, atts);
+		}
+
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			characters+=length;
+			super.characters(ch, start, length);
+		}
+
+	}
+
+}
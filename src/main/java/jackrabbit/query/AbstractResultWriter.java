@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.commons.io.output.ProxyWriter;
+
+/**
+ *
+ * Base class of the result writers writing text to a {@link Writer}
+ *
+ */
+public abstract class AbstractResultWriter implements ResultWriter {
+
+	protected Writer writer;
+	protected boolean headers;
+	protected String[] columnNames;
+	private CountingWriter counter;
+
+	/**
+	 * @param writer
+	 * @param headers - whether to write the column names before the rows
+	 */
+	protected AbstractResultWriter(Writer writer, boolean headers) {
+		counter=new CountingWriter(writer);
+		this.writer=counter;
+		this.headers=headers;
+	}
+
+	public void start(String[] columnNames) throws IOException {
+		this.columnNames=columnNames;
+		if (headers)
+			writeHeader(columnNames);
+	}
+
+	protected abstract void writeHeader(String[] columnNames) throws IOException;
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	public long getCharacters() {
+		return counter.count;
+	}
+	
+	public Writer getWriter() {
+		return writer;
+	}
+
+	public boolean isHeaders() {
+		return headers;
+	}
+	
+	private static class CountingWriter extends ProxyWriter {
+		
+		private long count;
+		
+		CountingWriter(Writer writer) {
+			super(writer);
+		}
+		
+		protected void afterWrite(int n) {
+			count+=n;
+		}
+		
+	}
+
+}
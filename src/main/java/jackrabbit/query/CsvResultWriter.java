@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+/**
+ *
+ * Writes rows as comma separated values (RFC 4180). A null value is written as an empty field.
+ *
+ */
+public class CsvResultWriter extends AbstractResultWriter {
+
+	private static final String LINE_SEPARATOR="\r\n";
+
+	public CsvResultWriter(Writer writer) {
+		this(writer, true);
+	}
+
+	public CsvResultWriter(Writer writer, boolean headers) {
+		super(writer, headers);
+	}
+
+	protected void writeHeader(String[] columnNames) throws IOException {
+		for (int i=0;i<columnNames.length;i++) {
+			if (i>0)
+				writer.write(',');
+			writeField(columnNames[i]);
+		}
+		writer.write(LINE_SEPARATOR);
+	}
+
+	public void write(Value[] values) throws IOException, RepositoryException {
+		for (int i=0;i<values.length;i++) {
+			if (i>0)
+				writer.write(',');
+			if (values[i]!=null)
+				writeField(values[i].getString());
+		}
+		writer.write(LINE_SEPARATOR);
+	}
+
+	/**
+	 * Quotes field if it contains a comma, a quote or a line break
+	 * @param field
+	 * @throws IOException
+	 */
+	private void writeField(String field) throws IOException {
+		boolean quote=false;
+		for (int i=0;i<field.length() && !quote;i++) {
+			char c=field.charAt(i);
+			quote=c==',' || c=='"' || c=='\r' || c=='\n';
+		}
+		if (!quote) {
+			writer.write(field);
+			return;
+		}
+		writer.write('"');
+		writer.write(field.replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+}
@@ -0,0 +1,485 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import jackrabbit.repository.RepositoryFactoryImpl;
+import jackrabbit.repository.RepositorySource;
+import jackrabbit.session.SessionFactoryImpl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jcr.Credentials;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.value.ValueFactoryImpl;
+
+/**
+ *
+ * Runs a query in every repository of a {@link RepositorySource}, opening at most threads repositories at the same time, 
+ * and writes the rows of all of them, each preceded by a source column holding the directory of its repository.
+ * Without an order, rows are written as they arrive from any repository, in no particular order, and each repository is asked for 
+ * offset+limit rows at most. With an order, the rows of all the repositories are sorted by a column of the query, keeping only the 
+ * first offset+limit of them in memory, and written once every repository has been queried. A repository which cannot be opened or 
+ * queried is logged and skipped. Instances run one query at a time.
+ *
+ */
+public class FanOutQuerier {
+	
+	protected static Log log=LogFactory.getLog(FanOutQuerier.class);
+	
+	public static final int DEFAULT_THREADS=4;
+	public static final String SOURCE_COLUMN="source";
+	
+	private static final int QUEUE_SIZE=1024;
+	//marks the end of the rows of a repository in the queue
+	private static final Value[] END=new Value[0];
+	
+	private RepositorySource source;
+	private String conf;
+	private Credentials credentials;
+	private int threads=DEFAULT_THREADS;
+	private String orderBy;
+	private boolean descending;
+	private long limit;
+	private long offset;
+	private Map<String, Exception> failures=new LinkedHashMap<String, Exception>();
+	//set once the rows needed have been written; queries are not interrupted since an interrupt can close the files of a repository
+	private volatile boolean stopped;
+	
+	/**
+	 * @param source - directories of the repositories to query
+	 * @param conf - configuration file of the repositories
+	 * @param credentials
+	 */
+	public FanOutQuerier(RepositorySource source, String conf, Credentials credentials) {
+		this.source=source;
+		this.conf=conf;
+		this.credentials=credentials;
+	}
+	
+	/**
+	 * @param statement
+	 * @param language - JCR-SQL2 if null or empty
+	 * @param writer
+	 * @return number of rows written
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public long query(String statement, String language, ResultWriter writer) throws RepositoryException, IOException {
+		String[] sources=source.getSources();
+		failures.clear();
+		stopped=false;
+		ExecutorService executor=Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sources.length)));
+		AtomicReference<String[]> columnNames=new AtomicReference<String[]>();
+		try {
+			long rows;
+			if (orderBy==null || orderBy.isEmpty()) {
+				rows=stream(sources, statement, language, executor, columnNames, writer);
+			} else {
+				rows=sort(sources, statement, language, executor, columnNames, writer);
+			}
+			log.info(rows+" rows from "+(sources.length-failures.size())+" of "+sources.length+" repositories");
+			return rows;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while querying "+sources.length+" repositories");
+		} finally {
+			//stops the queries still running and waits for their repositories to be shut down
+			stopped=true;
+			executor.shutdown();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private long stream(String[] sources, String statement, String language, ExecutorService executor, AtomicReference<String[]> columnNames, 
+			ResultWriter writer) throws RepositoryException, IOException, InterruptedException {
+		BlockingQueue<Value[]> queue=new ArrayBlockingQueue<Value[]>(QUEUE_SIZE);
+		for (String dir:sources) {
+			executor.submit(new SourceQuery(dir, statement, language, limit>0?offset+limit:0, columnNames, queue, null));
+		}
+		long rows=0;
+		long skipped=0;
+		int ended=0;
+		boolean started=false;
+		while (ended<sources.length) {
+			Value[] row=queue.poll(100, TimeUnit.MILLISECONDS);
+			if (row==null) {
+				if (stopped)
+					break;
+				continue;
+			}
+			if (row==END) {
+				ended++;
+				continue;
+			}
+			if (skipped<offset) {
+				skipped++;
+				continue;
+			}
+			if (!started) {
+				writer.start(getColumnNames(columnNames));
+				started=true;
+			}
+			writer.write(row);
+			if (rows++==0)
+				writer.flush();
+			if (limit>0 && rows>=limit)
+				break;
+		}
+		if (!started)
+			writer.start(getColumnNames(columnNames));
+		writer.flush();
+		return rows;
+	}
+	
+	private long sort(String[] sources, String statement, String language, ExecutorService executor, AtomicReference<String[]> columnNames, 
+			ResultWriter writer) throws RepositoryException, IOException, InterruptedException {
+		TopRows top=new TopRows(limit>0?offset+limit:0);
+		for (String dir:sources) {
+			executor.submit(new SourceQuery(dir, statement, language, 0, columnNames, null, top));
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		List<Value[]> rows=top.getRows();
+		writer.start(getColumnNames(columnNames));
+		long written=0;
+		for (int i=(int)Math.min(offset, rows.size());i<rows.size();i++) {
+			writer.write(rows.get(i));
+			written++;
+		}
+		writer.flush();
+		return written;
+	}
+	
+	/**
+	 * @param columnNames - column names of the query, null if no repository could be queried
+	 * @return source column followed by the column names
+	 */
+	private static String[] getColumnNames(AtomicReference<String[]> columnNames) {
+		String[] names=columnNames.get();
+		if (names==null)
+			return new String[] {SOURCE_COLUMN};
+		String[] tagged=new String[names.length+1];
+		tagged[0]=SOURCE_COLUMN;
+		System.arraycopy(names, 0, tagged, 1, names.length);
+		return tagged;
+	}
+	
+	private synchronized void failed(String dir, Exception e) {
+		log.error(dir+": "+e.getMessage(), e);
+		failures.put(dir, e);
+	}
+	
+	/**
+	 * @param value
+	 * @param factory
+	 * @return copy of value which can be read once its session is closed; values other than numbers, booleans and dates are copied 
+	 * as strings
+	 * @throws RepositoryException
+	 */
+	private static Value detach(Value value, ValueFactory factory) throws RepositoryException {
+		if (value==null)
+			return null;
+		switch (value.getType()) {
+		case PropertyType.LONG:
+			return factory.createValue(value.getLong());
+		case PropertyType.DOUBLE:
+			return factory.createValue(value.getDouble());
+		case PropertyType.DECIMAL:
+			return factory.createValue(value.getDecimal());
+		case PropertyType.BOOLEAN:
+			return factory.createValue(value.getBoolean());
+		case PropertyType.DATE:
+			return factory.createValue(value.getDate());
+		default:
+			return factory.createValue(value.getString());
+		}
+	}
+	
+	/**
+	 * Nulls are last in ascending order. Values of different types are compared as strings.
+	 * @param a
+	 * @param b
+	 * @return comparison of a and b
+	 * @throws RepositoryException
+	 */
+	static int compare(Value a, Value b) throws RepositoryException {
+		if (a==null || b==null)
+			return a==null?(b==null?0:1):-1;
+		switch (a.getType()==b.getType()?a.getType():PropertyType.STRING) {
+		case PropertyType.LONG:
+			long la=a.getLong(), lb=b.getLong();
+			return la<lb?-1:la>lb?1:0;
+		case PropertyType.DOUBLE:
+			return Double.compare(a.getDouble(), b.getDouble());
+		case PropertyType.DECIMAL:
+			return a.getDecimal().compareTo(b.getDecimal());
+		case PropertyType.DATE:
+			return a.getDate().compareTo(b.getDate());
+		case PropertyType.BOOLEAN:
+			return a.getBoolean()==b.getBoolean()?0:a.getBoolean()?1:-1;
+		default:
+			return a.getString().compareTo(b.getString());
+		}
+	}
+	
+	public RepositorySource getSource() {
+		return source;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * @param threads - number of repositories open at the same time
+	 */
+	public void setThreads(int threads) {
+		this.threads=threads;
+	}
+	
+	public String getOrderBy() {
+		return orderBy;
+	}
+	
+	/**
+	 * @param orderBy - column of the query to sort the rows of all the repositories by, null or empty to write them as they arrive
+	 * @param descending
+	 */
+	public void setOrderBy(String orderBy, boolean descending) {
+		this.orderBy=orderBy;
+		this.descending=descending;
+	}
+	
+	public boolean isDescending() {
+		return descending;
+	}
+	
+	public long getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * @param limit - maximum number of rows of all the repositories, 0 for all of them
+	 */
+	public void setLimit(long limit) {
+		this.limit=limit;
+	}
+	
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @param offset - number of rows of all the repositories to skip
+	 */
+	public void setOffset(long offset) {
+		this.offset=offset;
+	}
+	
+	/**
+	 * @return repositories which could not be queried by the last query, with the reason
+	 */
+	public synchronized Map<String, Exception> getFailures() {
+		return new LinkedHashMap<String, Exception>(failures);
+	}
+	
+	/**
+	 * 
+	 * Queries one repository, adding its rows either to the queue or to the top rows
+	 *
+	 */
+	private class SourceQuery implements Runnable {
+		
+		private String dir;
+		private String statement;
+		private String language;
+		private long limit;
+		private AtomicReference<String[]> columnNames;
+		private BlockingQueue<Value[]> queue;
+		private TopRows top;
+		
+		SourceQuery(String dir, String statement, String language, long limit, AtomicReference<String[]> columnNames, BlockingQueue<Value[]> queue, 
+				TopRows top) {
+			this.dir=dir;
+			this.statement=statement;
+			this.language=language;
+			this.limit=limit;
+			this.columnNames=columnNames;
+			this.queue=queue;
+			this.top=top;
+		}
+		
+		public void run() {
+			JackrabbitRepository repository=null;
+			Session session=null;
+			try {
+				repository=new RepositoryFactoryImpl(conf, dir).getRepository();
+				session=new SessionFactoryImpl(repository, credentials).getSession();
+				QueryResult result=Querier.query(session, statement, language, limit, 0);
+				String[] names=result.getColumnNames();
+				//set before the first row is queued, so that it is known when the row is written
+				columnNames.compareAndSet(null, names);
+				int index=-1;
+				if (top!=null) {
+					index=getOrderIndex(names);
+				}
+				ValueFactory factory=ValueFactoryImpl.getInstance();
+				Value source=factory.createValue(dir);
+				RowIterator it=result.getRows();
+				long rows=0;
+				while (!stopped && it.hasNext()) {
+					Value[] values=it.nextRow().getValues();
+					Value[] row=new Value[values.length+1];
+					row[0]=source;
+					for (int i=0;i<values.length;i++) {
+						row[i+1]=detach(values[i], factory);
+					}
+					if (queue!=null)
+						put(row);
+					else
+						top.add(row, index+1);
+					rows++;
+				}
+				log.debug(dir+": "+rows+" rows");
+			} catch (RepositoryException e) {
+				failed(dir, e);
+			} catch (RuntimeException e) {
+				failed(dir, e);
+			} finally {
+				if (session!=null)
+					session.logout();
+				if (repository!=null)
+					repository.shutdown();
+				if (queue!=null)
+					put(END);
+			}
+		}
+		
+		/**
+		 * Wait for room in the queue until the rows are no longer needed
+		 * @param row
+		 */
+		private void put(Value[] row) {
+			try {
+				while (!stopped && !queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				stopped=true;
+			}
+		}
+		
+		private int getOrderIndex(String[] names) throws RepositoryException {
+			for (int i=0;i<names.length;i++) {
+				if (names[i].equals(orderBy))
+					return i;
+			}
+			throw new RepositoryException("No column "+orderBy+" in "+statement);
+		}
+		
+	}
+	
+	/**
+	 * 
+	 * First rows in the order of a column, among all the rows added by all the repositories
+	 *
+	 */
+	private class TopRows {
+		
+		private long size;
+		private PriorityQueue<Value[]> rows;
+		private int index;
+		
+		/**
+		 * @param size - number of rows kept, 0 for all of them
+		 */
+		TopRows(long size) {
+			this.size=size;
+		}
+		
+		/**
+		 * @param row
+		 * @param index - index of the column to sort by in row
+		 */
+		synchronized void add(Value[] row, int index) {
+			if (rows==null) {
+				this.index=index;
+				//the last row is at the head, to be evicted by a row before it
+				rows=new PriorityQueue<Value[]>(11, Collections.reverseOrder(new RowComparator()));
+			}
+			rows.add(row);
+			if (size>0 && rows.size()>size)
+				rows.poll();
+		}
+		
+		/**
+		 * @return rows kept, sorted
+		 */
+		synchronized List<Value[]> getRows() {
+			if (rows==null)
+				return new ArrayList<Value[]>();
+			List<Value[]> sorted=new ArrayList<Value[]>(rows);
+			Collections.sort(sorted, new RowComparator());
+			return sorted;
+		}
+		
+		private class RowComparator implements Comparator<Value[]> {
+			
+			public int compare(Value[] a, Value[] b) {
+				try {
+					int c=FanOutQuerier.compare(a[index], b[index]);
+					return descending?-c:c;
+				} catch (RepositoryException e) {
+					//values are detached, so only thrown by values which cannot be converted
+					throw new IllegalArgumentException(e);
+				}
+			}
+			
+		}
+		
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+/**
+ *
+ * Writes every row as a JSON object on its own line, keyed by the column names. 
+ * Long, double, decimal and boolean values are written as JSON numbers and booleans, other values as strings.
+ * The column names are only written as keys, so there is no header line.
+ *
+ */
+public class JsonLinesResultWriter extends AbstractResultWriter {
+
+	public JsonLinesResultWriter(Writer writer) {
+		super(writer, false);
+	}
+
+	protected void writeHeader(String[] columnNames) {
+	}
+
+	public void write(Value[] values) throws IOException, RepositoryException {
+		writer.write('{');
+		for (int i=0;i<values.length;i++) {
+			if (i>0)
+				writer.write(',');
+			writeString(i<columnNames.length?columnNames[i]:String.valueOf(i));
+			writer.write(':');
+			writeValue(values[i]);
+		}
+		writer.write("}\n");
+	}
+
+	private void writeValue(Value value) throws IOException, RepositoryException {
+		if (value==null) {
+			writer.write("null");
+			return;
+		}
+		switch (value.getType()) {
+		case PropertyType.LONG:
+		case PropertyType.DECIMAL:
+		case PropertyType.BOOLEAN:
+			writer.write(value.getString());
+			break;
+		case PropertyType.DOUBLE:
+			double d=value.getDouble();
+			//NaN and infinity are not JSON numbers
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				writeString(value.getString());
+			else
+				writer.write(value.getString());
+			break;
+		default:
+			writeString(value.getString());
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		writer.write('"');
+		for (int i=0;i<s.length();i++) {
+			char c=s.charAt(i);
+			switch (c) {
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				if (c<0x20) {
+					writer.write(String.format("\\u%04x", (int)c));
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+		writer.write('"');
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+/**
+ *
+ * Least recently used cache of the queries created by a session, keyed by statement, language, limit and offset, so that a statement 
+ * run again, for example with other values bound to its variables, is parsed once. Like the session, instances are not thread safe.
+ *
+ */
+public class PreparedQueryCache {
+	
+	public static final int DEFAULT_MAX_ENTRIES=100;
+	
+	private Session session;
+	private int maxEntries;
+	private Map<List<Object>, Query> queries;
+	private long hits;
+	private long misses;
+	
+	public PreparedQueryCache(Session session) {
+		this(session, DEFAULT_MAX_ENTRIES);
+	}
+	
+	/**
+	 * @param session
+	 * @param maxEntries - number of queries from which the least recently used is evicted; 0 to create a query at every call
+	 */
+	public PreparedQueryCache(Session session, final int maxEntries) {
+		this.session=session;
+		this.maxEntries=maxEntries;
+		queries=new LinkedHashMap<List<Object>, Query>(16, 0.75f, true) {
+			private static final long serialVersionUID=1L;
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, Query> eldest) {
+				return size()>maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * The limit and offset are part of the key because Jackrabbit cannot reset them to their defaults once set.
+	 * @param statement
+	 * @param language - JCR-SQL2 if null or empty
+	 * @param limit - maximum number of rows, 0 for all of them
+	 * @param offset - number of rows to skip
+	 * @return query of statement, whose variables keep the values last bound to them
+	 * @throws RepositoryException
+	 */
+	public Query prepare(String statement, String language, long limit, long offset) throws RepositoryException {
+		if (language==null || language.isEmpty()) language=Query.JCR_SQL2;
+		List<Object> key=Arrays.<Object>asList(statement, language, limit, offset);
+		Query query=queries.get(key);
+		if (query!=null) {
+			hits++;
+			return query;
+		}
+		misses++;
+		query=session.getWorkspace().getQueryManager().createQuery(statement, language);
+		if (limit>0)
+			query.setLimit(limit);
+		if (offset>0)
+			query.setOffset(offset);
+		if (maxEntries>0)
+			queries.put(key, query);
+		return query;
+	}
+	
+	public void clear() {
+		queries.clear();
+	}
+	
+	public int size() {
+		return queries.size();
+	}
+	
+	public Session getSession() {
+		return session;
+	}
+	
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	
+	public long getHits() {
+		return hits;
+	}
+	
+	public long getMisses() {
+		return misses;
+	}
+
+}
@@ -17,15 +17,23 @@
 
 package jackrabbit.query;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.jcr.NodeIterator;
 import javax.jcr.query.RowIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
-import javax.jcr.query.Row;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -59,21 +67,272 @@ public class Querier {
         return it;
 	}
 	
-	public static String formatQueryResults(RowIterator it) throws RepositoryException {
-		String results="\n";
+	/**
+	 * @param session
+	 * @param query
+	 * @param queryType - JCR-SQL2 if null or empty
+	 * @param limit - maximum number of rows, 0 for all of them
+	 * @param offset - number of rows to skip
+	 * @return result of the query
+	 * @throws RepositoryException
+	 */
+	public static QueryResult query(Session session, String query, String queryType, long limit, long offset) throws RepositoryException {
+		if (queryType==null || queryType.isEmpty()) queryType=Query.JCR_SQL2;
+		QueryManager qm = session.getWorkspace().getQueryManager();
+		Query q = qm.createQuery(query, queryType);
+		if (limit>0)
+			q.setLimit(limit);
+		if (offset>0)
+			q.setOffset(offset);
+		return q.execute();
+	}
+	
+	/**
+	 * Runs a query parsed once by queries, with bindings bound to its variables
+	 * @param queries - queries of the session to run the query in
+	 * @param query - statement whose variables are prefixed with $ in JCR-SQL2
+	 * @param queryType - JCR-SQL2 if null or empty
+	 * @param bindings - values of the variables of the query by name, without $; values of other variables are ignored
+	 * @param limit - maximum number of rows, 0 for all of them
+	 * @param offset - number of rows to skip
+	 * @return result of the query
+	 * @throws InvalidQueryException if a variable of the query has no value in bindings
+	 * @throws RepositoryException
+	 */
+	public static QueryResult query(PreparedQueryCache queries, String query, String queryType, Map<String, Value> bindings, long limit, long offset) throws RepositoryException {
+		Query q=queries.prepare(query, queryType, limit, offset);
+		bind(q, getBindings(q, bindings));
+		return q.execute();
+	}
+	
+	/**
+	 * @param query
+	 * @param bindings
+	 * @return values of bindings bound to the variables of query
+	 * @throws InvalidQueryException if a variable of query has no value in bindings
+	 * @throws RepositoryException
+	 */
+	private static Map<String, Value> getBindings(Query query, Map<String, Value> bindings) throws RepositoryException {
+		Map<String, Value> values=new HashMap<String, Value>();
+		for (String name:query.getBindVariableNames()) {
+			Value value=bindings.get(name);
+			if (value==null)
+				throw new InvalidQueryException("No value bound to $"+name);
+			values.put(name, value);
+		}
+		return values;
+	}
+	
+	/**
+	 * Bind every variable of query, since a query reused keeps the values previously bound to it
+	 * @param query
+	 * @param values - values of all the variables of query
+	 * @throws RepositoryException
+	 */
+	private static void bind(Query query, Map<String, Value> values) throws RepositoryException {
+		for (Map.Entry<String, Value> value:values.entrySet()) {
+			query.bindValue(value.getKey(), value.getValue());
+		}
+	}
+	
+	/**
+	 * Writes the rows of result as they are fetched. The first row is flushed as soon as it is written, the following ones when 
+	 * the underlying writer is full and at the end.
+	 * @param result
+	 * @param writer
+	 * @return number of rows written
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	public static long writeQueryResults(QueryResult result, ResultWriter writer) throws RepositoryException, IOException {
+		return writeQueryResults(result.getColumnNames(), result.getRows(), writer);
+	}
+	
+	/**
+	 * @param columnNames
+	 * @param it
+	 * @param writer
+	 * @return number of rows written
+	 * @throws RepositoryException
+	 * @throws IOException
+	 * @see #writeQueryResults(QueryResult, ResultWriter)
+	 */
+	public static long writeQueryResults(String[] columnNames, RowIterator it, ResultWriter writer) throws RepositoryException, IOException {
+		return writeRows(columnNames, it, writer, null, 0, null, 0);
+	}
+	
+	/**
+	 * Writes the rows of the query from cache if they are cached, otherwise runs it and caches its rows if they are not too many. 
+	 * @param session
+	 * @param query
+	 * @param queryType - JCR-SQL2 if null or empty
+	 * @param limit - maximum number of rows, 0 for all of them
+	 * @param offset - number of rows to skip
+	 * @param cache - cache of the results of the workspace of session, which must be registered with it for the results to be cached
+	 * @param writer
+	 * @return number of rows written
+	 * @throws RepositoryException
+	 * @throws IOException
+	 * @see #writeQueryResults(QueryResult, ResultWriter)
+	 */
+	public static long writeQueryResults(Session session, String query, String queryType, long limit, long offset, QueryResultCache cache, ResultWriter writer) throws RepositoryException, IOException {
+		return writeQueryResults(new PreparedQueryCache(session, 0), query, queryType, Collections.<String, Value>emptyMap(), limit, offset, cache, writer);
+	}
+	
+	/**
+	 * Writes the rows of the query from cache if they are cached, otherwise runs it with bindings and caches its rows if they are not 
+	 * too many.
+	 * @param queries - queries of the session to run the query in
+	 * @param query
+	 * @param queryType - JCR-SQL2 if null or empty
+	 * @param bindings - values of the variables of the query by name
+	 * @param limit - maximum number of rows, 0 for all of them
+	 * @param offset - number of rows to skip
+	 * @param cache - cache of the results of the workspace of the session, which must be registered with it for the results to be cached; 
+	 * null for none
+	 * @param writer
+	 * @return number of rows written
+	 * @throws RepositoryException
+	 * @throws IOException
+	 * @see #query(PreparedQueryCache, String, String, Map, long, long)
+	 */
+	public static long writeQueryResults(PreparedQueryCache queries, String query, String queryType, Map<String, Value> bindings, long limit, long offset, 
+			QueryResultCache cache, ResultWriter writer) throws RepositoryException, IOException {
+		return writeQueryResults(queries, query, queryType, bindings, limit, offset, cache, writer, null);
+	}
+	
+	/**
+	 * @param queries
+	 * @param query
+	 * @param queryType
+	 * @param bindings
+	 * @param limit
+	 * @param offset
+	 * @param cache - null for none
+	 * @param writer
+	 * @param profile - profile to record the time of each phase of the query in, null not to time them
+	 * @return number of rows written
+	 * @throws RepositoryException
+	 * @throws IOException
+	 * @see #writeQueryResults(PreparedQueryCache, String, String, Map, long, long, QueryResultCache, ResultWriter)
+	 */
+	public static long writeQueryResults(PreparedQueryCache queries, String query, String queryType, Map<String, Value> bindings, long limit, long offset, 
+			QueryResultCache cache, ResultWriter writer, QueryProfile profile) throws RepositoryException, IOException {
+		long start=System.nanoTime();
+		long characters=writer.getCharacters();
+		if (queryType==null || queryType.isEmpty()) queryType=Query.JCR_SQL2;
+		Query q=queries.prepare(query, queryType, limit, offset);
+		Map<String, Value> bound=getBindings(q, bindings);
+		long parsed=System.nanoTime();
+		String workspace=queries.getSession().getWorkspace().getName();
+		QueryResultCache.Result cached=cache!=null?cache.get(workspace, query, queryType, bound, limit, offset):null;
+		long rows;
+		if (cached!=null) {
+			writer.start(cached.getColumnNames());
+			for (Value[] values:cached.getRows()) {
+				writer.write(values);
+			}
+			writer.flush();
+			rows=cached.getRows().size();
+			if (profile!=null) {
+				profile.cached=true;
+				profile.parseNanos=parsed-start;
+				profile.firstRowNanos=rows>0?parsed-start:-1;
+				profile.writeNanos=System.nanoTime()-parsed;
+			}
+		} else {
+			//read before running the query, so that a change made while the rows are read prevents caching them
+			long generation=cache!=null?cache.getGeneration(workspace):0;
+			bind(q, bound);
+			QueryResult result=q.execute();
+			if (profile!=null) {
+				profile.parseNanos=parsed-start;
+				profile.executeNanos=System.nanoTime()-parsed;
+			}
+			List<Value[]> collected=cache!=null?new ArrayList<Value[]>():null;
+			rows=writeRows(result.getColumnNames(), result.getRows(), writer, collected, cache!=null?cache.getMaxRows():0, profile, start);
+			//rows are no longer collected once there are too many of them
+			if (collected!=null && collected.size()==rows)
+				cache.put(workspace, query, queryType, bound, limit, offset, generation, new QueryResultCache.Result(result.getColumnNames(), collected));
+		}
+		if (profile!=null) {
+			profile.statement=query;
+			profile.language=queryType;
+			profile.rows=rows;
+			profile.characters=writer.getCharacters()-characters;
+			profile.totalNanos=System.nanoTime()-start;
+		}
+		return rows;
+	}
+	
+	/**
+	 * @param columnNames
+	 * @param it
+	 * @param writer
+	 * @param collected - list to add the values of the rows to as long as there are at most maxRows of them, null for none
+	 * @param maxRows
+	 * @param profile - profile to add the time to fetch and write the rows to, null not to time them
+	 * @param start - start of the query, in nanoseconds
+	 * @return number of rows written
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private static long writeRows(String[] columnNames, RowIterator it, ResultWriter writer, List<Value[]> collected, long maxRows, 
+			QueryProfile profile, long start) throws RepositoryException, IOException {
+		writer.start(columnNames);
+		long rows=0;
+		long time=profile!=null?System.nanoTime():0;
 		while (it.hasNext()) {
-        	Row row = it.nextRow();
-        	Value[] values=row.getValues();
-        	String s="";
-        	for (Value value:values) {
-        		if (value!=null)
-        			s+="| " + value.getString() + " ";
-        		else
-        			s+="| null ";
-        	}
-        	results+=s+"\n";
+			Value[] values=it.nextRow().getValues();
+			if (profile!=null) {
+				long now=System.nanoTime();
+				profile.fetchNanos+=now-time;
+				if (rows==0)
+					profile.firstRowNanos=now-start;
+				time=now;
+			}
+			writer.write(values);
+			if (rows++==0)
+				writer.flush();
+			if (collected!=null && collected.size()==rows-1) {
+				if (collected.size()<maxRows)
+					collected.add(values);
+				else
+					collected.clear();
+			}
+			if (profile!=null) {
+				long now=System.nanoTime();
+				profile.writeNanos+=now-time;
+				time=now;
+			}
+		}
+		if (profile!=null) {
+			long now=System.nanoTime();
+			profile.fetchNanos+=now-time;
+			time=now;
+		}
+		writer.flush();
+		if (profile!=null)
+			profile.writeNanos+=System.nanoTime()-time;
+		return rows;
+	}
+	
+	/**
+	 * @param it
+	 * @return rows of it, one per line
+	 * @throws RepositoryException
+	 * @see #writeQueryResults(QueryResult, ResultWriter) to write large results without holding them in memory
+	 */
+	public static String formatQueryResults(RowIterator it) throws RepositoryException {
+		StringWriter results=new StringWriter();
+		results.write("\n");
+		try {
+			writeQueryResults(new String[0], it, new TableResultWriter(results));
+		} catch (IOException e) {
+			//not thrown by a StringWriter
+			throw new IllegalStateException(e);
 		}
-		return results;
+		return results.toString();
 	}
  
 }
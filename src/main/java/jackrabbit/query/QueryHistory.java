@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import jackrabbit.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ *
+ * Profiles of the queries of a session: the distribution of the time of each phase of all the queries, and the last queries.
+ * The parse and execute times are only recorded for the queries not answered from the result cache. Times are recorded in 
+ * microseconds. Instances can be shared between threads.
+ *
+ */
+public class QueryHistory {
+	
+	public static final int DEFAULT_SIZE=20;
+	
+	private int size;
+	private LinkedList<QueryProfile> recent=new LinkedList<QueryProfile>();
+	private long cached;
+	private Histogram parse=new Histogram();
+	private Histogram execute=new Histogram();
+	private Histogram firstRow=new Histogram();
+	private Histogram fetch=new Histogram();
+	private Histogram write=new Histogram();
+	private Histogram total=new Histogram();
+	private Histogram rows=new Histogram();
+	private Histogram characters=new Histogram();
+	
+	public QueryHistory() {
+		this(DEFAULT_SIZE);
+	}
+	
+	/**
+	 * @param size - number of last queries kept
+	 */
+	public QueryHistory(int size) {
+		this.size=size;
+	}
+	
+	public synchronized void add(QueryProfile profile) {
+		recent.addLast(profile);
+		if (recent.size()>size)
+			recent.removeFirst();
+		if (profile.isCached()) {
+			cached++;
+		} else {
+			parse.record(profile.getParseNanos()/1000);
+			execute.record(profile.getExecuteNanos()/1000);
+		}
+		if (profile.getFirstRowNanos()>=0)
+			firstRow.record(profile.getFirstRowNanos()/1000);
+		fetch.record(profile.getFetchNanos()/1000);
+		write.record(profile.getWriteNanos()/1000);
+		total.record(profile.getTotalNanos()/1000);
+		rows.record(profile.getRows());
+		characters.record(profile.getCharacters());
+	}
+	
+	/**
+	 * @return last queries, oldest first
+	 */
+	public synchronized List<QueryProfile> getRecent() {
+		return new ArrayList<QueryProfile>(recent);
+	}
+	
+	public long getCount() {
+		return total.getCount();
+	}
+	
+	public synchronized long getCached() {
+		return cached;
+	}
+	
+	public Histogram getParse() {
+		return parse;
+	}
+	
+	public Histogram getExecute() {
+		return execute;
+	}
+	
+	public Histogram getFirstRow() {
+		return firstRow;
+	}
+	
+	public Histogram getFetch() {
+		return fetch;
+	}
+	
+	public Histogram getWrite() {
+		return write;
+	}
+	
+	public Histogram getTotal() {
+		return total;
+	}
+	
+	public Histogram getRows() {
+		return rows;
+	}
+	
+	public Histogram getCharacters() {
+		return characters;
+	}
+	
+	public synchronized void reset() {
+		recent.clear();
+		cached=0;
+		for (Histogram histogram:new Histogram[] {parse, execute, firstRow, fetch, write, total, rows, characters}) {
+			histogram.reset();
+		}
+	}
+	
+	public synchronized String toString() {
+		StringBuilder s=new StringBuilder();
+		s.append(getCount()).append(" queries, ").append(cached).append(" answered from cache\n");
+		s.append("parse: ").append(parse.toString(1000, "ms")).append("\n");
+		s.append("execute: ").append(execute.toString(1000, "ms")).append("\n");
+		s.append("first row: ").append(firstRow.toString(1000, "ms")).append("\n");
+		s.append("fetch: ").append(fetch.toString(1000, "ms")).append("\n");
+		s.append("write: ").append(write.toString(1000, "ms")).append("\n");
+		s.append("total: ").append(total.toString(1000, "ms")).append("\n");
+		s.append("rows: ").append(rows).append("\n");
+		s.append("chars: ").append(characters);
+		return s.toString();
+	}
+
+}
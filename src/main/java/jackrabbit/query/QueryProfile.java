@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+/**
+ *
+ * Time spent in each phase of a query, so that a slow index lookup can be told from slow reading or writing of the rows.
+ * The row times are measured around every row, which costs a few calls to {@link System#nanoTime()} per row.
+ *
+ */
+public class QueryProfile {
+	
+	String statement;
+	String language;
+	boolean cached;
+	long parseNanos;
+	long executeNanos;
+	long firstRowNanos=-1;
+	long fetchNanos;
+	long writeNanos;
+	long totalNanos;
+	long rows;
+	long characters;
+	
+	public String getStatement() {
+		return statement;
+	}
+	
+	public String getLanguage() {
+		return language;
+	}
+	
+	/**
+	 * @return whether the rows were read from the result cache, in which case the query was not run
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+	
+	/**
+	 * @return time to create the query, 0 or close if the query was prepared before
+	 */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+	
+	/**
+	 * @return time of Query.execute, mostly the index lookup
+	 */
+	public long getExecuteNanos() {
+		return executeNanos;
+	}
+	
+	/**
+	 * @return time from the start of the query to the first row read, -1 if there is no row
+	 */
+	public long getFirstRowNanos() {
+		return firstRowNanos;
+	}
+	
+	/**
+	 * @return time to iterate over the rows and read their values from the repository
+	 */
+	public long getFetchNanos() {
+		return fetchNanos;
+	}
+	
+	/**
+	 * @return time to convert the values of the rows to text and write them
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+	
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+	
+	public long getRows() {
+		return rows;
+	}
+	
+	/**
+	 * @return number of characters written
+	 */
+	public long getCharacters() {
+		return characters;
+	}
+	
+	public String toString() {
+		return String.format("%d rows, %d chars%s: parse=%.3fms execute=%.3fms first row=%s fetch=%.3fms write=%.3fms total=%.3fms", 
+				rows, characters, cached?" (cached)":"", parseNanos/1e6, executeNanos/1e6, 
+				firstRowNanos<0?"none":String.format("%.3fms", firstRowNanos/1e6), fetchNanos/1e6, writeNanos/1e6, totalNanos/1e6);
+	}
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+
+/**
+ *
+ * Least recently used cache of the rows of query results, keyed by workspace, query, language, values bound, limit and offset.
+ * Any change to a workspace observed by a session registered with {@link #register(Session)} evicts all the results of that 
+ * workspace, since any change can add or remove rows of any query. Jackrabbit notifies the listener during the save, so a change 
+ * saved in the same JVM evicts the results before the save returns; a change saved by another cluster node evicts them once the 
+ * cluster journal is synchronized. Only the results of observed workspaces with at most maxRows rows are cached. 
+ * Instances can be shared between threads.
+ *
+ */
+public class QueryResultCache {
+	
+	protected static Log log=LogFactory.getLog(QueryResultCache.class);
+	
+	public static final int DEFAULT_MAX_ENTRIES=100;
+	public static final long DEFAULT_MAX_ROWS=10000;
+	
+	private static final int EVENT_TYPES=Event.NODE_ADDED|Event.NODE_REMOVED|Event.NODE_MOVED|Event.PROPERTY_ADDED|Event.PROPERTY_CHANGED|Event.PROPERTY_REMOVED;
+	
+	private int maxEntries;
+	private long maxRows;
+	private Map<List<Object>, Result> results;
+	//incremented by every invalidation, so that a result computed while its workspace changed is not cached
+	private Map<String, Long> generations=new HashMap<String, Long>();
+	private Map<Session, Invalidator> invalidators=new HashMap<Session, Invalidator>();
+	private long hits;
+	private long misses;
+	private long invalidations;
+	
+	public QueryResultCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_ROWS);
+	}
+	
+	/**
+	 * @param maxEntries - number of results from which the least recently used is evicted
+	 * @param maxRows - number of rows above which a result is not cached
+	 */
+	public QueryResultCache(final int maxEntries, long maxRows) {
+		this.maxEntries=maxEntries;
+		this.maxRows=maxRows;
+		results=new LinkedHashMap<List<Object>, Result>(16, 0.75f, true) {
+			private static final long serialVersionUID=1L;
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, Result> eldest) {
+				return size()>maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * Evict the results of the workspace of session whenever it changes
+	 * @param session - session kept open until {@link #unregister(Session)}
+	 * @throws RepositoryException
+	 */
+	public void register(Session session) throws RepositoryException {
+		Invalidator invalidator=new Invalidator(session.getWorkspace().getName());
+		synchronized (this) {
+			if (invalidators.containsKey(session))
+				return;
+			invalidators.put(session, invalidator);
+		}
+		session.getWorkspace().getObservationManager().addEventListener(invalidator, EVENT_TYPES, "/", true, null, null, false);
+	}
+	
+	/**
+	 * Stop observing the workspace of session, evicting its results since they can no longer be kept up to date
+	 * @param session
+	 * @throws RepositoryException
+	 */
+	public void unregister(Session session) throws RepositoryException {
+		Invalidator invalidator;
+		synchronized (this) {
+			invalidator=invalidators.remove(session);
+		}
+		if (invalidator==null)
+			return;
+		session.getWorkspace().getObservationManager().removeEventListener(invalidator);
+		invalidate(invalidator.workspace);
+	}
+	
+	/**
+	 * @param workspace
+	 * @return whether changes to workspace are observed, i.e. whether its results are cached
+	 */
+	public synchronized boolean isObserved(String workspace) {
+		for (Invalidator invalidator:invalidators.values()) {
+			if (invalidator.workspace.equals(workspace))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @param workspace
+	 * @param query
+	 * @param language
+	 * @param limit
+	 * @param offset
+	 * @return cached result, null if none
+	 */
+	public Result get(String workspace, String query, String language, long limit, long offset) {
+		try {
+			return get(workspace, query, language, Collections.<String, Value>emptyMap(), limit, offset);
+		} catch (RepositoryException e) {
+			//only thrown by the values bound
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @param workspace
+	 * @param query
+	 * @param language
+	 * @param bindings - values bound to the variables of query
+	 * @param limit
+	 * @param offset
+	 * @return cached result, null if none
+	 * @throws RepositoryException if a value bound cannot be converted to a string
+	 */
+	public Result get(String workspace, String query, String language, Map<String, Value> bindings, long limit, long offset) throws RepositoryException {
+		List<Object> key=getKey(workspace, query, language, bindings, limit, offset);
+		synchronized (this) {
+			return get(key);
+		}
+	}
+	
+	private Result get(List<Object> key) {
+		Result result=results.get(key);
+		if (result==null)
+			misses++;
+		else
+			hits++;
+		return result;
+	}
+	
+	/**
+	 * @param workspace
+	 * @return generation to pass to {@link #put(String, String, String, long, long, long, Result)} for a result computed from now on
+	 */
+	public synchronized long getGeneration(String workspace) {
+		Long generation=generations.get(workspace);
+		return generation==null?0:generation;
+	}
+	
+	/**
+	 * Cache result unless workspace changed since generation, is not observed or result has more than maxRows rows
+	 * @param workspace
+	 * @param query
+	 * @param language
+	 * @param limit
+	 * @param offset
+	 * @param generation - generation of workspace before the query was run
+	 * @param result
+	 * @return whether result was cached
+	 */
+	public boolean put(String workspace, String query, String language, long limit, long offset, long generation, Result result) {
+		try {
+			return put(workspace, query, language, Collections.<String, Value>emptyMap(), limit, offset, generation, result);
+		} catch (RepositoryException e) {
+			//only thrown by the values bound
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @param workspace
+	 * @param query
+	 * @param language
+	 * @param bindings - values bound to the variables of query
+	 * @param limit
+	 * @param offset
+	 * @param generation - generation of workspace before the query was run
+	 * @param result
+	 * @return whether result was cached
+	 * @throws RepositoryException if a value bound cannot be converted to a string
+	 * @see #put(String, String, String, long, long, long, Result)
+	 */
+	public boolean put(String workspace, String query, String language, Map<String, Value> bindings, long limit, long offset, long generation, Result result) throws RepositoryException {
+		List<Object> key=getKey(workspace, query, language, bindings, limit, offset);
+		synchronized (this) {
+			if (generation!=getGeneration(workspace) || result.getRows().size()>maxRows || !isObserved(workspace))
+				return false;
+			results.put(key, result);
+			return true;
+		}
+	}
+	
+	/**
+	 * Evict the results of workspace
+	 * @param workspace
+	 */
+	public synchronized void invalidate(String workspace) {
+		generations.put(workspace, getGeneration(workspace)+1);
+		invalidations++;
+		Iterator<List<Object>> keys=results.keySet().iterator();
+		while (keys.hasNext()) {
+			if (keys.next().get(0).equals(workspace))
+				keys.remove();
+		}
+	}
+	
+	public synchronized void clear() {
+		for (String workspace:generations.keySet()) {
+			generations.put(workspace, getGeneration(workspace)+1);
+		}
+		results.clear();
+	}
+	
+	private static List<Object> getKey(String workspace, String query, String language, Map<String, Value> bindings, long limit, long offset) throws RepositoryException {
+		//values are compared by type and string, since Value does not define equals
+		Map<String, String> values=new TreeMap<String, String>();
+		for (Map.Entry<String, Value> binding:bindings.entrySet()) {
+			values.put(binding.getKey(), binding.getValue().getType()+":"+binding.getValue().getString());
+		}
+		return Arrays.<Object>asList(workspace, query, language, values, limit, offset);
+	}
+	
+	public synchronized int size() {
+		return results.size();
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+	
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	
+	public long getMaxRows() {
+		return maxRows;
+	}
+	
+	public synchronized String toString() {
+		return "Query result cache: "+results.size()+" results, "+hits+" hits, "+misses+" misses, "+invalidations+" invalidations";
+	}
+	
+	/**
+	 * 
+	 * Column names and rows of a query result
+	 *
+	 */
+	public static class Result {
+		
+		private String[] columnNames;
+		private List<Value[]> rows;
+		
+		public Result(String[] columnNames, List<Value[]> rows) {
+			this.columnNames=columnNames;
+			this.rows=rows;
+		}
+		
+		public String[] getColumnNames() {
+			return columnNames;
+		}
+		
+		public List<Value[]> getRows() {
+			return rows;
+		}
+		
+	}
+	
+	/**
+	 * 
+	 * Evicts the results of a workspace when it changes. Synchronous, so that Jackrabbit calls it before the save returns.
+	 *
+	 */
+	private class Invalidator implements SynchronousEventListener {
+		
+		private String workspace;
+		
+		Invalidator(String workspace) {
+			this.workspace=workspace;
+		}
+		
+		public void onEvent(EventIterator events) {
+			if (!events.hasNext())
+				return;
+			invalidate(workspace);
+			if (log.isDebugEnabled())
+				log.debug(workspace+" workspace changed, query results evicted");
+		}
+		
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+/**
+ *
+ * Writes the rows of a query result one at a time, as they are fetched, so that the result is never held in memory.
+ *
+ */
+public interface ResultWriter {
+
+	/**
+	 * Called once before the rows
+	 * @param columnNames - names of the columns of the rows, in the order of their values
+	 * @throws IOException
+	 */
+	public void start(String[] columnNames) throws IOException;
+
+	/**
+	 * @param values - values of the row, in the order of the column names; a value can be null
+	 * @throws IOException
+	 * @throws RepositoryException
+	 */
+	public void write(Value[] values) throws IOException, RepositoryException;
+
+	/**
+	 * Writes the rows written so far through, without closing the underlying writer
+	 * @throws IOException
+	 */
+	public void flush() throws IOException;
+	
+	/**
+	 * @return number of characters written so far, including those of the header
+	 */
+	public long getCharacters();
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+/**
+ *
+ * Writes rows as lines of values each preceded by "| ", the format of {@link Querier#formatQueryResults(javax.jcr.query.RowIterator)}
+ *
+ */
+public class TableResultWriter extends AbstractResultWriter {
+
+	public TableResultWriter(Writer writer) {
+		this(writer, false);
+	}
+
+	public TableResultWriter(Writer writer, boolean headers) {
+		super(writer, headers);
+	}
+
+	protected void writeHeader(String[] columnNames) throws IOException {
+		for (String columnName:columnNames) {
+			writer.write("| ");
+			writer.write(columnName);
+			writer.write(" ");
+		}
+		writer.write("\n");
+	}
+
+	public void write(Value[] values) throws IOException, RepositoryException {
+		for (Value value:values) {
+			writer.write("| ");
+			writer.write(value!=null?value.getString():"null");
+			writer.write(" ");
+		}
+		writer.write("\n");
+	}
+
+}
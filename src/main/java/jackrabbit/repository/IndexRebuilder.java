@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.repository;
+
+import jackrabbit.session.SessionFactory;
+import jackrabbit.session.SessionFactoryImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.jcr.Credentials;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+
+/**
+ * 
+ * Rebuilds the indexes of a repository bulk loaded with deferred indexing. The indexing of the workspaces is restored and their indexes
+ * removed, then every workspace is initialized by a login, which indexes its content when its index is missing. The default workspace and 
+ * the repository index are rebuilt when the repository starts, the other workspaces are rebuilt at the same time by a bounded number of threads.
+ *
+ */
+public class IndexRebuilder {
+	
+	protected static Log log=LogFactory.getLog(IndexRebuilder.class);
+	
+	private String conf;
+	private String dir;
+	private Credentials credentials;
+	private int threads=1;
+	
+	/**
+	 * @param conf - configuration file of the repository, with the search indexes to rebuild
+	 * @param dir - directory of the repository
+	 * @param credentials
+	 */
+	public IndexRebuilder(String conf, String dir, Credentials credentials) {
+		this.conf=conf;
+		this.dir=dir;
+		this.credentials=credentials;
+	}
+	
+	/**
+	 * Rebuild the indexes of the repository, which must not be running
+	 * @throws RepositoryException
+	 */
+	public void rebuild() throws RepositoryException {
+		long start=System.currentTimeMillis();
+		RepositoryFactoryImpl factory=new RepositoryFactoryImpl(conf, dir);
+		List<String> workspaces=factory.restoreIndexing();
+		JackrabbitRepository repository=factory.getRepository();
+		ExecutorService executor=Executors.newFixedThreadPool(Math.max(1, Math.min(threads, workspaces.size())));
+		try {
+			final SessionFactory sf=new SessionFactoryImpl(repository, credentials);
+			List<Future<Object>> futures=new ArrayList<Future<Object>>();
+			for (final String workspace:workspaces) {
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws RepositoryException {
+						long start=System.currentTimeMillis();
+						//the workspace is initialized, and its index built, by the first login
+						sf.getSession(workspace).logout();
+						log.info("Indexed "+workspace+" workspace of "+dir+" in "+(System.currentTimeMillis()-start)/1000+"s");
+						return null;
+					}
+				}));
+			}
+			RepositoryException failure=null;
+			for (Future<Object> future:futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					log.error(e.getCause().getMessage(), e.getCause());
+					if (failure==null)
+						failure=e.getCause() instanceof RepositoryException?(RepositoryException)e.getCause():new RepositoryException(e.getCause());
+				}
+			}
+			if (failure!=null)
+				throw failure;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("Interrupted while indexing "+dir, e);
+		} finally {
+			executor.shutdown();
+			repository.shutdown();
+		}
+		log.info("Rebuilt the indexes of "+workspaces.size()+" workspaces of "+dir+" in "+(System.currentTimeMillis()-start)/1000+"s");
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param threads - maximum number of workspaces indexed at the same time
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+}
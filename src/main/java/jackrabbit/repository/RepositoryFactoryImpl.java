@@ -17,25 +17,308 @@
 
 package jackrabbit.repository;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.jcr.RepositoryException;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
+/**
+ * 
+ * Creates the repository of a directory from a configuration file. With deferred indexing, the repository is opened for a bulk load with 
+ * a configuration derived from the configuration file without its search indexes, and the configurations of the existing workspaces are 
+ * stripped of theirs as well, so that the nodes copied are not indexed one save at a time. {@link #restoreIndexing()} then restores the 
+ * configurations and removes the indexes, which the repository rebuilds from the content of each workspace when it is initialized.
+ *
+ */
 public class RepositoryFactoryImpl implements RepositoryFactory {
 	
+	protected static Log log=LogFactory.getLog(RepositoryFactoryImpl.class);
+	
+	private static final String SEARCH_INDEX="SearchIndex";
+	private static final String WORKSPACE_CONFIG="workspace.xml";
+	//suffix of the configuration of a workspace kept during a bulk load
+	private static final String BULK_LOAD_SUFFIX=".bulkload";
+	//file of the repository directory present from the start of a bulk load until its indexing is restored
+	private static final String BULK_LOAD_MARKER="bulkload";
+	
 	private String conf;
 	private String dir;
+	private boolean deferIndexing;
 	
 	public RepositoryFactoryImpl(String conf, String dir) {
 		this.conf=conf;
 		this.dir=dir;
 	}
 
+	/**
+	 * Create the repository. Without deferred indexing, the indexing of a bulk load which was not restored is restored first.
+	 */
 	public JackrabbitRepository getRepository() throws RepositoryException {
-		RepositoryConfig repConfig=RepositoryConfig.create(conf, dir);
+		RepositoryConfig repConfig;
+		if (deferIndexing) {
+			repConfig=getBulkLoadConfig();
+		} else {
+			if (new File(dir, BULK_LOAD_MARKER).exists()) {
+				log.info(dir+" was bulk loaded without indexing: restoring its indexing");
+				restoreIndexing();
+			}
+			repConfig=RepositoryConfig.create(conf, dir);
+		}
 		JackrabbitRepository repo=RepositoryImpl.create(repConfig);
 		return repo;
 	}
+	
+	/**
+	 * Derive the configuration of a bulk load from the configuration file, without search indexes. The configurations of the existing
+	 * workspaces are replaced by configurations without search indexes too, and kept to be restored by {@link #restoreIndexing()}; 
+	 * the workspaces created during the bulk load are created without search index.
+	 * @return configuration of the repository without indexing
+	 * @throws RepositoryException
+	 */
+	public RepositoryConfig getBulkLoadConfig() throws RepositoryException {
+		try {
+			Document document=parse(new File(conf));
+			new File(dir).mkdirs();
+			File marker=new File(dir, BULK_LOAD_MARKER);
+			if (!marker.exists())
+				FileUtils.touch(marker);
+			for (File config:getWorkspaceConfigs(document)) {
+				File saved=new File(config.getPath()+BULK_LOAD_SUFFIX);
+				//the configuration saved by a bulk load which was not restored is the one to restore
+				if (saved.exists())
+					continue;
+				FileUtils.copyFile(config, saved);
+				Document workspace=parse(config);
+				if (removeSearchIndexes(workspace.getDocumentElement()))
+					write(workspace, config);
+			}
+			removeSearchIndexes(document.getDocumentElement());
+			removeSearchIndexes(getChild(document.getDocumentElement(), "Workspace"));
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			writeWithDoctype(document, out);
+			return RepositoryConfig.create(new InputSource(new ByteArrayInputStream(out.toByteArray())), dir);
+		} catch (IOException e) {
+			throw new RepositoryException(e);
+		}
+	}
+	
+	/**
+	 * Restore the configurations of the workspaces of a bulk load and remove the indexes of the workspaces and of the repository. The 
+	 * workspaces created during the bulk load are given the search index of the configuration file. The repository must not be running.
+	 * @return names of the workspaces whose index is rebuilt when they are initialized
+	 * @throws RepositoryException
+	 */
+	public List<String> restoreIndexing() throws RepositoryException {
+		try {
+			Document document=parse(new File(conf));
+			File marker=new File(dir, BULK_LOAD_MARKER);
+			Element template=getChild(getChild(document.getDocumentElement(), "Workspace"), SEARCH_INDEX);
+			List<String> workspaces=new ArrayList<String>();
+			for (File config:getWorkspaceConfigs(document)) {
+				File saved=new File(config.getPath()+BULK_LOAD_SUFFIX);
+				Document workspace;
+				if (saved.exists()) {
+					FileUtils.copyFile(saved, config);
+					saved.delete();
+					workspace=parse(config);
+				} else {
+					workspace=parse(config);
+					if (marker.exists() && template!=null && getChild(workspace.getDocumentElement(), SEARCH_INDEX)==null) {
+						workspace.getDocumentElement().appendChild(workspace.importNode(template, true));
+						write(workspace, config);
+					}
+				}
+				File workspaceHome=config.getParentFile();
+				if (deleteIndex(getChild(workspace.getDocumentElement(), SEARCH_INDEX), workspaceHome))
+					workspaces.add(workspace.getDocumentElement().getAttribute("name").replace("${wsp.name}", workspaceHome.getName()));
+			}
+			deleteIndex(getChild(document.getDocumentElement(), SEARCH_INDEX), null);
+			marker.delete();
+			return workspaces;
+		} catch (IOException e) {
+			throw new RepositoryException(e);
+		}
+	}
+	
+	/**
+	 * @param searchIndex - search index element; null for none
+	 * @param workspaceHome - directory of the workspace of the index; null for the index of the repository
+	 * @return whether the element configures an index, which is deleted
+	 * @throws IOException
+	 */
+	private boolean deleteIndex(Element searchIndex, File workspaceHome) throws IOException {
+		if (searchIndex==null)
+			return false;
+		NodeList params=searchIndex.getElementsByTagName("param");
+		for (int i=0;i<params.getLength();i++) {
+			Element param=(Element)params.item(i);
+			if (param.getParentNode()==searchIndex && param.getAttribute("name").equals("path")) {
+				File index=new File(resolve(param.getAttribute("value"), workspaceHome));
+				log.info("Removing index "+index.getPath()+" to rebuild it");
+				FileUtils.deleteDirectory(index);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param document - repository configuration
+	 * @return configuration files of the existing workspaces
+	 */
+	private List<File> getWorkspaceConfigs(Document document) {
+		List<File> configs=new ArrayList<File>();
+		Element workspaces=getChild(document.getDocumentElement(), "Workspaces");
+		if (workspaces==null)
+			return configs;
+		if (workspaces.hasAttribute("configRootPath"))
+			log.warn("Workspace configurations under "+workspaces.getAttribute("configRootPath")+" are not changed for a bulk load");
+		File[] homes=new File(resolve(workspaces.getAttribute("rootPath"), null)).listFiles();
+		if (homes==null)
+			return configs;
+		for (File home:homes) {
+			File config=new File(home, WORKSPACE_CONFIG);
+			if (config.isFile())
+				configs.add(config);
+		}
+		return configs;
+	}
+	
+	private String resolve(String value, File workspaceHome) {
+		String resolved=value.replace("${rep.home}", dir);
+		if (workspaceHome!=null)
+			resolved=resolved.replace("${wsp.home}", workspaceHome.getPath()).replace("${wsp.name}", workspaceHome.getName());
+		return resolved;
+	}
+	
+	/**
+	 * @param element - null for none
+	 * @return whether a search index was removed from the children of element
+	 */
+	private static boolean removeSearchIndexes(Element element) {
+		boolean removed=false;
+		Element searchIndex=element==null?null:getChild(element, SEARCH_INDEX);
+		while (searchIndex!=null) {
+			element.removeChild(searchIndex);
+			removed=true;
+			searchIndex=getChild(element, SEARCH_INDEX);
+		}
+		return removed;
+	}
+	
+	/**
+	 * @param element
+	 * @param name
+	 * @return first child element of element with name; null if there is none
+	 */
+	private static Element getChild(Element element, String name) {
+		if (element==null)
+			return null;
+		for (Node child=element.getFirstChild();child!=null;child=child.getNextSibling()) {
+			if (child instanceof Element && child.getNodeName().equals(name))
+				return (Element)child;
+		}
+		return null;
+	}
+	
+	private static Document parse(File file) throws IOException {
+		try {
+			DocumentBuilder builder=DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			//the DTD of a configuration is not needed to change it, nor fetched
+			builder.setEntityResolver(new EntityResolver() {
+				public InputSource resolveEntity(String publicId, String systemId) {
+					return new InputSource(new StringReader(""));
+				}
+			});
+			return builder.parse(file);
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e.getMessage(), e);
+		} catch (SAXException e) {
+			throw new IOException("Cannot parse "+file.getPath()+": "+e.getMessage(), e);
+		}
+	}
+	
+	private static void write(Document document, File file) throws IOException {
+		OutputStream out=new FileOutputStream(file);
+		try {
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(out));
+		} catch (TransformerException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Write document with its document type declaration, including its internal subset, which the configuration is validated against
+	 * @param document
+	 * @param out
+	 * @throws IOException
+	 */
+	private static void writeWithDoctype(Document document, OutputStream out) throws IOException {
+		Writer writer=new OutputStreamWriter(out, "UTF-8");
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		DocumentType doctype=document.getDoctype();
+		if (doctype!=null) {
+			writer.write("<!DOCTYPE "+doctype.getName());
+			if (doctype.getPublicId()!=null)
+				writer.write(" PUBLIC \""+doctype.getPublicId()+"\" \""+doctype.getSystemId()+"\"");
+			else if (doctype.getSystemId()!=null)
+				writer.write(" SYSTEM \""+doctype.getSystemId()+"\"");
+			if (doctype.getInternalSubset()!=null)
+				writer.write(" ["+doctype.getInternalSubset()+"]");
+			writer.write(">\n");
+		}
+		try {
+			Transformer transformer=TransformerFactory.newInstance().newTransformer();
+			transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			transformer.transform(new DOMSource(document.getDocumentElement()), new StreamResult(writer));
+		} catch (TransformerException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		writer.flush();
+	}
+	
+	public boolean isDeferIndexing() {
+		return deferIndexing;
+	}
+
+	/**
+	 * @param deferIndexing - whether {@link #getRepository()} opens the repository for a bulk load, without indexing the nodes saved
+	 */
+	public void setDeferIndexing(boolean deferIndexing) {
+		this.deferIndexing = deferIndexing;
+	}
 }
@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jackrabbit.core.NodeImpl;
+
+/**
+ * 
+ * Generates a tree of nodes for load and scale tests. Every node below the root of the tree has fan-out child nodes down to depth levels, 
+ * i.e. fanOut+fanOut^2+...+fanOut^depth nodes in total. The content only depends on the shape and the seed: two generators with the same 
+ * settings generate the same nodes, properties, binaries, identifiers and references. 
+ * <p>
+ * Property pN of a node has type STRING, LONG, DOUBLE, BOOLEAN, DATE and multi-valued STRING for N modulo 6 being 0 to 5. Nodes may also 
+ * have a binary property data, whose size is drawn log-uniformly between a minimum and a maximum size, and a REFERENCE property ref to 
+ * one of the last nodes generated. Nodes are mix:referenceable when references are generated. The node type of the nodes, nt:unstructured by 
+ * default, must allow these properties, and same-name siblings if they are generated.
+ *
+ */
+public class RepositoryGenerator {
+	
+	protected static Log log=LogFactory.getLog(RepositoryGenerator.class);
+	
+	private static final String MIX_REFERENCEABLE="mix:referenceable";
+	private static final int PROPERTY_TYPES=6;
+	private static final int REFERENCE_TARGETS=10000;
+	private static final String CHARACTERS="abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+	//dates are spread over the 20 years from 2000
+	private static final long BASE_DATE=946684800000L;
+	private static final long DATE_RANGE=20*365*24*3600*1000L;
+	
+	private long seed;
+	private int fanOut=10;
+	private int depth=3;
+	private int sameNameSiblings=1;
+	private int properties=5;
+	private int stringLength=32;
+	private double binaryRatio;
+	private long minBinarySize=1024;
+	private long maxBinarySize=1024;
+	private double referenceRatio;
+	private String nodeType="nt:unstructured";
+	private int saveInterval=1000;
+	
+	private Random random;
+	private ValueFactory factory;
+	private String[] targets;
+	private long nodes;
+	private long binaries;
+	private long binaryBytes;
+	private long references;
+	
+	/**
+	 * Generate the tree under the node with absPath, which is created if it does not exist. The session is saved every save interval nodes
+	 * and at the end.
+	 * @param session
+	 * @param absPath
+	 * @return number of nodes generated
+	 * @throws RepositoryException
+	 */
+	public synchronized long generate(Session session, String absPath) throws RepositoryException {
+		random=new Random(seed);
+		factory=session.getValueFactory();
+		targets=new String[REFERENCE_TARGETS];
+		nodes=0;
+		binaries=0;
+		binaryBytes=0;
+		references=0;
+		long start=System.currentTimeMillis();
+		Node root=session.getRootNode();
+		for (String name:absPath.split("/")) {
+			if (name.isEmpty())
+				continue;
+			root=root.hasNode(name)?root.getNode(name):root.addNode(name);
+		}
+		generate(root, 1);
+		session.save();
+		log.info("Generated "+nodes+" nodes, "+binaries+" binaries ("+binaryBytes+" bytes) and "+references+" references under "+absPath+
+				" in "+(System.currentTimeMillis()-start)/1000+"s");
+		return nodes;
+	}
+	
+	private void generate(Node parent, int level) throws RepositoryException {
+		for (int i=0;i<fanOut;i++) {
+			Node node=addNode(parent, "n"+i/sameNameSiblings);
+			addProperties(node);
+			nodes++;
+			if (nodes%saveInterval==0) {
+				parent.getSession().save();
+				log.debug("Generated "+nodes+" nodes");
+			}
+			if (level<depth)
+				generate(node, level+1);
+		}
+	}
+	
+	private Node addNode(Node parent, String name) throws RepositoryException {
+		//the identifier is drawn even if it is not used, so that the rest of the content does not depend on the session
+		String identifier=new UUID(random.nextLong(), random.nextLong()).toString();
+		Node node=parent instanceof NodeImpl?((NodeImpl)parent).addNodeWithUuid(name, nodeType, identifier):parent.addNode(name, nodeType);
+		if (referenceRatio>0) {
+			node.addMixin(MIX_REFERENCEABLE);
+			targets[(int)(nodes%REFERENCE_TARGETS)]=node.getIdentifier();
+		}
+		return node;
+	}
+	
+	private void addProperties(Node node) throws RepositoryException {
+		for (int i=0;i<properties;i++) {
+			String name="p"+i;
+			switch (i%PROPERTY_TYPES) {
+			case 0:
+				node.setProperty(name, nextString());
+				break;
+			case 1:
+				node.setProperty(name, random.nextLong());
+				break;
+			case 2:
+				node.setProperty(name, random.nextDouble());
+				break;
+			case 3:
+				node.setProperty(name, random.nextBoolean());
+				break;
+			case 4:
+				Calendar date=Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+				date.setTimeInMillis(BASE_DATE+(long)(random.nextDouble()*DATE_RANGE));
+				node.setProperty(name, date);
+				break;
+			default:
+				String[] values=new String[1+random.nextInt(3)];
+				for (int j=0;j<values.length;j++) {
+					values[j]=nextString();
+				}
+				node.setProperty(name, values);
+			}
+		}
+		if (binaryRatio>0 && random.nextDouble()<binaryRatio) {
+			long size=nextBinarySize();
+			node.setProperty("data", factory.createBinary(new RandomInputStream(random.nextLong(), size)));
+			binaries++;
+			binaryBytes+=size;
+		}
+		if (referenceRatio>0 && nodes>0 && random.nextDouble()<referenceRatio) {
+			String target=targets[random.nextInt((int)Math.min(nodes, REFERENCE_TARGETS))];
+			node.setProperty("ref", factory.createValue(target, PropertyType.REFERENCE));
+			references++;
+		}
+	}
+	
+	private String nextString() {
+		StringBuilder builder=new StringBuilder(stringLength);
+		for (int i=0;i<stringLength;i++) {
+			builder.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * @return size drawn log-uniformly between the minimum and maximum binary sizes, so that small binaries are frequent and large ones rare
+	 */
+	private long nextBinarySize() {
+		if (maxBinarySize<=minBinarySize)
+			return minBinarySize;
+		double min=Math.log(Math.max(1, minBinarySize));
+		double max=Math.log(maxBinarySize);
+		return Math.max(minBinarySize, Math.round(Math.exp(min+random.nextDouble()*(max-min))));
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public int getFanOut() {
+		return fanOut;
+	}
+
+	/**
+	 * @param fanOut - number of child nodes of every node above the last level
+	 */
+	public void setFanOut(int fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @param depth - number of levels of nodes below the root of the tree
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	public int getSameNameSiblings() {
+		return sameNameSiblings;
+	}
+
+	/**
+	 * @param sameNameSiblings - number of consecutive child nodes with the same name; 1 for no same-name siblings
+	 */
+	public void setSameNameSiblings(int sameNameSiblings) {
+		this.sameNameSiblings = sameNameSiblings;
+	}
+
+	public int getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @param properties - number of properties of every node, besides data and ref
+	 */
+	public void setProperties(int properties) {
+		this.properties = properties;
+	}
+
+	public int getStringLength() {
+		return stringLength;
+	}
+
+	/**
+	 * @param stringLength - number of characters of string values
+	 */
+	public void setStringLength(int stringLength) {
+		this.stringLength = stringLength;
+	}
+
+	public double getBinaryRatio() {
+		return binaryRatio;
+	}
+
+	/**
+	 * @param binaryRatio - probability of a node to have a binary property, from 0 to 1
+	 */
+	public void setBinaryRatio(double binaryRatio) {
+		this.binaryRatio = binaryRatio;
+	}
+
+	public long getMinBinarySize() {
+		return minBinarySize;
+	}
+
+	public void setMinBinarySize(long minBinarySize) {
+		this.minBinarySize = minBinarySize;
+	}
+
+	public long getMaxBinarySize() {
+		return maxBinarySize;
+	}
+
+	public void setMaxBinarySize(long maxBinarySize) {
+		this.maxBinarySize = maxBinarySize;
+	}
+
+	public double getReferenceRatio() {
+		return referenceRatio;
+	}
+
+	/**
+	 * @param referenceRatio - probability of a node to reference a node generated before it, from 0 to 1
+	 */
+	public void setReferenceRatio(double referenceRatio) {
+		this.referenceRatio = referenceRatio;
+	}
+
+	public String getNodeType() {
+		return nodeType;
+	}
+
+	public void setNodeType(String nodeType) {
+		this.nodeType = nodeType;
+	}
+
+	public int getSaveInterval() {
+		return saveInterval;
+	}
+
+	/**
+	 * @param saveInterval - number of nodes generated from which the session is saved
+	 */
+	public void setSaveInterval(int saveInterval) {
+		this.saveInterval = saveInterval;
+	}
+	
+	/**
+	 * 
+	 * Stream of pseudo-random bytes, which are the same for the same seed however they are read
+	 *
+	 */
+	private static class RandomInputStream extends InputStream {
+		
+		private Random random;
+		private long remaining;
+		private int current;
+		private int index=4;
+		
+		RandomInputStream(long seed, long size) {
+			random=new Random(seed);
+			remaining=size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining<=0)
+				return -1;
+			if (index==4) {
+				current=random.nextInt();
+				index=0;
+			}
+			remaining--;
+			return (current>>>(8*index++))&0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining<=0)
+				return -1;
+			int count=(int)Math.min(len, remaining);
+			for (int i=0;i<count;i++) {
+				b[off+i]=(byte)read();
+			}
+			return count;
+		}
+		
+	}
+
+}
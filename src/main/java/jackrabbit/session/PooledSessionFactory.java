@@ -0,0 +1,454 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.session;
+
+import jackrabbit.metrics.Histogram;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 
+ * SessionFactory lending the sessions of another SessionFactory from one pool per workspace instead of logging in every time. Logging out
+ * a session lent returns it to its pool once refreshed without keeping its changes, so that it holds neither transient changes nor stale
+ * item states; the session lent can no longer be used afterwards. A pool holds at most maxSize sessions, lent or idle, and a borrower waits
+ * for one to be returned beyond that. Sessions idle for longer than the idle timeout are logged out when the pools are next used.
+ * Sessions must be logged out through the session lent: logging out the session of an item logs out the underlying session, which is then 
+ * discarded by the pool. Instances can be shared between threads.
+ *
+ */
+public class PooledSessionFactory implements SessionFactory {
+	
+	protected static Log log=LogFactory.getLog(PooledSessionFactory.class);
+	
+	public static final int DEFAULT_MAX_SIZE=8;
+	public static final long DEFAULT_IDLE_TIMEOUT=60000;
+	public static final long DEFAULT_MAX_WAIT=60000;
+	
+	private SessionFactory sf;
+	private int maxSize;
+	private long idleTimeout=DEFAULT_IDLE_TIMEOUT;
+	private long maxWait=DEFAULT_MAX_WAIT;
+	//pools by workspace name, null for the default workspace
+	private Map<String, Pool> pools=new HashMap<String, Pool>();
+	private boolean closed;
+	private long created;
+	private long borrowed;
+	private long reused;
+	private long evicted;
+	private long discarded;
+	private long waits;
+	//microseconds to borrow a session, including the login of the sessions created
+	private Histogram borrowTimes=new Histogram();
+	
+	public PooledSessionFactory(SessionFactory sf) {
+		this(sf, DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * @param sf - factory of the sessions pooled
+	 * @param maxSize - maximum number of sessions of a workspace, lent or idle
+	 */
+	public PooledSessionFactory(SessionFactory sf, int maxSize) {
+		this.sf=sf;
+		this.maxSize=maxSize;
+	}
+
+	public Session getSession() throws RepositoryException {
+		return borrow(null);
+	}
+
+	public Session getSession(String workspace) throws RepositoryException {
+		return borrow(workspace);
+	}
+	
+	/**
+	 * @param workspace - null for the default workspace
+	 * @return session lent, reused from the pool of workspace if one is idle
+	 * @throws RepositoryException if no session is returned within the maximum wait while the pool is full
+	 */
+	private Session borrow(String workspace) throws RepositoryException {
+		long start=System.nanoTime();
+		Session session=null;
+		Pool pool;
+		List<Session> expired;
+		synchronized (this) {
+			if (closed)
+				throw new RepositoryException("Session pool is closed");
+			expired=evictIdle();
+			pool=pools.get(workspace);
+			if (pool==null) {
+				pool=new Pool();
+				pools.put(workspace, pool);
+			}
+			long deadline=start+TimeUnit.MILLISECONDS.toNanos(maxWait);
+			boolean waited=false;
+			while (true) {
+				if (!pool.idle.isEmpty()) {
+					session=pool.idle.removeFirst().session;
+					if (session.isLive()) {
+						reused++;
+						break;
+					}
+					session=null;
+					pool.size--;
+					discarded++;
+					continue;
+				}
+				if (pool.size<maxSize) {
+					//reserved for the session logged in below
+					pool.size++;
+					break;
+				}
+				long remaining=deadline-System.nanoTime();
+				if (remaining<=0)
+					throw new RepositoryException("No session of "+getName(workspace)+" returned to the pool within "+maxWait+" ms: all "+maxSize+" are in use");
+				if (!waited) {
+					waits++;
+					waited=true;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RepositoryException("Interrupted while waiting for a session of "+getName(workspace));
+				}
+				if (closed)
+					throw new RepositoryException("Session pool is closed");
+			}
+			borrowed++;
+		}
+		logout(expired);
+		if (session==null) {
+			try {
+				session=workspace==null?sf.getSession():sf.getSession(workspace);
+			} catch (RepositoryException e) {
+				synchronized (this) {
+					pool.size--;
+					borrowed--;
+					notifyAll();
+				}
+				throw e;
+			}
+			synchronized (this) {
+				created++;
+			}
+		}
+		borrowTimes.record((System.nanoTime()-start)/1000);
+		return lend(session, workspace);
+	}
+	
+	/**
+	 * @param session
+	 * @param workspace
+	 * @return proxy of session returning it to the pool of workspace when logged out
+	 */
+	private Session lend(Session session, String workspace) {
+		Set<Class<?>> interfaces=new LinkedHashSet<Class<?>>();
+		for (Class<?> c=session.getClass();c!=null;c=c.getSuperclass()) {
+			addInterfaces(c, interfaces);
+		}
+		return (Session)Proxy.newProxyInstance(session.getClass().getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()]), 
+				new LentSession(session, workspace));
+	}
+	
+	/**
+	 * Add the public interfaces of c and their super interfaces, which a proxy of c can implement
+	 * @param c
+	 * @param interfaces
+	 */
+	private static void addInterfaces(Class<?> c, Set<Class<?>> interfaces) {
+		for (Class<?> i:c.getInterfaces()) {
+			if (Modifier.isPublic(i.getModifiers()))
+				interfaces.add(i);
+			addInterfaces(i, interfaces);
+		}
+	}
+	
+	/**
+	 * Return a session to the pool of its workspace, or log it out if it is no longer usable or the pool is closed
+	 * @param session
+	 * @param workspace
+	 */
+	private void release(Session session, String workspace) {
+		boolean keep=session.isLive();
+		if (keep) {
+			try {
+				session.refresh(false);
+			} catch (RepositoryException e) {
+				log.warn("Discarding session of "+getName(workspace)+" which cannot be refreshed: "+e.getMessage(), e);
+				keep=false;
+			}
+		}
+		List<Session> expired;
+		synchronized (this) {
+			Pool pool=pools.get(workspace);
+			keep=keep && !closed;
+			if (keep) {
+				pool.idle.addFirst(new IdleSession(session));
+			} else {
+				pool.size--;
+				discarded++;
+			}
+			expired=evictIdle();
+			notifyAll();
+		}
+		if (!keep && session.isLive())
+			session.logout();
+		logout(expired);
+	}
+	
+	/**
+	 * Remove the sessions idle for longer than the idle timeout from the pools; the caller logs them out
+	 * @return sessions removed
+	 */
+	private List<Session> evictIdle() {
+		List<Session> expired=new ArrayList<Session>();
+		if (idleTimeout<=0)
+			return expired;
+		long now=System.currentTimeMillis();
+		for (Pool pool:pools.values()) {
+			//the least recently returned sessions are last
+			while (!pool.idle.isEmpty() && now-pool.idle.getLast().since>idleTimeout) {
+				expired.add(pool.idle.removeLast().session);
+				pool.size--;
+				evicted++;
+			}
+		}
+		return expired;
+	}
+	
+	private static void logout(List<Session> sessions) {
+		for (Session session:sessions) {
+			session.logout();
+		}
+	}
+	
+	/**
+	 * Log out the idle sessions and the sessions lent once they are returned. The factory cannot lend sessions anymore.
+	 */
+	public void close() {
+		List<Session> idle=new ArrayList<Session>();
+		synchronized (this) {
+			closed=true;
+			for (Pool pool:pools.values()) {
+				for (Iterator<IdleSession> it=pool.idle.iterator();it.hasNext();) {
+					idle.add(it.next().session);
+					pool.size--;
+				}
+				pool.idle.clear();
+			}
+			notifyAll();
+		}
+		logout(idle);
+	}
+	
+	private static String getName(String workspace) {
+		return workspace==null?"the default workspace":workspace+" workspace";
+	}
+
+	/**
+	 * @return number of sessions logged in by the pool
+	 */
+	public synchronized long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return number of sessions lent
+	 */
+	public synchronized long getBorrowed() {
+		return borrowed;
+	}
+
+	/**
+	 * @return number of sessions lent which were idle in the pool instead of logged in
+	 */
+	public synchronized long getReused() {
+		return reused;
+	}
+
+	/**
+	 * @return number of sessions logged out for being idle for longer than the idle timeout
+	 */
+	public synchronized long getEvicted() {
+		return evicted;
+	}
+
+	/**
+	 * @return number of sessions removed from the pool for not being live or failing to refresh, or returned once the pool was closed
+	 */
+	public synchronized long getDiscarded() {
+		return discarded;
+	}
+
+	/**
+	 * @return number of borrowers which waited for a session to be returned to a full pool
+	 */
+	public synchronized long getWaits() {
+		return waits;
+	}
+	
+	/**
+	 * @return number of sessions lent and not returned yet
+	 */
+	public synchronized int getActive() {
+		int active=0;
+		for (Pool pool:pools.values()) {
+			active+=pool.size-pool.idle.size();
+		}
+		return active;
+	}
+	
+	/**
+	 * @return number of sessions in the pools waiting to be lent
+	 */
+	public synchronized int getIdle() {
+		int idle=0;
+		for (Pool pool:pools.values()) {
+			idle+=pool.idle.size();
+		}
+		return idle;
+	}
+
+	/**
+	 * @return microseconds to borrow a session, including the login of the sessions created and the waits for a full pool
+	 */
+	public Histogram getBorrowTimes() {
+		return borrowTimes;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @param idleTimeout - milliseconds after which a session idle in the pool is logged out; 0 to keep idle sessions until the pool is closed
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * @param maxWait - milliseconds to wait for a session to be returned to a full pool before failing
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+	
+	public synchronized String toString() {
+		return String.format("%d sessions borrowed (%.0f%% reused, borrow p50 %d us, p99 %d us), %d logged in, %d evicted, %d discarded, %d waits, %d active, %d idle",
+				borrowed, borrowed>0?100.0*reused/borrowed:0, borrowTimes.getPercentile(50), borrowTimes.getPercentile(99), created, evicted, discarded, waits, 
+				getActive(), getIdle());
+	}
+	
+	/**
+	 * 
+	 * Sessions of a workspace: the number of sessions lent or idle and the idle ones, the most recently returned first
+	 *
+	 */
+	private static class Pool {
+		
+		private int size;
+		private Deque<IdleSession> idle=new LinkedList<IdleSession>();
+		
+	}
+	
+	private static class IdleSession {
+		
+		private Session session;
+		private long since=System.currentTimeMillis();
+		
+		IdleSession(Session session) {
+			this.session=session;
+		}
+		
+	}
+	
+	/**
+	 * 
+	 * Forwards the calls to a session lent until it is logged out, which returns it to its pool instead
+	 *
+	 */
+	private class LentSession implements InvocationHandler {
+		
+		private Session session;
+		private String workspace;
+		private boolean returned;
+		
+		LentSession(Session session, String workspace) {
+			this.session=session;
+			this.workspace=workspace;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name=method.getName();
+			if (name.equals("equals") && args!=null && args.length==1)
+				return proxy==args[0];
+			if (name.equals("hashCode") && args==null)
+				return System.identityHashCode(proxy);
+			synchronized (this) {
+				if (name.equals("logout") && args==null) {
+					if (!returned) {
+						returned=true;
+						release(session, workspace);
+					}
+					return null;
+				}
+				if (name.equals("isLive") && args==null && returned)
+					return false;
+				if (returned)
+					throw new IllegalStateException("Session of "+getName(workspace)+" used after being returned to the pool");
+			}
+			try {
+				return method.invoke(session, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		
+	}
+
+}
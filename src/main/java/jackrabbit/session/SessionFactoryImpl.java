@@ -17,6 +17,8 @@
 
 package jackrabbit.session;
 
+import jackrabbit.metrics.MigrationMetrics;
+
 import javax.jcr.Credentials;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
@@ -37,11 +39,15 @@ public class SessionFactoryImpl implements SessionFactory {
  	}
 
 	public Session getSession() throws RepositoryException {
-		return repository.login(credentials);
+		Session session=repository.login(credentials);
+		MigrationMetrics.getInstance().sessionOpened(session);
+		return session;
 	}
 	
 	public Session getSession(String workspaceName) throws RepositoryException {
-		return repository.login(credentials, workspaceName);
+		Session session=repository.login(credentials, workspaceName);
+		MigrationMetrics.getInstance().sessionOpened(session);
+		return session;
 	}
 
 	public Repository getRepository() {
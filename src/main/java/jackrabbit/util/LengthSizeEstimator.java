@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.util;
+
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+
+/**
+ * 
+ * Size of the value(s) of a property from their length, without reading binary content or converting values to String. Binary sizes
+ * come from the persistence manager or data store and fixed size types are counted as the longest length of their String form.
+ *
+ */
+public class LengthSizeEstimator implements SizeEstimator {
+	
+	public static final int BOOLEAN_LENGTH=5;
+	public static final int LONG_LENGTH=20;
+	public static final int DOUBLE_LENGTH=24;
+	public static final int DATE_LENGTH=29;
+
+	public long getPropertySize(Property property) throws RepositoryException {
+		int fixedLength=getFixedLength(property.getType());
+		if (property.isMultiple()) {
+			if (fixedLength>0)
+				return (long)fixedLength*property.getValues().length;
+			long[] lengths=property.getLengths();
+			long size=0;
+			for (int i=0;i<lengths.length;i++) {
+				size+=Math.max(0, lengths[i]);
+			}
+			return size;
+		}
+		if (fixedLength>0)
+			return fixedLength;
+		return Math.max(0, property.getLength());
+	}
+	
+	/**
+	 * @param type
+	 * @return maximum length of the String form of a value of the given type, or 0 if it is not bounded
+	 */
+	private static int getFixedLength(int type) {
+		switch (type) {
+			case PropertyType.BOOLEAN:
+				return BOOLEAN_LENGTH;
+			case PropertyType.LONG:
+				return LONG_LENGTH;
+			case PropertyType.DOUBLE:
+				return DOUBLE_LENGTH;
+			case PropertyType.DATE:
+				return DATE_LENGTH;
+			default:
+				return 0;
+		}
+	}
+
+}
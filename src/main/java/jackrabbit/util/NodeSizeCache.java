@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+
+/**
+ * 
+ * Computes the size of a node and all its descendants in a single post-order traversal and remembers the size of every node visited
+ * by identifier, so that later lookups of any node in the subtree do not read its properties again
+ *
+ */
+public class NodeSizeCache {
+	
+	//size, number of nodes, number of properties and number of binary values of the subtree of every node
+	private Map<String, long[]> sizes=new HashMap<String, long[]>();
+	private SizeEstimator estimator;
+	
+	public NodeSizeCache() {
+		this(new LengthSizeEstimator());
+	}
+	
+	public NodeSizeCache(SizeEstimator estimator) {
+		this.estimator=estimator;
+	}
+	
+	/**
+	 * Get sum of all properties sizes of a node and all its descendants, computing and caching it for the whole subtree if not cached yet
+	 * @param node
+	 * @return sum of properties sizes
+	 * @throws RepositoryException
+	 */
+	public long getDescendantsSize(Node node) throws RepositoryException {
+		return get(node)[0];
+	}
+	
+	/**
+	 * Get number of nodes of a node and all its descendants, computing and caching it along with their size if not cached yet
+	 * @param node
+	 * @return number of nodes, including node itself
+	 * @throws RepositoryException
+	 */
+	public long getDescendantsCount(Node node) throws RepositoryException {
+		return get(node)[1];
+	}
+	
+	/**
+	 * Get number of properties of a node and all its descendants, computing and caching it along with their size if not cached yet
+	 * @param node
+	 * @return number of properties
+	 * @throws RepositoryException
+	 */
+	public long getDescendantsPropertyCount(Node node) throws RepositoryException {
+		return get(node)[2];
+	}
+	
+	/**
+	 * Get number of binary values of a node and all its descendants, computing and caching it along with their size if not cached yet
+	 * @param node
+	 * @return number of binary values
+	 * @throws RepositoryException
+	 */
+	public long getDescendantsBinaryCount(Node node) throws RepositoryException {
+		return get(node)[3];
+	}
+	
+	private long[] get(Node node) throws RepositoryException {
+		String id=node.getIdentifier();
+		long[] cached=sizes.get(id);
+		if (cached!=null)
+			return cached;
+		long[] result=getNodeSizes(node);
+		NodeIterator children=node.getNodes();
+		while (children.hasNext()) {
+			long[] child=get(children.nextNode());
+			for (int i=0;i<result.length;i++) {
+				result[i]+=child[i];
+			}
+		}
+		sizes.put(id, result);
+		return result;
+	}
+	
+	/**
+	 * Get the sizes of a node without its descendants, which are not cached
+	 * @param node
+	 * @return size of the properties, number of nodes (1), number of properties and number of binary values of node
+	 * @throws RepositoryException
+	 */
+	public long[] getNodeSizes(Node node) throws RepositoryException {
+		long[] sizes={0, 1, 0, 0};
+		PropertyIterator properties=node.getProperties();
+		while (properties.hasNext()) {
+			Property property=properties.nextProperty();
+			sizes[0]+=estimator.getPropertySize(property);
+			sizes[2]++;
+			if (property.getType()==PropertyType.BINARY)
+				sizes[3]+=property.isMultiple()?property.getLengths().length:1;
+		}
+		return sizes;
+	}
+	
+	/**
+	 * @param node
+	 * @return whether the size of node has been computed
+	 * @throws RepositoryException
+	 */
+	public boolean contains(Node node) throws RepositoryException {
+		return sizes.containsKey(node.getIdentifier());
+	}
+	
+	/**
+	 * @return number of nodes cached
+	 */
+	public int size() {
+		return sizes.size();
+	}
+	
+	public void clear() {
+		sizes.clear();
+	}
+
+	public SizeEstimator getEstimator() {
+		return estimator;
+	}
+
+}
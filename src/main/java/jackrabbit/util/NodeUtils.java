@@ -85,6 +85,22 @@ public class NodeUtils {
         }
 		return size;
 	}
+	
+	/**
+	 * Get sum of estimated sizes of all properties of a node
+	 * @param node
+	 * @param estimator
+	 * @return sum of sizes
+	 * @throws RepositoryException
+	 */
+	public static long getPropertiesSize(Node node, SizeEstimator estimator) throws RepositoryException {
+		long size=0;
+		PropertyIterator properties=node.getProperties();
+		while (properties.hasNext()) {
+            size+=estimator.getPropertySize(properties.nextProperty());
+        }
+		return size;
+	}
 		
 	/**
 	 * Get size of value(s) as String of a property
@@ -116,7 +132,23 @@ public class NodeUtils {
 		long size=getPropertiesSize(node);
 		NodeIterator children = node.getNodes();
         while (children.hasNext()) {
-        	size+=getPropertiesSize(children.nextNode());
+        	size+=getDescendantsSize(children.nextNode());
+        }	
+		return size;
+	}
+	
+	/**
+	 * Get sum of estimated sizes of all properties of all descendants of a node, including the node itself
+	 * @param node
+	 * @param estimator
+	 * @return sum of properties sizes
+	 * @throws RepositoryException
+	 */
+	public static long getDescendantsSize(Node node, SizeEstimator estimator) throws RepositoryException {
+		long size=getPropertiesSize(node, estimator);
+		NodeIterator children = node.getNodes();
+        while (children.hasNext()) {
+        	size+=getDescendantsSize(children.nextNode(), estimator);
         }	
 		return size;
 	}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.node.WorkspaceCopier;
+import jackrabbit.repository.RepositorySource;
+import jackrabbit.repository.TestRepositories;
+import jackrabbit.session.SessionFactory;
+import jackrabbit.util.RegexModifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RepositoryMigratorTest {
+	
+	private TestRepositories repositories;
+	private String[] sources;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("migrator");
+		sources=new String[3];
+		for (int i=0;i<2;i++) {
+			sources[i]=repositories.getPath("src/r"+i);
+			long[] values=new long[10];
+			for (int j=0;j<values.length;j++) {
+				values[j]=i*10+j;
+			}
+			repositories.create(sources[i], values);
+		}
+		File file=new File(repositories.getDir(), "src/file");
+		FileUtils.writeStringToFile(file, "not a repository");
+		sources[2]=file.getPath();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		repositories.close();
+	}
+	
+	@Test
+	public void migrate() throws RepositoryException, IOException {
+		final Map<String, WorkspaceCopier> copiers=Collections.synchronizedMap(new HashMap<String, WorkspaceCopier>());
+		RepositoryMigrator migrator=new RepositoryMigrator(getSource(sources), new RegexModifier("/src/", "/dest/"), TestRepositories.CONF, TestRepositories.CONF, TestRepositories.CREDENTIALS, TestRepositories.CREDENTIALS, 
+				new RepositoryMigrator.CopierFactory() {
+			public WorkspaceCopier getCopier(String source, SessionFactory srcSf, SessionFactory destSf) {
+				//the node is copied under the destination path
+				WorkspaceCopier copier=new WorkspaceCopier(srcSf, destSf, "/data", "/data");
+				copier.setNodeLimit(2);
+				copier.setThreads(2);
+				copiers.put(source, copier);
+				return copier;
+			}
+		});
+		migrator.setThreads(2);
+		migrator.setCopyThreads(2);
+		File report=new File(repositories.getDir(), "report.txt");
+		migrator.setReportFile(report);
+		List<RepositoryStatus> statuses=migrator.migrate();
+		assertEquals(3, statuses.size());
+		for (int i=0;i<2;i++) {
+			assertEquals(WorkspaceStatus.State.DONE, statuses.get(i).getState());
+			assertEquals(repositories.getPath("dest/r"+i), statuses.get(i).getDestination());
+			//the progress of each repository counts its own nodes only, /data and its children
+			assertEquals(11, copiers.get(sources[i]).getCopied().getNodes());
+			Session session=TestRepositories.getSessionFactory(repositories.open(statuses.get(i).getDestination())).getSession();
+			try {
+				for (int j=0;j<10;j++) {
+					assertEquals(i*10+j, session.getProperty("/data/data/n"+j+"/p").getLong());
+				}
+			} finally {
+				session.logout();
+			}
+		}
+		//a source which is not a repository fails on its own
+		assertEquals(WorkspaceStatus.State.FAILED, statuses.get(2).getState());
+		List<String> lines=FileUtils.readLines(report, "UTF-8");
+		assertEquals(4, lines.size());
+		assertTrue(lines.get(1).startsWith(sources[0]+"\t"+statuses.get(0).getDestination()+"\tDONE\t"));
+		assertTrue(lines.get(3).startsWith(sources[2]+"\t"+statuses.get(2).getDestination()+"\tFAILED\t"));
+	}
+	
+	@Test
+	public void sharedDestination() {
+		RepositoryMigrator migrator=new RepositoryMigrator(getSource(new String[] {sources[0], sources[1]}), new RegexModifier("/r\\d$", "/r"), 
+				TestRepositories.CONF, TestRepositories.CONF, TestRepositories.CREDENTIALS, TestRepositories.CREDENTIALS, null);
+		for (RepositoryStatus status:migrator.migrate()) {
+			assertEquals(WorkspaceStatus.State.FAILED, status.getState());
+		}
+	}
+	
+	private static RepositorySource getSource(final String[] sources) {
+		return new RepositorySource() {
+			public String[] getSources() {
+				return sources;
+			}
+		};
+	}
+
+}
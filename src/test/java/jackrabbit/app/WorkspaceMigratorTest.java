@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.app;
+
+import static org.junit.Assert.assertEquals;
+import jackrabbit.node.WorkspaceCopier;
+import jackrabbit.repository.TestRepositories;
+import jackrabbit.session.SessionFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkspaceMigratorTest {
+	
+	private static final List<String> WORKSPACES=Arrays.asList("ws0", "ws1", "ws2");
+	
+	private TestRepositories repositories;
+	private SessionFactory srcSf;
+	private SessionFactory destSf;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("workspaces");
+		srcSf=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("src")));
+		destSf=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("dest")));
+		Session srcSession=srcSf.getSession();
+		Session destSession=destSf.getSession();
+		try {
+			for (String workspace:WORKSPACES) {
+				srcSession.getWorkspace().createWorkspace(workspace);
+				destSession.getWorkspace().createWorkspace(workspace);
+				Session session=srcSf.getSession(workspace);
+				try {
+					//the nodes of each workspace are /data and its 3 children
+					TestRepositories.addNodes(session, "/data", 0, 1, 2);
+				} finally {
+					session.logout();
+				}
+			}
+		} finally {
+			srcSession.logout();
+			destSession.logout();
+		}
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		repositories.close();
+	}
+	
+	@Test
+	public void progressAfterPreScan() throws IOException, RepositoryException {
+		Locale locale=Locale.getDefault();
+		//a locale with a decimal comma, which the progress file does not use
+		Locale.setDefault(Locale.GERMANY);
+		try {
+			WorkspaceMigrator migrator=new WorkspaceMigrator(new WorkspaceCopier(srcSf, destSf, "/data", "/data"), 2);
+			migrator.setPreScan(true);
+			File file=new File(repositories.getDir(), "progress.properties");
+			migrator.setProgressFile(file);
+			for (WorkspaceStatus status:migrator.migrate(WORKSPACES)) {
+				assertEquals(WorkspaceStatus.State.DONE, status.getState());
+				assertEquals(4, status.getTotalNodes());
+			}
+			Properties progress=load(file);
+			assertEquals("DONE", progress.getProperty("state"));
+			assertEquals("12", progress.getProperty("nodes.total"));
+			assertEquals("12", progress.getProperty("nodes.done"));
+			assertEquals("100.0", progress.getProperty("percent"));
+			assertEquals("4", progress.getProperty("workspace.ws1.nodes.total"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+	
+	@Test
+	public void failOneWorkspace() throws IOException, RepositoryException {
+		WorkspaceCopier copier=new WorkspaceCopier(srcSf, destSf, "/data", "/data") {
+			public void copy(String workspace) throws RepositoryException, IOException {
+				if (workspace.equals("ws1"))
+					throw new RepositoryException("Cannot copy "+workspace);
+				super.copy(workspace);
+			}
+		};
+		WorkspaceMigrator migrator=new WorkspaceMigrator(copier, 3);
+		File file=new File(repositories.getDir(), "progress.properties");
+		migrator.setProgressFile(file);
+		List<WorkspaceStatus> statuses=migrator.migrate(WORKSPACES);
+		assertEquals(WorkspaceStatus.State.DONE, statuses.get(0).getState());
+		assertEquals(WorkspaceStatus.State.FAILED, statuses.get(1).getState());
+		assertEquals("Cannot copy ws1", statuses.get(1).getError());
+		assertEquals(WorkspaceStatus.State.DONE, statuses.get(2).getState());
+		//the other workspaces are copied while ws1 fails, under the destination path
+		for (String workspace:new String[] {"ws0", "ws2"}) {
+			Session session=destSf.getSession(workspace);
+			try {
+				assertEquals(3, session.getNode("/data/data").getNodes().getSize());
+			} finally {
+				session.logout();
+			}
+		}
+		Properties progress=load(file);
+		assertEquals("FAILED", progress.getProperty("state"));
+		assertEquals("2", progress.getProperty("workspaces.done"));
+		assertEquals("1", progress.getProperty("workspaces.failed"));
+		assertEquals("FAILED", progress.getProperty("workspace.ws1.state"));
+	}
+	
+	private static Properties load(File file) throws IOException {
+		Properties properties=new Properties();
+		InputStream in=new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return properties;
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MigrationMetricsTest {
+	
+	@Test
+	public void percentiles() {
+		Histogram histogram=new Histogram();
+		assertEquals(0, histogram.getPercentile(50));
+		for (int i=1;i<=100;i++) {
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50.5, histogram.getMean(), 0);
+		//50 is in the bucket from 32 to 63
+		assertEquals(63, histogram.getPercentile(50));
+		assertEquals(100, histogram.getPercentile(99));
+		assertEquals(100, histogram.getMax());
+		histogram.record(0);
+		assertEquals(0, histogram.getPercentile(0.5));
+	}
+	
+	@Test
+	public void register() throws Exception {
+		MigrationMetrics metrics=new MigrationMetrics();
+		metrics.copied(10, 1000);
+		metrics.copied(30, 3000);
+		metrics.error();
+		metrics.register();
+		try {
+			ObjectName name=new ObjectName(MigrationMetrics.OBJECT_NAME);
+			assertEquals(40L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Nodes"));
+			assertEquals(4000L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Bytes"));
+			assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Partitions"));
+			assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Errors"));
+			ManagementFactory.getPlatformMBeanServer().invoke(name, "reset", null, null);
+			assertEquals(0L, metrics.getNodes());
+		} finally {
+			metrics.unregister();
+		}
+	}
+
+}
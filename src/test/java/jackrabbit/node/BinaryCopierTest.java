@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertEquals;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryCopierTest {
+	
+	private static final String CONTENT="content of the binaries shared by several properties, long enough to be kept in the DataStore rather than inline in the property itself";
+	private static final String OTHER_CONTENT="content of a single value of a multiple property";
+	private static final String SIBLING_CONTENT="content of the second same-name sibling";
+	
+	private TestRepositories repositories;
+	private Session srcSession;
+	private Session destSession;
+	
+	@Before
+	public void setUp() throws RepositoryException, IOException {
+		repositories=new TestRepositories("binaries");
+		srcSession=TestRepositories.getSessionFactory(repositories.open(TestRepositories.DATASTORE_CONF, repositories.getPath("src"))).getSession();
+		destSession=TestRepositories.getSessionFactory(repositories.open(TestRepositories.DATASTORE_CONF, repositories.getPath("dest"))).getSession();
+		ValueFactory factory=srcSession.getValueFactory();
+		Node data=srcSession.getRootNode().addNode("data");
+		data.addNode("a").setProperty("p", createValue(factory, CONTENT));
+		Node b=data.addNode("b");
+		b.setProperty("p", createValue(factory, CONTENT));
+		b.setProperty("q", new Value[]{createValue(factory, OTHER_CONTENT), createValue(factory, CONTENT)});
+		data.addNode("s").setProperty("p", createValue(factory, OTHER_CONTENT));
+		data.addNode("s").setProperty("p", createValue(factory, SIBLING_CONTENT));
+		srcSession.save();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		srcSession.logout();
+		destSession.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void reuseCopiedContent() throws RepositoryException, IOException {
+		BinaryCopier copier=new BinaryCopier();
+		NodeCopier.copy(srcSession, destSession, "/data", "/copy", true, new BinaryNodeTransfer(new BufferedNodeTransfer(), copier));
+		assertEquals(3, copier.getCopied());
+		assertEquals(3, copier.getReused());
+		assertEquals(CONTENT.length()*2+OTHER_CONTENT.length(), copier.getReusedBytes());
+		assertContent("/copy/data");
+	}
+	
+	@Test
+	public void reuseContentOfPreviousRun() throws RepositoryException, IOException {
+		NodeCopier.copy(srcSession, destSession, "/data", "/copy", true, new BinaryNodeTransfer(new BufferedNodeTransfer(), new BinaryCopier()));
+		//the second copy is a same-name sibling of the first one in the destination
+		BinaryCopier copier=new BinaryCopier();
+		NodeCopier.copy(srcSession, destSession, "/data", "/copy", true, new BinaryNodeTransfer(new BufferedNodeTransfer(), copier));
+		assertEquals(0, copier.getCopied());
+		assertEquals(6, copier.getReused());
+		assertContent("/copy/data[2]");
+	}
+	
+	private void assertContent(String path) throws RepositoryException, IOException {
+		Node data=destSession.getNode(path);
+		assertEquals(CONTENT, getContent(data.getProperty("a/p").getValue()));
+		assertEquals(CONTENT, getContent(data.getProperty("b/p").getValue()));
+		Value[] values=data.getProperty("b/q").getValues();
+		assertEquals(OTHER_CONTENT, getContent(values[0]));
+		assertEquals(CONTENT, getContent(values[1]));
+		assertEquals(OTHER_CONTENT, getContent(data.getProperty("s/p").getValue()));
+		assertEquals(SIBLING_CONTENT, getContent(data.getProperty("s[2]/p").getValue()));
+	}
+	
+	private static Value createValue(ValueFactory factory, String content) throws RepositoryException, IOException {
+		return factory.createValue(factory.createBinary(new ByteArrayInputStream(content.getBytes("UTF-8"))));
+	}
+	
+	private static String getContent(Value value) throws RepositoryException, IOException {
+		InputStream in=value.getBinary().getStream();
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+}
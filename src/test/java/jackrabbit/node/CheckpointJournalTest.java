@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointJournalTest {
+	
+	private File file;
+	
+	@Before
+	public void setUp() throws IOException {
+		file=File.createTempFile("journal", ".log");
+	}
+	
+	@Test
+	public void resume() throws Exception {
+		CheckpointJournal journal=new CheckpointJournal(file, false);
+		journal.started("default", "/root/nodes");
+		journal.completed("default", "/root/nodes");
+		journal.started("default", "/root/nodes/a");
+		journal.started("ws1", "/root/nodes");
+		journal.close();
+		//a record cut short by a crash
+		FileOutputStream out=new FileOutputStream(file, true);
+		out.write("DONE\tws1\t/root/no".getBytes("UTF-8"));
+		out.close();
+		
+		journal=new CheckpointJournal(file, true);
+		assertTrue(journal.isCompleted("default", "/root/nodes"));
+		assertTrue(journal.isInFlight("default", "/root/nodes/a"));
+		assertFalse(journal.isCompleted("default", "/root/nodes/a"));
+		assertTrue(journal.isInFlight("ws1", "/root/nodes"));
+		journal.completed("ws1", "/root/nodes");
+		journal.close();
+		
+		journal=new CheckpointJournal(file, true);
+		assertTrue(journal.isCompleted("ws1", "/root/nodes"));
+		journal.close();
+		
+		journal=new CheckpointJournal(file, false);
+		assertFalse(journal.isCompleted("default", "/root/nodes"));
+		journal.close();
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+}
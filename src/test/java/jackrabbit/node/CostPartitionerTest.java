@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.repository.TestRepositories;
+import jackrabbit.session.SessionFactory;
+import jackrabbit.util.NodeSizeCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CostPartitionerTest {
+	
+	private TestRepositories repositories;
+	private SessionFactory sf;
+	private Session session;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("partitioner");
+		sf=TestRepositories.getSessionFactory(repositories.open());
+		session=sf.getSession();
+		//many small nodes under /data/a, a few large ones under /data/b
+		Node data=session.getRootNode().addNode("data");
+		Node a=data.addNode("a");
+		for (int i=0;i<10;i++) {
+			a.addNode("n"+i).setProperty("p", "v");
+		}
+		Node b=data.addNode("b").addNode("large");
+		b.setProperty("p", new String(new char[5000]).replace('\0', 'x'));
+		b.setProperty("data", session.getValueFactory().createBinary(new ByteArrayInputStream(new byte[100])));
+		session.save();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		session.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void countDescendants() throws RepositoryException {
+		NodeSizeCache sizes=new NodeSizeCache();
+		Node data=session.getNode("/data");
+		assertEquals(14, sizes.getDescendantsCount(data));
+		assertEquals(1, sizes.getDescendantsBinaryCount(data));
+		//jcr:primaryType of every node, p of the nodes under /data/a and p and data of /data/b/large
+		assertEquals(14+10+2, sizes.getDescendantsPropertyCount(data));
+		assertEquals(100, sizes.getDescendantsSize(session.getNode("/data/b/large"))-5000-"nt:unstructured".length());
+	}
+	
+	@Test
+	public void partitionBySize() throws RepositoryException {
+		Map<String, Boolean> partitions=partition(new NodeSizePartitioner(1000));
+		assertEquals(4, partitions.size());
+		assertEquals(false, partitions.get("/data/a"));
+		assertEquals(true, partitions.get("/data/b"));
+		assertEquals(true, partitions.get("/data/b/large"));
+	}
+	
+	@Test
+	public void partitionByCount() throws RepositoryException {
+		Map<String, Boolean> partitions=partition(new NodeCountPartitioner(5));
+		assertEquals(13, partitions.size());
+		assertEquals(true, partitions.get("/data/a"));
+		assertEquals(false, partitions.get("/data/a/n0"));
+		assertEquals(false, partitions.get("/data/b"));
+	}
+	
+	@Test
+	public void partitionByWeightedCost() throws RepositoryException {
+		//only binaries cost
+		Map<String, Boolean> partitions=partition(new WeightedCostPartitioner(1, 0, 0, 0, 1));
+		assertEquals(false, partitions.get("/data/a"));
+		assertEquals(true, partitions.get("/data/b"));
+		assertEquals(true, partitions.get("/data/b/large"));
+		//with the default weights, the 11 nodes and 21 properties of /data/a cost more than the 2 nodes and 5 KB of /data/b
+		assertEquals(partition(new NodeCountPartitioner(5)), partition(new WeightedCostPartitioner(12*1024)));
+		NodeSizeCache sizes=new NodeSizeCache();
+		sizes.getDescendantsSize(session.getNode("/data"));
+		assertEquals(partition(new WeightedCostPartitioner(12*1024)), partition(new WeightedCostPartitioner(12*1024).withSizes(sizes)));
+	}
+	
+	@Test
+	public void packSiblings() throws RepositoryException {
+		Set<Map.Entry<String, Boolean>> entries=new BinPackingPartitioner(new NodeCountPartitioner(5)).partition(session.getNode("/data"));
+		Map<String, Boolean> partitions=partition(new BinPackingPartitioner(new NodeCountPartitioner(5)));
+		assertEquals(6, partitions.size());
+		assertEquals(true, partitions.get("/data/a"));
+		assertEquals(false, partitions.get("/data/a/n0"));
+		assertEquals(false, partitions.get("/data/a/n4"));
+		assertEquals(false, partitions.get("/data/a/n8"));
+		assertEquals(false, partitions.get("/data/b"));
+		for (Map.Entry<String, Boolean> entry:entries) {
+			if (entry.getKey().equals("/data/a/n4"))
+				assertEquals(Arrays.asList("/data/a/n4", "/data/a/n5", "/data/a/n6", "/data/a/n7"), ((SiblingPartition)entry).getPaths());
+			if (entry.getKey().equals("/data/a/n8"))
+				assertEquals(Arrays.asList("/data/a/n8", "/data/a/n9"), ((SiblingPartition)entry).getPaths());
+		}
+	}
+	
+	@Test
+	public void copyPackedSiblings() throws RepositoryException, IOException {
+		session.getWorkspace().createWorkspace("copy");
+		Session destSession=sf.getSession("copy");
+		try {
+			NodePartitioner partitioner=new BinPackingPartitioner(new NodeCountPartitioner(5));
+			NodeCopier.copy(session, new SaveBatch(destSession), "/data", "/data", partitioner, true, new BufferedNodeTransfer(), null);
+			Node a=destSession.getNode("/data/data/a");
+			assertEquals(10, a.getNodes().getSize());
+			for (int i=0;i<10;i++) {
+				assertEquals("v", a.getNode("n"+i).getProperty("p").getString());
+			}
+			assertEquals(5000, destSession.getProperty("/data/data/b/large/p").getLength());
+		} finally {
+			destSession.logout();
+		}
+	}
+	
+	@Test
+	public void iterateInCopyOrder() throws RepositoryException {
+		CostPartitioner[] partitioners={new NodeSizePartitioner(1000), new NodeCountPartitioner(5), new BinPackingPartitioner(new NodeCountPartitioner(5))};
+		for (CostPartitioner partitioner:partitioners) {
+			Set<String> parents=new HashSet<String>();
+			Set<Map.Entry<String, Boolean>> entries=new HashSet<Map.Entry<String, Boolean>>();
+			PartitionIterator partitions=partitioner.iterator(session.getNode("/data"));
+			while (partitions.hasNext()) {
+				Map.Entry<String, Boolean> entry=partitions.next();
+				String parent=entry.getKey().substring(0, entry.getKey().lastIndexOf("/"));
+				assertTrue(entry.getKey().equals("/data") || parents.contains(parent));
+				if (entry.getValue())
+					parents.add(entry.getKey());
+				entries.add(entry);
+			}
+			assertEquals(new HashSet<Map.Entry<String, Boolean>>(partitioner.partition(session.getNode("/data"))), entries);
+		}
+	}
+	
+	private Map<String, Boolean> partition(NodePartitioner partitioner) throws RepositoryException {
+		Set<Map.Entry<String, Boolean>> entries=partitioner.partition(session.getNode("/data"));
+		Map<String, Boolean> partitions=new LinkedHashMap<String, Boolean>();
+		for (Map.Entry<String, Boolean> entry:entries) {
+			partitions.put(entry.getKey(), entry.getValue());
+		}
+		assertEquals(entries.size(), partitions.size());
+		assertEquals(true, partitions.get("/data"));
+		return partitions;
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaCopierTest {
+	
+	private TestRepositories repositories;
+	private Session srcSession;
+	private Session destSession;
+	private long since;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("delta");
+		srcSession=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("src"))).getSession();
+		destSession=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("dest"))).getSession();
+		TestRepositories.addNodes(srcSession, "/data", 0, 1, 2);
+		NodeCopier.copy(srcSession, destSession, "/data", "/copy", true);
+		since=System.currentTimeMillis();
+		srcSession.getNode("/data/n1").remove();
+		srcSession.save();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		srcSession.logout();
+		destSession.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void keepRemovedWithoutSweep() throws RepositoryException, IOException {
+		new DeltaCopier(new LastModifiedChangeDetector(), new BufferedNodeTransfer()).copy(srcSession, new SaveBatch(destSession), "/data", "/copy", since);
+		assertTrue(destSession.nodeExists("/copy/data/n1"));
+	}
+	
+	@Test
+	public void sweepRemoved() throws RepositoryException, IOException {
+		DeltaCopier copier=new DeltaCopier(new LastModifiedChangeDetector(), new BufferedNodeTransfer());
+		copier.setSweep(true);
+		copier.copy(srcSession, new SaveBatch(destSession), "/data", "/copy", since);
+		assertFalse(destSession.nodeExists("/copy/data/n1"));
+		assertTrue(destSession.nodeExists("/copy/data/n0"));
+		assertTrue(destSession.nodeExists("/copy/data/n2"));
+	}
+
+}
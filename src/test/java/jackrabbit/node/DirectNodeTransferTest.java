@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertEquals;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.IOException;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectNodeTransferTest {
+	
+	private static final String URI="http://example.com/a";
+	
+	private TestRepositories repositories;
+	private Session srcSession;
+	private Session destSession;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("direct");
+		srcSession=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("src"))).getSession();
+		destSession=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("dest"))).getSession();
+		//the prefix of the namespace in the source is that of another namespace in the destination
+		srcSession.getWorkspace().getNamespaceRegistry().registerNamespace("a", URI);
+		destSession.getWorkspace().getNamespaceRegistry().registerNamespace("a", "http://example.com/other");
+		destSession.getWorkspace().getNamespaceRegistry().registerNamespace("b", URI);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		srcSession.logout();
+		destSession.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void remapPrefixes() throws RepositoryException, IOException {
+		Node data=srcSession.getRootNode().addNode("data");
+		ValueFactory factory=srcSession.getValueFactory();
+		data.setProperty("name", factory.createValue("a:x", PropertyType.NAME));
+		data.setProperty("path", factory.createValue("/a:x/a:y[2]/z", PropertyType.PATH));
+		data.setProperty("relative", factory.createValue("../a:x", PropertyType.PATH));
+		data.setProperty("names", new Value[] {factory.createValue("a:x", PropertyType.NAME), factory.createValue("y", PropertyType.NAME)});
+		srcSession.save();
+		
+		new DirectNodeTransfer().transfer(srcSession, destSession, "/data", "/", false);
+		destSession.save();
+		Node copy=destSession.getNode("/data");
+		assertEquals("b:x", copy.getProperty("name").getString());
+		assertEquals(PropertyType.NAME, copy.getProperty("name").getType());
+		assertEquals("/b:x/b:y[2]/z", copy.getProperty("path").getString());
+		assertEquals("../b:x", copy.getProperty("relative").getString());
+		Value[] names=copy.getProperty("names").getValues();
+		assertEquals("b:x", names[0].getString());
+		assertEquals("y", names[1].getString());
+	}
+
+}
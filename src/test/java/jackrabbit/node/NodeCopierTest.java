@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.ConstraintViolationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NodeCopierTest {
+	
+	private TestRepositories repositories;
+	private Session srcSession;
+	private Session destSession;
+	private File file;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("copier");
+		srcSession=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("src"))).getSession();
+		destSession=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("dest"))).getSession();
+		TestRepositories.addNodes(srcSession, "/data", 0, 1, 2, 3, 4, 5);
+		file=File.createTempFile("journal", ".log");
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		srcSession.logout();
+		destSession.logout();
+		repositories.close();
+		file.delete();
+	}
+	
+	@Test
+	public void resumeWithOtherSiblingPartitions() throws RepositoryException, IOException {
+		CheckpointJournal journal=new CheckpointJournal(file, false);
+		copy(journal, new SiblingPartition(Arrays.asList("/data/n0", "/data/n1", "/data/n2")));
+		journal.close();
+		journal=new CheckpointJournal(file, true);
+		//the siblings completed by the first run are skipped even though they are packed with others
+		copy(journal, new SiblingPartition(Arrays.asList("/data/n0", "/data/n1")), 
+				new SiblingPartition(Arrays.asList("/data/n2", "/data/n3", "/data/n4", "/data/n5")));
+		journal.close();
+		NodeIterator nodes=destSession.getNode("/copy/data").getNodes();
+		assertEquals(6, nodes.getSize());
+		for (int i=0;nodes.hasNext();i++) {
+			Node node=nodes.nextNode();
+			assertEquals("n"+i, node.getName());
+			assertEquals(i, node.getProperty("p").getLong());
+		}
+	}
+	
+	@Test
+	public void resumeInterruptedParent() throws RepositoryException, IOException {
+		srcSession.getNode("/data").setProperty("q", "parent");
+		srcSession.save();
+		CheckpointJournal journal=new CheckpointJournal(file, false);
+		//skipped as a reference which may not exist yet, so left in flight while its children are copied under a node created for them
+		copy(journal, new BufferedNodeTransfer() {
+			public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException {
+				if (srcAbsPath.equals("/data"))
+					throw new ConstraintViolationException(srcAbsPath);
+				return super.transfer(srcSession, destSession, srcAbsPath, destAbsPath, noRecurse);
+			}
+		}, new SiblingPartition(Arrays.asList("/data/n0", "/data/n1", "/data/n2", "/data/n3", "/data/n4", "/data/n5")));
+		journal.close();
+		assertFalse(destSession.getNode("/copy/data").hasProperty("q"));
+		journal=new CheckpointJournal(file, true);
+		copy(journal, new SiblingPartition(Arrays.asList("/data/n0", "/data/n1", "/data/n2", "/data/n3", "/data/n4", "/data/n5")));
+		journal.close();
+		Node data=destSession.getNode("/copy/data");
+		assertEquals("parent", data.getProperty("q").getString());
+		NodeIterator nodes=data.getNodes();
+		assertEquals(6, nodes.getSize());
+		for (int i=0;nodes.hasNext();i++) {
+			assertEquals(i, nodes.nextNode().getProperty("p").getLong());
+		}
+	}
+	
+	/**
+	 * Copy /data to /copy with the partition of /data itself and siblings
+	 * @param journal
+	 * @param siblings
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private void copy(CheckpointJournal journal, SiblingPartition... siblings) throws RepositoryException, IOException {
+		copy(journal, new BufferedNodeTransfer(), siblings);
+	}
+	
+	/**
+	 * Copy /data to /copy with the partition of /data itself and siblings
+	 * @param journal
+	 * @param transfer
+	 * @param siblings
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private void copy(CheckpointJournal journal, NodeTransfer transfer, SiblingPartition... siblings) throws RepositoryException, IOException {
+		final Set<Map.Entry<String, Boolean>> partitions=new LinkedHashSet<Map.Entry<String, Boolean>>();
+		partitions.add(new AbstractMap.SimpleEntry<String, Boolean>("/data", true));
+		partitions.addAll(Arrays.asList(siblings));
+		NodeCopier.copy(srcSession, new SaveBatch(destSession, 0, 0), "/data", "/copy", new NodePartitioner() {
+			public Set<Map.Entry<String, Boolean>> partition(Node node) {
+				return partitions;
+			}
+		}, true, transfer, journal);
+	}
+
+}
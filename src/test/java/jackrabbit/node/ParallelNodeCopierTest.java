@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import jackrabbit.repository.TestRepositories;
+import jackrabbit.session.SessionFactory;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.ConstraintViolationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelNodeCopierTest {
+	
+	private TestRepositories repositories;
+	private SessionFactory srcSf;
+	private SessionFactory destSf;
+	private Session srcSession;
+	private Session destSession;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("parallel");
+		srcSf=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("src")));
+		destSf=TestRepositories.getSessionFactory(repositories.open(repositories.getPath("dest")));
+		srcSession=srcSf.getSession();
+		destSession=destSf.getSession();
+		//three levels of three children under /data/a and /data/b, each with its path as property
+		Node data=srcSession.getRootNode().addNode("data");
+		data.setProperty("p", data.getPath());
+		addNodes(data.addNode("a"), 3);
+		addNodes(data.addNode("b"), 3);
+		srcSession.save();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		srcSession.logout();
+		destSession.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void copyParentsFirst() throws RepositoryException, IOException {
+		ParallelNodeCopier copier=new ParallelNodeCopier(srcSf, destSf, 4, new BufferedNodeTransfer());
+		copier.copy(null, "/data", "/copy", new NodeCountPartitioner(3), true);
+		//a partition copied before its parent would have been imported under a node created without properties, or as a same-name sibling
+		assertEquals(countNodes(srcSession.getNode("/data")), countNodes(destSession.getNode("/copy/data")));
+		assertCopied(srcSession.getNode("/data"));
+	}
+	
+	@Test
+	public void failDependentsOfSkippedPartition() throws RepositoryException, IOException {
+		//skipped as a reference which may not exist yet, which must not leave its descendants under a missing parent
+		copyFailing(new ConstraintViolationException("/data/a"));
+	}
+	
+	@Test
+	public void failDependentsOfFailedPartition() throws RepositoryException, IOException {
+		copyFailing(new RepositoryException("/data/a"));
+	}
+	
+	/**
+	 * Copy /data with a transfer failing with failure for /data/a, which the partitions under /data/a depend on
+	 * @param failure
+	 * @throws RepositoryException
+	 * @throws IOException
+	 */
+	private void copyFailing(final RepositoryException failure) throws RepositoryException, IOException {
+		final Set<Map.Entry<String, Boolean>> partitions=new LinkedHashSet<Map.Entry<String, Boolean>>();
+		partitions.add(new AbstractMap.SimpleEntry<String, Boolean>("/data", true));
+		partitions.add(new AbstractMap.SimpleEntry<String, Boolean>("/data/a", true));
+		partitions.add(new AbstractMap.SimpleEntry<String, Boolean>("/data/a/n0", false));
+		partitions.add(new AbstractMap.SimpleEntry<String, Boolean>("/data/a/n1", false));
+		partitions.add(new AbstractMap.SimpleEntry<String, Boolean>("/data/b", false));
+		NodeTransfer transfer=new BufferedNodeTransfer() {
+			public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException {
+				if (srcAbsPath.equals(failure.getMessage()))
+					throw failure;
+				return super.transfer(srcSession, destSession, srcAbsPath, destAbsPath, noRecurse);
+			}
+		};
+		ParallelNodeCopier copier=new ParallelNodeCopier(srcSf, destSf, 2, transfer);
+		try {
+			copier.copy(null, "/data", "/copy", new NodePartitioner() {
+				public Set<Map.Entry<String, Boolean>> partition(Node node) {
+					return partitions;
+				}
+			}, true);
+			fail("the copy of /data/a should fail");
+		} catch (RepositoryException e) {
+		}
+		destSession.refresh(false);
+		assertTrue(destSession.nodeExists("/copy/data"));
+		assertCopied(srcSession.getNode("/data/b"));
+		assertFalse(destSession.nodeExists("/copy/data/a"));
+	}
+	
+	@Test
+	public void waitForPartitionsOnFailure() throws RepositoryException, IOException, InterruptedException {
+		final List<Boolean> live=Collections.synchronizedList(new ArrayList<Boolean>());
+		final CountDownLatch started=new CountDownLatch(1);
+		NodeTransfer transfer=new BufferedNodeTransfer() {
+			public TransferStats transfer(Session srcSession, Session destSession, String srcAbsPath, String destAbsPath, boolean noRecurse) throws RepositoryException, IOException {
+				started.countDown();
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				live.add(srcSession.isLive() && destSession.isLive());
+				return super.transfer(srcSession, destSession, srcAbsPath, destAbsPath, noRecurse);
+			}
+		};
+		//the partitioning fails while a partition already submitted is copied
+		StreamingNodePartitioner partitioner=new StreamingNodePartitioner() {
+			public Set<Map.Entry<String, Boolean>> partition(Node node) {
+				throw new UnsupportedOperationException();
+			}
+
+			public PartitionIterator iterator(Node node) {
+				return new PartitionIterator() {
+					private int count;
+
+					public boolean hasNext() {
+						if (count<2)
+							return true;
+						try {
+							started.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						throw new IllegalStateException("partitioning failed");
+					}
+
+					public Map.Entry<String, Boolean> next() {
+						return new AbstractMap.SimpleEntry<String, Boolean>(count++==0?"/data/a":"/data/b", false);
+					}
+				};
+			}
+		};
+		ParallelNodeCopier copier=new ParallelNodeCopier(srcSf, destSf, 2, transfer);
+		try {
+			copier.copy(null, "/data", "/copy", partitioner, true);
+			fail("the partitioning should fail");
+		} catch (IllegalStateException e) {
+		}
+		//the copy returns once the partitions which started are copied, which did not see the sessions of the workers logged out
+		int copied=live.size();
+		assertTrue(copied>0);
+		Thread.sleep(1000);
+		assertEquals(copied, live.size());
+		assertFalse(live.contains(false));
+	}
+	
+	private static void addNodes(Node parent, int depth) throws RepositoryException {
+		parent.setProperty("p", parent.getPath());
+		if (depth==1)
+			return;
+		for (int i=0;i<3;i++) {
+			addNodes(parent.addNode("n"+i), depth-1);
+		}
+	}
+	
+	/**
+	 * Assert that srcNode and its descendants were copied under /copy with their properties
+	 * @param srcNode
+	 * @throws RepositoryException
+	 */
+	private void assertCopied(Node srcNode) throws RepositoryException {
+		assertEquals(srcNode.getPath(), destSession.getProperty("/copy"+srcNode.getPath()+"/p").getString());
+		NodeIterator children=srcNode.getNodes();
+		while (children.hasNext()) {
+			assertCopied(children.nextNode());
+		}
+	}
+	
+	private static long countNodes(Node node) throws RepositoryException {
+		long count=1;
+		NodeIterator children=node.getNodes();
+		while (children.hasNext()) {
+			count+=countNodes(children.nextNode());
+		}
+		return count;
+	}
+
+}
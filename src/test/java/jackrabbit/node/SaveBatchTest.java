@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.Test;
+
+public class SaveBatchTest {
+	
+	@Test
+	public void saveWhenFull() throws RepositoryException, IOException {
+		FakeSession fake=new FakeSession(null);
+		SaveBatch batch=new SaveBatch(fake.getSession(), 3, 0);
+		List<String> saved=new ArrayList<String>();
+		for (int i=0;i<5;i++) {
+			batch.add(new FakeOperation(fake, "op"+i, saved));
+		}
+		assertEquals(1, fake.saves);
+		assertEquals(3, saved.size());
+		assertEquals(2, batch.getPendingCount());
+		batch.flush();
+		assertEquals(2, fake.saves);
+		assertEquals(5, saved.size());
+	}
+	
+	@Test
+	public void saveEachWithoutLimits() throws RepositoryException, IOException {
+		FakeSession fake=new FakeSession(null);
+		SaveBatch batch=new SaveBatch(fake.getSession());
+		List<String> saved=new ArrayList<String>();
+		batch.add(new FakeOperation(fake, "op0", saved));
+		batch.add(new FakeOperation(fake, "op1", saved));
+		assertEquals(2, fake.saves);
+		assertEquals(0, batch.getPendingCount());
+	}
+	
+	@Test
+	public void splitFailedSave() throws IOException {
+		FakeSession fake=new FakeSession("op2");
+		SaveBatch batch=new SaveBatch(fake.getSession(), 0, 1000);
+		List<String> saved=new ArrayList<String>();
+		try {
+			for (int i=0;i<5;i++) {
+				batch.add(new FakeOperation(fake, "op"+i, saved));
+			}
+			batch.flush();
+			fail("saving op2 should fail");
+		} catch (RepositoryException e) {
+			assertEquals("op2", e.getMessage());
+		}
+		assertEquals(4, saved.size());
+		assertEquals(-1, saved.indexOf("op2"));
+		assertEquals(0, fake.pending.size());
+	}
+	
+	@Test
+	public void reportFailedReapply() throws IOException {
+		FakeSession fake=new FakeSession("op2");
+		SaveBatch batch=new SaveBatch(fake.getSession(), 0, 1000);
+		List<String> saved=new ArrayList<String>();
+		try {
+			for (int i=0;i<5;i++) {
+				//op1 cannot be applied again once the save of the batch has failed
+				batch.add(i==1?new FakeOperation(fake, "op"+i, saved, 1):new FakeOperation(fake, "op"+i, saved));
+			}
+			batch.flush();
+			fail("applying op1 again should fail");
+		} catch (RepositoryException e) {
+			assertEquals("op1", e.getMessage());
+		}
+		//the operations after op1 are still split and saved
+		assertEquals(Arrays.asList("op0", "op3", "op4"), saved);
+		assertEquals(0, fake.pending.size());
+	}
+	
+	@Test
+	public void journalOncePerSave() throws RepositoryException, IOException {
+		File file=File.createTempFile("journal", ".log");
+		final List<List<String>> completions=new ArrayList<List<String>>();
+		CheckpointJournal journal=new CheckpointJournal(file, false) {
+			public synchronized void completed(String workspace, List<String> paths) throws IOException {
+				completions.add(new ArrayList<String>(paths));
+				super.completed(workspace, paths);
+			}
+		};
+		try {
+			FakeSession fake=new FakeSession(null);
+			SaveBatch batch=new SaveBatch(fake.getSession(), 3, 0);
+			List<String> saved=new ArrayList<String>();
+			for (int i=0;i<5;i++) {
+				journal.started("default", "/op"+i);
+				batch.started(journal);
+				batch.add(new JournaledOperation(fake, "op"+i, saved, batch, journal));
+			}
+			batch.flush();
+			assertEquals(Arrays.asList(Arrays.asList("/op0", "/op1", "/op2"), Arrays.asList("/op3", "/op4")), completions);
+			journal.close();
+			journal=new CheckpointJournal(file, true);
+			for (int i=0;i<5;i++) {
+				assertTrue(journal.isCompleted("default", "/op"+i));
+			}
+		} finally {
+			journal.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * 
+	 * Session recording the operations applied, whose save fails while a given operation is pending
+	 *
+	 */
+	private static class FakeSession implements InvocationHandler {
+		
+		private String failing;
+		private List<String> pending=new ArrayList<String>();
+		private int saves;
+		
+		FakeSession(String failing) {
+			this.failing=failing;
+		}
+		
+		Session getSession() {
+			return (Session)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Session.class}, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("save")) {
+				if (pending.contains(failing)) 
+					throw new RepositoryException(failing);
+				saves++;
+				pending.clear();
+			} else if (method.getName().equals("refresh")) {
+				pending.clear();
+			}
+			return null;
+		}
+		
+	}
+	
+	private static class FakeOperation implements SaveBatch.Operation {
+		
+		private FakeSession fake;
+		private String name;
+		private List<String> saved;
+		private int applications;
+		
+		FakeOperation(FakeSession fake, String name, List<String> saved) {
+			this(fake, name, saved, Integer.MAX_VALUE);
+		}
+		
+		/**
+		 * @param fake
+		 * @param name
+		 * @param saved
+		 * @param applications - number of times the operation can be applied before failing
+		 */
+		FakeOperation(FakeSession fake, String name, List<String> saved, int applications) {
+			this.fake=fake;
+			this.name=name;
+			this.saved=saved;
+			this.applications=applications;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		public TransferStats apply(Session session) throws RepositoryException {
+			if (applications--<=0)
+				throw new RepositoryException(name);
+			fake.pending.add(name);
+			return new TransferStats(1, 100);
+		}
+
+		public void saved() throws IOException {
+			saved.add(name);
+		}
+		
+	}
+	
+	/**
+	 * 
+	 * Operation recording its name as a completed path of journal once saved
+	 *
+	 */
+	private static class JournaledOperation extends FakeOperation {
+		
+		private SaveBatch batch;
+		private CheckpointJournal journal;
+		
+		JournaledOperation(FakeSession fake, String name, List<String> saved, SaveBatch batch, CheckpointJournal journal) {
+			super(fake, name, saved);
+			this.batch=batch;
+			this.journal=journal;
+		}
+		
+		public void saved() throws IOException {
+			super.saved();
+			batch.completed(journal, "default", Collections.singletonList("/"+getName()));
+		}
+		
+	}
+
+}
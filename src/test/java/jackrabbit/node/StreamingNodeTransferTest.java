@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class StreamingNodeTransferTest {
+	
+	@Test
+	public void rethrowExportRuntimeException() throws RepositoryException, IOException {
+		IllegalStateException failure=new IllegalStateException("export");
+		try {
+			new StreamingNodeTransfer().transfer(getSession(failure), getSession(null), "/src", "/dest", false);
+			fail("the export failure should be thrown");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+	}
+	
+	@Test
+	public void rethrowExportRepositoryException() throws IOException {
+		RepositoryException failure=new RepositoryException("export");
+		try {
+			new StreamingNodeTransfer().transfer(getSession(failure), getSession(null), "/src", "/dest", false);
+			fail("the export failure should be thrown");
+		} catch (RepositoryException e) {
+			assertEquals(ExportException.class, e.getClass());
+			assertSame(failure, e.getCause());
+		}
+	}
+	
+	/**
+	 * @param failure - exception thrown by an export
+	 * @return session failing to export with failure, and failing to import a truncated stream once it has read it
+	 */
+	private static Session getSession(final Throwable failure) {
+		return (Session)Proxy.newProxyInstance(StreamingNodeTransferTest.class.getClassLoader(), new Class<?>[]{Session.class}, new InvocationHandler() {
+			
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("exportSystemView"))
+					throw failure;
+				if (method.getName().equals("importXML")) {
+					IOUtils.toByteArray((InputStream)args[1]);
+					throw new RepositoryException("Premature end of file");
+				}
+				return null;
+			}
+			
+		});
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.repository.RepositorySource;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FanOutQuerierTest {
+	
+	private static final String QUERY="select n.[p] from [nt:unstructured] as n where ISDESCENDANTNODE(n, [/data])";
+	
+	private TestRepositories repositories;
+	private String[] sources;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("fanout");
+		sources=new String[3];
+		//repository i holds the values i, i+3, i+6 and i+9
+		for (int i=0;i<sources.length;i++) {
+			sources[i]=repositories.getPath("r"+i);
+			repositories.create(sources[i], i, i+3, i+6, i+9);
+		}
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		repositories.close();
+	}
+	
+	@Test
+	public void stream() throws RepositoryException, IOException {
+		FanOutQuerier querier=new FanOutQuerier(getSource(sources), TestRepositories.CONF, TestRepositories.CREDENTIALS);
+		querier.setThreads(2);
+		StringWriter out=new StringWriter();
+		assertEquals(12, querier.query(QUERY, null, new CsvResultWriter(out)));
+		String[] lines=out.toString().split("\r\n");
+		assertEquals("source,n.p", lines[0]);
+		for (int i=1;i<lines.length;i++) {
+			//every row is tagged with the repository it comes from
+			int value=Integer.parseInt(lines[i].substring(lines[i].indexOf(',')+1));
+			assertEquals(sources[value%3], lines[i].substring(0, lines[i].indexOf(',')));
+		}
+		querier.setLimit(5);
+		assertEquals(5, querier.query(QUERY, null, new CsvResultWriter(new StringWriter())));
+	}
+	
+	@Test
+	public void sort() throws RepositoryException, IOException {
+		FanOutQuerier querier=new FanOutQuerier(getSource(sources), TestRepositories.CONF, TestRepositories.CREDENTIALS);
+		querier.setOrderBy("n.p", true);
+		querier.setOffset(1);
+		querier.setLimit(3);
+		StringWriter out=new StringWriter();
+		assertEquals(3, querier.query(QUERY, null, new JsonLinesResultWriter(out)));
+		assertEquals("{\"source\":\""+sources[1]+"\",\"n.p\":10}\n{\"source\":\""+sources[0]+"\",\"n.p\":9}\n{\"source\":\""+sources[2]+"\",\"n.p\":8}\n", 
+				out.toString());
+	}
+	
+	@Test
+	public void skipFailedSources() throws RepositoryException, IOException {
+		File file=new File(repositories.getDir(), "file");
+		FileUtils.writeStringToFile(file, "not a repository");
+		FanOutQuerier querier=new FanOutQuerier(getSource(new String[] {sources[0], file.getPath()}), TestRepositories.CONF, TestRepositories.CREDENTIALS);
+		assertEquals(4, querier.query(QUERY, null, new CsvResultWriter(new StringWriter())));
+		assertEquals(1, querier.getFailures().size());
+		assertTrue(querier.getFailures().containsKey(file.getPath()));
+	}
+	
+	private static RepositorySource getSource(final String[] sources) {
+		return new RepositorySource() {
+			public String[] getSources() {
+				return sources;
+			}
+		};
+	}
+
+}
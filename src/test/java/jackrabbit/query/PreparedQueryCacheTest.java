@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.RowIterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreparedQueryCacheTest {
+	
+	private static final String QUERY="select n.[p] from [nt:unstructured] as n where ISDESCENDANTNODE(n, [/data]) and n.[p]=$value";
+	
+	private TestRepositories repositories;
+	private Session session;
+	private PreparedQueryCache queries;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("prepared");
+		session=TestRepositories.getSessionFactory(repositories.open()).getSession();
+		TestRepositories.addNodes(session, "/data", "v0", "v1", "v2", "v0", "v1");
+		queries=new PreparedQueryCache(session, 2);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		session.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void bindValues() throws RepositoryException {
+		assertEquals(2, count(Querier.query(queries, QUERY, null, bind("v0"), 0, 0).getRows()));
+		assertEquals(1, count(Querier.query(queries, QUERY, null, bind("v2"), 0, 0).getRows()));
+		assertEquals(1, count(Querier.query(queries, QUERY, null, bind("v0"), 1, 0).getRows()));
+		assertEquals(2, count(Querier.query(queries, QUERY, null, bind("v1"), 0, 0).getRows()));
+		//parsed once per limit
+		assertEquals(2, queries.getMisses());
+		assertEquals(2, queries.getHits());
+		assertSame(queries.prepare(QUERY, "JCR-SQL2", 0, 0), queries.prepare(QUERY, null, 0, 0));
+		//the values of the variables are not reused from a previous call
+		try {
+			Querier.query(queries, QUERY, null, Collections.<String, Value>emptyMap(), 0, 0);
+			fail();
+		} catch (InvalidQueryException e) {
+		}
+	}
+	
+	@Test
+	public void evictLeastRecentlyUsed() throws RepositoryException {
+		queries.prepare(QUERY, null, 1, 0);
+		queries.prepare(QUERY, null, 2, 0);
+		queries.prepare(QUERY, null, 1, 0);
+		queries.prepare(QUERY, null, 3, 0);
+		assertEquals(2, queries.size());
+		assertEquals(1, queries.getHits());
+		queries.prepare(QUERY, null, 1, 0);
+		assertEquals(2, queries.getHits());
+	}
+	
+	@Test
+	public void cacheResultsByValue() throws RepositoryException, IOException {
+		QueryResultCache cache=new QueryResultCache();
+		cache.register(session);
+		try {
+			assertEquals("| v0 \n| v0 \n", write(bind("v0"), cache));
+			assertEquals("| v2 \n", write(bind("v2"), cache));
+			assertEquals(0, cache.getHits());
+			//values of variables the query does not have are not part of the key
+			Map<String, Value> bindings=bind("v0");
+			bindings.put("other", session.getValueFactory().createValue("x"));
+			assertEquals("| v0 \n| v0 \n", write(bindings, cache));
+			assertEquals(1, cache.getHits());
+		} finally {
+			cache.unregister(session);
+		}
+	}
+	
+	private Map<String, Value> bind(String value) throws RepositoryException {
+		Map<String, Value> bindings=new HashMap<String, Value>();
+		bindings.put("value", session.getValueFactory().createValue(value));
+		return bindings;
+	}
+	
+	private String write(Map<String, Value> bindings, QueryResultCache cache) throws RepositoryException, IOException {
+		StringWriter out=new StringWriter();
+		Querier.writeQueryResults(queries, QUERY, null, bindings, 0, 0, cache, new TableResultWriter(out));
+		return out.toString();
+	}
+	
+	private static long count(RowIterator it) {
+		long rows=0;
+		while (it.hasNext()) {
+			it.nextRow();
+			rows++;
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.repository.TestRepositories;
+import jackrabbit.session.SessionFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+	
+	private static final String QUERY="select n.[p] from [nt:unstructured] as n where ISDESCENDANTNODE(n, [/data]) order by n.[p]";
+	
+	private TestRepositories repositories;
+	private SessionFactory sessionFactory;
+	private Session session;
+	private QueryResultCache cache;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("cache");
+		sessionFactory=TestRepositories.getSessionFactory(repositories.open());
+		session=sessionFactory.getSession();
+		TestRepositories.addNodes(session, "/data", "v0", "v1", "v2");
+		cache=new QueryResultCache(2, 3);
+		cache.register(session);
+	}
+	
+	@After
+	public void tearDown() throws IOException, RepositoryException {
+		cache.unregister(session);
+		session.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void cacheUntilChanged() throws RepositoryException, IOException {
+		assertEquals("| v0 \n| v1 \n| v2 \n", query(QUERY, 0));
+		assertEquals(0, cache.getHits());
+		assertEquals("| v0 \n| v1 \n| v2 \n", query(QUERY, 0));
+		assertEquals(1, cache.getHits());
+		//a change saved by another session evicts the result before the save returns
+		Session other=sessionFactory.getSession();
+		try {
+			other.getNode("/data/n1").setProperty("p", "changed");
+			other.save();
+		} finally {
+			other.logout();
+		}
+		assertEquals(0, cache.size());
+		assertEquals("| changed \n| v0 \n| v2 \n", query(QUERY, 0));
+		assertEquals(1, cache.getHits());
+	}
+	
+	@Test
+	public void evictLeastRecentlyUsed() throws RepositoryException, IOException {
+		query(QUERY, 1);
+		query(QUERY, 2);
+		query(QUERY, 1);
+		query(QUERY, 3);
+		assertEquals(2, cache.size());
+		String workspace=session.getWorkspace().getName();
+		assertNull(cache.get(workspace, QUERY, "JCR-SQL2", 2, 0));
+		assertTrue(cache.get(workspace, QUERY, "JCR-SQL2", 1, 0)!=null);
+	}
+	
+	@Test
+	public void skipLargeResults() throws RepositoryException, IOException {
+		session.getNode("/data").addNode("n3").setProperty("p", "v3");
+		session.save();
+		assertEquals("| v0 \n| v1 \n| v2 \n| v3 \n", query(QUERY, 0));
+		assertEquals(0, cache.size());
+		//results of workspaces not observed are not cached either
+		cache.unregister(session);
+		query(QUERY, 1);
+		assertEquals(0, cache.size());
+		assertFalse(cache.isObserved(session.getWorkspace().getName()));
+	}
+	
+	private String query(String query, long limit) throws RepositoryException, IOException {
+		StringWriter out=new StringWriter();
+		Querier.writeQueryResults(session, query, null, limit, 0, cache, new TableResultWriter(out));
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultWriterTest {
+	
+	private static final String QUERY="select n.[s], n.[l], n.[d] from [nt:unstructured] as n where ISDESCENDANTNODE(n, [/data]) order by n.[l]";
+	
+	private TestRepositories repositories;
+	private Session session;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("querier");
+		session=TestRepositories.getSessionFactory(repositories.open()).getSession();
+		Node data=session.getRootNode().addNode("data");
+		for (int i=0;i<5;i++) {
+			Node node=data.addNode("n"+i);
+			node.setProperty("s", "v"+i);
+			node.setProperty("l", i);
+			node.setProperty("d", i+0.5);
+		}
+		data.getNode("n1").setProperty("s", "a, \"quoted\"\nvalue");
+		session.save();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		session.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void writeCsv() throws RepositoryException, IOException {
+		StringWriter out=new StringWriter();
+		assertEquals(5, Querier.writeQueryResults(Querier.query(session, QUERY, null, 0, 0), new CsvResultWriter(out)));
+		String[] lines=out.toString().split("\r\n");
+		assertEquals(6, lines.length);
+		assertEquals("n.s,n.l,n.d", lines[0]);
+		assertEquals("v0,0,0.5", lines[1]);
+		assertEquals("\"a, \"\"quoted\"\"\nvalue\",1,1.5", lines[2]);
+	}
+	
+	@Test
+	public void writeJsonLines() throws RepositoryException, IOException {
+		StringWriter out=new StringWriter();
+		Querier.writeQueryResults(Querier.query(session, QUERY, null, 0, 0), new JsonLinesResultWriter(out));
+		String[] lines=out.toString().split("\n");
+		assertEquals(5, lines.length);
+		assertEquals("{\"n.s\":\"v0\",\"n.l\":0,\"n.d\":0.5}", lines[0]);
+		assertEquals("{\"n.s\":\"a, \\\"quoted\\\"\\nvalue\",\"n.l\":1,\"n.d\":1.5}", lines[1]);
+	}
+	
+	@Test
+	public void writePage() throws RepositoryException, IOException {
+		StringWriter out=new StringWriter();
+		assertEquals(2, Querier.writeQueryResults(Querier.query(session, QUERY, null, 2, 3), new TableResultWriter(out)));
+		assertEquals("| v3 | 3 | 3.5 \n| v4 | 4 | 4.5 \n", out.toString());
+		assertEquals("\n"+out.toString(), Querier.formatQueryResults(Querier.query(session, QUERY, null, 2, 3).getRows()));
+	}
+	
+	@Test
+	public void profile() throws RepositoryException, IOException {
+		StringWriter out=new StringWriter();
+		QueryProfile profile=new QueryProfile();
+		Querier.writeQueryResults(new PreparedQueryCache(session), QUERY, null, Collections.<String, Value>emptyMap(), 0, 0, null, new CsvResultWriter(out), profile);
+		assertEquals(5, profile.getRows());
+		assertEquals(out.toString().length(), profile.getCharacters());
+		assertTrue(profile.getExecuteNanos()>0);
+		assertTrue(profile.getFirstRowNanos()>=profile.getParseNanos()+profile.getExecuteNanos());
+		assertTrue(profile.getParseNanos()+profile.getExecuteNanos()+profile.getFetchNanos()+profile.getWriteNanos()<=profile.getTotalNanos());
+		QueryHistory history=new QueryHistory(1);
+		history.add(profile);
+		history.add(profile);
+		assertEquals(2, history.getCount());
+		assertEquals(1, history.getRecent().size());
+		assertEquals(5, history.getRows().getMax());
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.session.SessionFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexRebuilderTest {
+	
+	private static final String QUERY="select * from [nt:unstructured] as n where ISDESCENDANTNODE(n, [/data])";
+	
+	private TestRepositories repositories;
+	private File dir;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("indexing");
+		dir=repositories.getDir();
+		//nodes indexed before the bulk load
+		JackrabbitRepository repository=repositories.open();
+		try {
+			Session session=TestRepositories.getSessionFactory(repository).getSession();
+			try {
+				addNodes(session, "a", 5);
+			} finally {
+				session.logout();
+			}
+		} finally {
+			repository.shutdown();
+		}
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		repositories.close();
+	}
+	
+	@Test
+	public void rebuild() throws IOException, RepositoryException {
+		RepositoryFactoryImpl factory=new RepositoryFactoryImpl(TestRepositories.CONF, dir.getPath());
+		factory.setDeferIndexing(true);
+		JackrabbitRepository repository=factory.getRepository();
+		try {
+			SessionFactory sf=TestRepositories.getSessionFactory(repository);
+			Session session=sf.getSession();
+			try {
+				addNodes(session, "b", 10);
+				session.getWorkspace().createWorkspace("ws1");
+			} finally {
+				session.logout();
+			}
+			session=sf.getSession("ws1");
+			try {
+				addNodes(session, "c", 3);
+			} finally {
+				session.logout();
+			}
+		} finally {
+			repository.shutdown();
+		}
+		File config=new File(dir, "workspaces/default/workspace.xml");
+		assertFalse(FileUtils.readFileToString(config).contains("SearchIndex"));
+		assertFalse(FileUtils.readFileToString(new File(dir, "workspaces/ws1/workspace.xml")).contains("SearchIndex"));
+		
+		IndexRebuilder rebuilder=new IndexRebuilder(TestRepositories.CONF, dir.getPath(), TestRepositories.CREDENTIALS);
+		rebuilder.setThreads(2);
+		rebuilder.rebuild();
+		assertTrue(FileUtils.readFileToString(config).contains("SearchIndex"));
+		assertFalse(new File(config.getPath()+".bulkload").exists());
+		
+		repository=repositories.open();
+		try {
+			SessionFactory sf=TestRepositories.getSessionFactory(repository);
+			assertEquals(15, count(sf.getSession()));
+			assertEquals(3, count(sf.getSession("ws1")));
+		} finally {
+			repository.shutdown();
+		}
+	}
+	
+	@Test
+	public void restoreUnfinishedBulkLoad() throws IOException, RepositoryException {
+		RepositoryFactoryImpl factory=new RepositoryFactoryImpl(TestRepositories.CONF, dir.getPath());
+		factory.setDeferIndexing(true);
+		JackrabbitRepository repository=factory.getRepository();
+		try {
+			Session session=TestRepositories.getSessionFactory(repository).getSession();
+			try {
+				addNodes(session, "b", 2);
+			} finally {
+				session.logout();
+			}
+		} finally {
+			repository.shutdown();
+		}
+		//opening the repository without deferred indexing restores it and rebuilds the index
+		repository=repositories.open();
+		try {
+			assertEquals(7, count(TestRepositories.getSessionFactory(repository).getSession()));
+		} finally {
+			repository.shutdown();
+		}
+	}
+	
+	private static void addNodes(Session session, String name, int count) throws RepositoryException {
+		Node data=session.getRootNode().hasNode("data")?session.getNode("/data"):session.getRootNode().addNode("data");
+		Node parent=data.addNode(name);
+		for (int i=1;i<count;i++) {
+			parent.addNode("n"+i);
+		}
+		session.save();
+	}
+	
+	private static long count(Session session) throws RepositoryException {
+		try {
+			return session.getWorkspace().getQueryManager().createQuery(QUERY, Query.JCR_SQL2).execute().getNodes().getSize();
+		} finally {
+			session.logout();
+		}
+	}
+
+}
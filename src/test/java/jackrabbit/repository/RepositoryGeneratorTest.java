@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.session.SessionFactory;
+
+import java.io.IOException;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RepositoryGeneratorTest {
+	
+	private TestRepositories repositories;
+	private SessionFactory sf;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("generator");
+		sf=TestRepositories.getSessionFactory(repositories.open());
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		repositories.close();
+	}
+	
+	@Test
+	public void generateSameContentForSameSeed() throws RepositoryException {
+		Session session=sf.getSession();
+		session.getWorkspace().createWorkspace("copy");
+		Session copy=sf.getSession("copy");
+		try {
+			assertEquals(12, getGenerator(1).generate(session, "/data"));
+			RepositoryGenerator generator=getGenerator(1);
+			generator.setSaveInterval(5);
+			assertEquals(12, generator.generate(copy, "/data"));
+			String content=dump(session.getNode("/data"));
+			assertTrue(content.contains("/data/n0[2]"));
+			assertTrue(content.contains("ref="));
+			assertTrue(content.contains("data="));
+			assertEquals(content, dump(copy.getNode("/data")));
+		} finally {
+			session.logout();
+			copy.logout();
+		}
+	}
+	
+	@Test
+	public void generateOtherContentForOtherSeed() throws RepositoryException {
+		Session session=sf.getSession();
+		try {
+			getGenerator(1).generate(session, "/a");
+			getGenerator(2).generate(session, "/b");
+			assertTrue(!dump(session.getNode("/a")).replace("/a/", "/").equals(dump(session.getNode("/b")).replace("/b/", "/")));
+		} finally {
+			session.logout();
+		}
+	}
+	
+	private static RepositoryGenerator getGenerator(long seed) {
+		RepositoryGenerator generator=new RepositoryGenerator();
+		generator.setSeed(seed);
+		generator.setFanOut(3);
+		generator.setDepth(2);
+		generator.setSameNameSiblings(2);
+		generator.setProperties(6);
+		generator.setBinaryRatio(0.5);
+		generator.setMinBinarySize(10);
+		generator.setMaxBinarySize(1000);
+		generator.setReferenceRatio(0.5);
+		return generator;
+	}
+	
+	private static String dump(Node node) throws RepositoryException {
+		StringBuilder builder=new StringBuilder(node.getPath()).append("\n");
+		PropertyIterator properties=node.getProperties();
+		while (properties.hasNext()) {
+			Property property=properties.nextProperty();
+			builder.append(property.getName()).append("=");
+			for (Value value:property.isMultiple()?property.getValues():new Value[]{property.getValue()}) {
+				builder.append(property.getType()==PropertyType.BINARY?String.valueOf(value.getBinary().getSize()):value.getString()).append(",");
+			}
+			builder.append("\n");
+		}
+		NodeIterator children=node.getNodes();
+		while (children.hasNext()) {
+			builder.append(dump(children.nextNode()));
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.repository;
+
+import jackrabbit.session.SessionFactory;
+import jackrabbit.session.SessionFactoryImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+
+/**
+ * 
+ * Temporary directory of the derby repositories of a test, which are shut down and deleted with it by close()
+ *
+ */
+public class TestRepositories {
+	
+	public static final String CONF="config/repository_derby.xml";
+	//same repository with a DataStore
+	public static final String DATASTORE_CONF="config/repository_derby_datastore.xml";
+	public static final SimpleCredentials CREDENTIALS=new SimpleCredentials("username", "password".toCharArray());
+	
+	private File dir;
+	private List<JackrabbitRepository> repositories=new ArrayList<JackrabbitRepository>();
+	
+	/**
+	 * @param prefix - prefix of the name of the temporary directory, which is not created until a repository is opened in it
+	 * @throws IOException
+	 */
+	public TestRepositories(String prefix) throws IOException {
+		dir=File.createTempFile(prefix, "");
+		dir.delete();
+	}
+	
+	/**
+	 * @return repository in the temporary directory itself
+	 * @throws RepositoryException
+	 */
+	public JackrabbitRepository open() throws RepositoryException {
+		return open(dir.getPath());
+	}
+	
+	/**
+	 * @param path - home directory of the repository
+	 * @return repository shut down by close() if it is still running
+	 * @throws RepositoryException
+	 */
+	public JackrabbitRepository open(String path) throws RepositoryException {
+		return open(CONF, path);
+	}
+	
+	/**
+	 * @param conf - path of the repository configuration
+	 * @param path - home directory of the repository
+	 * @return repository shut down by close() if it is still running
+	 * @throws RepositoryException
+	 */
+	public JackrabbitRepository open(String conf, String path) throws RepositoryException {
+		JackrabbitRepository repository=new RepositoryFactoryImpl(conf, path).getRepository();
+		repositories.add(repository);
+		return repository;
+	}
+	
+	/**
+	 * Create a repository in path with the nodes added by addNodes under /data, and shut it down
+	 * @param path - home directory of the repository
+	 * @param values - values of the property p of the nodes
+	 * @throws RepositoryException
+	 */
+	public void create(String path, long... values) throws RepositoryException {
+		JackrabbitRepository repository=new RepositoryFactoryImpl(CONF, path).getRepository();
+		try {
+			Session session=getSessionFactory(repository).getSession();
+			try {
+				addNodes(session, "/data", values);
+			} finally {
+				session.logout();
+			}
+		} finally {
+			repository.shutdown();
+		}
+	}
+	
+	/**
+	 * @param name
+	 * @return path of name in the temporary directory
+	 */
+	public String getPath(String name) {
+		return new File(dir, name).getPath();
+	}
+	
+	public File getDir() {
+		return dir;
+	}
+	
+	/**
+	 * Shut down the repositories opened and delete the temporary directory
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		for (JackrabbitRepository repository:repositories) {
+			repository.shutdown();
+		}
+		repositories.clear();
+		FileUtils.deleteDirectory(dir);
+	}
+	
+	public static SessionFactory getSessionFactory(Repository repository) {
+		return new SessionFactoryImpl(repository, CREDENTIALS);
+	}
+	
+	/**
+	 * Add the nodes n0, n1... with a property p of values to the node with path, which is created if it does not exist, and save them
+	 * @param session
+	 * @param path - path of a child of the root node
+	 * @param values
+	 * @return node with path
+	 * @throws RepositoryException
+	 */
+	public static Node addNodes(Session session, String path, String... values) throws RepositoryException {
+		Node parent=getNode(session, path);
+		for (int i=0;i<values.length;i++) {
+			parent.addNode("n"+i).setProperty("p", values[i]);
+		}
+		session.save();
+		return parent;
+	}
+	
+	/**
+	 * Add the nodes n0, n1... with a property p of values to the node with path, which is created if it does not exist, and save them
+	 * @param session
+	 * @param path - path of a child of the root node
+	 * @param values
+	 * @return node with path
+	 * @throws RepositoryException
+	 */
+	public static Node addNodes(Session session, String path, long... values) throws RepositoryException {
+		Node parent=getNode(session, path);
+		for (int i=0;i<values.length;i++) {
+			parent.addNode("n"+i).setProperty("p", values[i]);
+		}
+		session.save();
+		return parent;
+	}
+	
+	private static Node getNode(Session session, String path) throws RepositoryException {
+		if (session.nodeExists(path))
+			return session.getNode(path);
+		return session.getRootNode().addNode(path.substring(1));
+	}
+
+}
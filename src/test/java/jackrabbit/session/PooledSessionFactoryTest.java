@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledSessionFactoryTest {
+	
+	private TestRepositories repositories;
+	private PooledSessionFactory pool;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("pool");
+		pool=new PooledSessionFactory(TestRepositories.getSessionFactory(repositories.open()), 1);
+		pool.setMaxWait(100);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		pool.close();
+		repositories.close();
+	}
+	
+	@Test
+	public void reuseAfterLogout() throws RepositoryException {
+		Session session=pool.getSession();
+		session.getRootNode().addNode("pending");
+		session.logout();
+		assertFalse(session.isLive());
+		try {
+			session.getRootNode();
+			fail("A session returned to the pool cannot be used");
+		} catch (IllegalStateException e) {
+		}
+		Session reused=pool.getSession();
+		try {
+			assertNotSame(session, reused);
+			//the changes not saved are dropped when the session is returned
+			assertFalse(reused.hasPendingChanges());
+			assertFalse(reused.nodeExists("/pending"));
+			assertEquals(1, pool.getCreated());
+			assertEquals(1, pool.getReused());
+			assertEquals(1, pool.getActive());
+		} finally {
+			reused.logout();
+		}
+		assertEquals(0, pool.getActive());
+		assertEquals(1, pool.getIdle());
+	}
+	
+	@Test
+	public void waitForFullPool() throws RepositoryException, InterruptedException {
+		final Session session=pool.getSession();
+		try {
+			pool.getSession();
+			fail("The pool holds one session");
+		} catch (RepositoryException e) {
+		}
+		//the pools of the workspaces are separate
+		session.getWorkspace().createWorkspace("ws1");
+		pool.getSession("ws1").logout();
+		pool.setMaxWait(10000);
+		Thread thread=new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				session.logout();
+			}
+		};
+		thread.start();
+		Session next=pool.getSession();
+		next.logout();
+		thread.join();
+		assertEquals(2, pool.getWaits());
+		assertEquals(2, pool.getCreated());
+	}
+	
+	@Test
+	public void evictIdleSessions() throws RepositoryException, InterruptedException {
+		pool.setIdleTimeout(10);
+		pool.getSession().logout();
+		Thread.sleep(50);
+		pool.getSession().logout();
+		assertEquals(1, pool.getEvicted());
+		assertEquals(2, pool.getCreated());
+		pool.close();
+		assertEquals(0, pool.getIdle());
+		try {
+			pool.getSession();
+			fail("A closed pool does not lend sessions");
+		} catch (RepositoryException e) {
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package jackrabbit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import jackrabbit.repository.TestRepositories;
+
+import java.io.IOException;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NodeSizeCacheTest {
+	
+	//jcr:primaryType of each of the 4 nodes, then the properties as Strings: "abc", "12345", "x" and "yz", "true"
+	private static final long STRING_SIZE=4*"nt:unstructured".length()+3+5+3+4;
+	//the same, with the fixed lengths of the long and boolean values
+	private static final long LENGTH_SIZE=4*"nt:unstructured".length()+3+LengthSizeEstimator.LONG_LENGTH+3+LengthSizeEstimator.BOOLEAN_LENGTH;
+	
+	private TestRepositories repositories;
+	private Session session;
+	private Node data;
+	
+	@Before
+	public void setUp() throws IOException, RepositoryException {
+		repositories=new TestRepositories("sizes");
+		session=TestRepositories.getSessionFactory(repositories.open()).getSession();
+		data=session.getRootNode().addNode("data", "nt:unstructured");
+		Node a=data.addNode("a", "nt:unstructured");
+		a.setProperty("p", "abc");
+		Node b=a.addNode("b", "nt:unstructured");
+		b.setProperty("p", 12345L);
+		b.setProperty("q", new String[]{"x", "yz"});
+		data.addNode("c", "nt:unstructured").setProperty("p", true);
+		session.save();
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		session.logout();
+		repositories.close();
+	}
+	
+	@Test
+	public void getDescendantsSize() throws RepositoryException {
+		assertEquals(STRING_SIZE, NodeUtils.getDescendantsSize(data));
+		assertEquals(2*"nt:unstructured".length()+3+5+3, NodeUtils.getDescendantsSize(data.getNode("a")));
+	}
+	
+	@Test
+	public void getEstimatedDescendantsSize() throws RepositoryException {
+		assertEquals(LENGTH_SIZE, NodeUtils.getDescendantsSize(data, new LengthSizeEstimator()));
+		assertEquals(STRING_SIZE, NodeUtils.getDescendantsSize(data, new StringSizeEstimator()));
+		assertEquals(LENGTH_SIZE, new NodeSizeCache(new LengthSizeEstimator()).getDescendantsSize(data));
+	}
+	
+	@Test
+	public void getCachedDescendantsSize() throws RepositoryException {
+		NodeSizeCache cache=new NodeSizeCache(new StringSizeEstimator());
+		assertEquals(STRING_SIZE, cache.getDescendantsSize(data));
+		assertEquals(4, cache.getDescendantsCount(data));
+		//the sizes of the whole subtree are computed once
+		assertEquals(4, cache.size());
+		assertTrue(cache.contains(data.getNode("a/b")));
+		assertEquals(NodeUtils.getDescendantsSize(data.getNode("a")), cache.getDescendantsSize(data.getNode("a")));
+		assertEquals(4, cache.size());
+	}
+
+}